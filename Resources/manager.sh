@@ -1,5 +1,44 @@
 #!/bin/bash
 cd /home/ec2-user/
-wget http://malachi-amir-bucket.s3.amazonaws.com/manager.enc
+BUCKET_URL=http://malachi-amir-bucket.s3.amazonaws.com
+
+# Run this script again on every boot, so a stopped standby manager starts from its cached files.
+if [ "$0" != "/home/ec2-user/boot.sh" ]; then
+    cp "$0" /home/ec2-user/boot.sh
+    chmod +x /home/ec2-user/boot.sh
+    echo "/home/ec2-user/boot.sh" >> /etc/rc.d/rc.local
+    chmod +x /etc/rc.d/rc.local
+fi
+
+# Fetch an artifact, unless the cached copy matches the checksum in the bucket's manifest.
+# $1 - file name, $2 - URL to use if the file is not in the manifest.
+fetch() {
+    SUM=$(grep "^$1 " manifest.txt 2>/dev/null | cut -d' ' -f2)
+    if [ -n "${SUM}" ]; then
+        if echo "${SUM}  $1" | sha256sum -c --status 2>/dev/null; then
+            echo "$1 is cached."
+            return
+        fi
+        wget -q -O "$1" "${BUCKET_URL}/artifacts/$1/${SUM}" && return
+    fi
+    wget -q -O "$1" "$2"
+}
+
+wget -q -O manifest.txt ${BUCKET_URL}/artifacts/manifest.txt
+fetch manager.enc ${BUCKET_URL}/manager.enc
 openssl des -d -out manager.jar -in manager.enc -k $$filePassword$$
-java -jar manager.jar $$missionsPerWorker$$ $$filePassword$$
+
+# A standby manager only fills its cache on the first boot, then stops until it is needed.
+if [ "$$standby$$" == "true" ] && [ ! -f standby_ready ]; then
+    touch standby_ready
+    shutdown -h now
+    exit 0
+fi
+
+# Size and pricing of the workers the manager launches.
+export WORKER_INSTANCE_TYPE="$$workerInstanceType$$"
+export WORKER_HEAP="$$workerHeap$$"
+export WORKER_SPOT="$$workerSpot$$"
+export WORKER_SPOT_PRICE="$$workerSpotPrice$$"
+
+java $$managerJavaOptions$$ -jar manager.jar $$missionsPerWorker$$ $$filePassword$$
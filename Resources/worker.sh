@@ -1,10 +1,54 @@
 #!/bin/bash
 cd /home/ec2-user/
-wget http://repo1.maven.org/maven2/edu/stanford/nlp/stanford-corenlp/3.3.0/stanford-corenlp-3.3.0-models.jar  
-wget http://repo1.maven.org/maven2/com/googlecode/efficient-java-matrix-library/ejml/0.23/ejml-0.23.jar  
-wget http://repo1.maven.org/maven2/edu/stanford/nlp/stanford-corenlp/3.3.0/stanford-corenlp-3.3.0.jar  
-wget http://central.maven.org/maven2/de/jollyday/jollyday/0.4.7/jollyday-0.4.7.jar  
-wget http://malachi-amir-bucket.s3.amazonaws.com/worker.enc
+BUCKET_URL=http://malachi-amir-bucket.s3.amazonaws.com
+MAVEN_URL=http://repo1.maven.org/maven2
+
+# Run this script again on every boot, so a stopped standby worker starts from its cached files.
+if [ "$0" != "/home/ec2-user/boot.sh" ]; then
+    cp "$0" /home/ec2-user/boot.sh
+    chmod +x /home/ec2-user/boot.sh
+    echo "/home/ec2-user/boot.sh" >> /etc/rc.d/rc.local
+    chmod +x /etc/rc.d/rc.local
+fi
+
+# Fetch an artifact, unless the cached copy matches the checksum in the bucket's manifest.
+# $1 - file name, $2 - URL to use if the file is not in the manifest.
+fetch() {
+    SUM=$(grep "^$1 " manifest.txt 2>/dev/null | cut -d' ' -f2)
+    if [ -n "${SUM}" ]; then
+        if echo "${SUM}  $1" | sha256sum -c --status 2>/dev/null; then
+            echo "$1 is cached."
+            return
+        fi
+        wget -q -O "$1" "${BUCKET_URL}/artifacts/$1/${SUM}" && return
+    fi
+    # Maven Central releases never change, so a copy from an earlier boot is good.
+    if [[ "$2" == ${MAVEN_URL}/* ]] && [ -f "$1" ]; then
+        return
+    fi
+    wget -q -O "$1" "$2"
+}
+
+wget -q -O manifest.txt ${BUCKET_URL}/artifacts/manifest.txt
+fetch stanford-corenlp-3.3.0-models.jar ${MAVEN_URL}/edu/stanford/nlp/stanford-corenlp/3.3.0/stanford-corenlp-3.3.0-models.jar
+fetch ejml-0.23.jar ${MAVEN_URL}/com/googlecode/efficient-java-matrix-library/ejml/0.23/ejml-0.23.jar
+fetch stanford-corenlp-3.3.0.jar ${MAVEN_URL}/edu/stanford/nlp/stanford-corenlp/3.3.0/stanford-corenlp-3.3.0.jar
+fetch jollyday-0.4.7.jar ${MAVEN_URL}/de/jollyday/jollyday/0.4.7/jollyday-0.4.7.jar
+fetch worker.enc ${BUCKET_URL}/worker.enc
 openssl des -d -out worker.jar -in worker.enc -k $$filePassword$$
-java -Xms128m -Xmx768M -cp .:worker.jar:stanford-corenlp-3.3.0.jar:stanford-corenlp-3.3.0-models.jar:ejml-0.23.jar:jollyday-0.4.7.jar Analyzer
+
+# A standby worker only fills its cache on the first boot, then stops until it is needed.
+if [ "$$standby$$" == "true" ] && [ ! -f standby_ready ]; then
+    touch standby_ready
+    shutdown -h now
+    exit 0
+fi
+
+# Heap of the analyzer, filled in by the manager. Anything that isn't a size keeps the old default.
+HEAP="$$workerHeap$$"
+if [[ ! "${HEAP}" =~ ^[0-9]+[mMgG]$ ]]; then
+    HEAP=768M
+fi
+
+java -Xms128m -Xmx${HEAP} -cp .:worker.jar:stanford-corenlp-3.3.0.jar:stanford-corenlp-3.3.0-models.jar:ejml-0.23.jar:jollyday-0.4.7.jar Analyzer
 touch done
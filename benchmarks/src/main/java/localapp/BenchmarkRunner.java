@@ -0,0 +1,25 @@
+package localapp;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler always on, so every result comes with its allocation rate.
+ * Takes the usual JMH options, e.g.:
+ *
+ *   java -jar benchmarks/target/benchmarks.jar ResultsToHtml -p records=1000,100000
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions command_line = new CommandLineOptions(args);
+        new Runner(new OptionsBuilder()
+                .parent(command_line)
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,93 @@
+package localapp;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the buffered summary --> HTML path with the streaming one.
+ * Peak memory is per process, so run each mode in its own JVM:
+ *
+ *   java -Xmx2g -cp benchmarks/target/benchmarks.jar localapp.HtmlExportBenchmark buffered 1000000
+ *   java -Xmx2g -cp benchmarks/target/benchmarks.jar localapp.HtmlExportBenchmark streaming 1000000
+ *
+ * Prints wall time, peak heap and peak RSS (Linux only).
+ */
+public class HtmlExportBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        String mode = args[0];
+        int records = Integer.parseInt(args[1]);
+
+        Path summary = Paths.get("bench-summary-" + records + ".txt");
+        if (!Files.exists(summary)) {
+            writeSummary(summary, records);
+        }
+        String output = "bench-" + mode + ".html";
+
+        long start = System.nanoTime();
+        if (mode.equals("buffered")) {
+            // What downloadSummary used to do: every line in a list, then one HTML string.
+            BufferedReader reader = Files.newBufferedReader(summary, StandardCharsets.UTF_8);
+            ArrayList<String> lines = new ArrayList<String>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+            reader.close();
+            Utils.exportToHTMLFile(lines, output);
+        }
+        else if (mode.equals("streaming")) {
+            BufferedReader reader = Files.newBufferedReader(summary, StandardCharsets.UTF_8);
+            Utils.exportToHTMLFile(reader, output);
+            reader.close();
+        }
+        else {
+            throw new IllegalArgumentException("Unknown mode: " + mode);
+        }
+        long elapsed_ms = (System.nanoTime() - start) / 1000000;
+
+        System.out.println(String.format("%s, %d records: %d ms, peak heap %d MB, peak RSS %s",
+                mode, records, elapsed_ms, peakHeap() / (1024 * 1024), peakRss()));
+    }
+
+    static void writeSummary(Path path, int records) throws IOException {
+        BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+        for (int i = 0; i < records; i++) {
+            writer.write(Summaries.record(i));
+            writer.write('\n');
+        }
+        writer.close();
+    }
+
+    private static long peakHeap() {
+        long peak = 0;
+        List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+        for (MemoryPoolMXBean pool : pools) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static String peakRss() throws IOException {
+        Path status = Paths.get("/proc/self/status");
+        if (!Files.exists(status)) {
+            return "n/a";
+        }
+        for (String line : Files.readAllLines(status, StandardCharsets.UTF_8)) {
+            if (line.startsWith("VmHWM:")) {
+                return line.substring("VmHWM:".length()).trim();
+            }
+        }
+        return "n/a";
+    }
+}
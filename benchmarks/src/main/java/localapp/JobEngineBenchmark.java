@@ -0,0 +1,241 @@
+package localapp;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Load test of "jobs" jobs in flight at once, against the local storage and queues. A stand-in manager answers each
+ * job "latency_ms" after it is sent, like a fleet of workers would, so only the client side limits how many run
+ * at once. "engine" runs them on JobEngine, waiting without threads; "threadPerJob" is how batches ran before,
+ * each job holding a thread of a pool of 16 until it is done. The peak thread count is printed after each iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class JobEngineBenchmark {
+
+    @Param({"1000", "10000"})
+    public int jobs;
+
+    @Param({"50"})
+    public long latency_ms;
+
+    // Threads of a batch before JobEngine.
+    private static final int BLOCKING_THREADS = 16;
+
+    private static final byte[] INPUT = ("https://www.tweet.com/a/status/1\nhttps://www.tweet.com/b/status/2\n" +
+            "https://www.tweet.com/c/status/3\n").getBytes(StandardCharsets.UTF_8);
+
+    private Path root;
+    private LocalStorage storage;
+    private LocalQueues queues;
+    private String jobs_queue;
+    private String answers_queue;
+    private CompletionNotifier notifier;
+
+    private ScheduledExecutorService workers;
+    private Thread manager;
+    private volatile boolean running;
+
+    @Setup(Level.Iteration)
+    public void setup() throws IOException {
+        root = Files.createTempDirectory("job-engine-benchmark");
+        storage = new LocalStorage(root);
+        storage.ensureBucket();
+        queues = new LocalQueues();
+        jobs_queue = queues.createQueue("jobs", null);
+        answers_queue = queues.createQueue("answers", null);
+        notifier = new CompletionNotifier(queues, answers_queue);
+
+        workers = Executors.newScheduledThreadPool(4);
+        running = true;
+        manager = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "stand-in-manager");
+        manager.setDaemon(true);
+        manager.start();
+        ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        System.out.println("\nPeak threads: " + threads.getPeakThreadCount());
+        running = false;
+        manager.interrupt();
+        workers.shutdownNow();
+        notifier.shutdown();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+                Files.delete(directory);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Benchmark
+    public long engine() throws Exception {
+        final JobEngine engine = new JobEngine(jobs, JobEngine.DEFAULT_IO_THREADS,
+                Runtime.getRuntime().availableProcessors());
+        try {
+            List<CompletableFuture<Long>> results = new ArrayList<CompletableFuture<Long>>();
+            for (int i = 0; i < jobs; i++) {
+                final String key = "job-" + i;
+                results.add(engine.submit(new Supplier<CompletableFuture<Long>>() {
+                    @Override
+                    public CompletableFuture<Long> get() {
+                        CompletableFuture<Void> done = engine.io(new Callable<CompletableFuture<Void>>() {
+                            @Override
+                            public CompletableFuture<Void> call() throws IOException {
+                                CompletableFuture<Void> done = notifier.completion(key);
+                                submit(key);
+                                return done;
+                            }
+                        }).thenCompose(new Function<CompletableFuture<Void>, CompletableFuture<Void>>() {
+                            @Override
+                            public CompletableFuture<Void> apply(CompletableFuture<Void> done) {
+                                return done;
+                            }
+                        });
+                        CompletableFuture<byte[]> summary = engine.io(done, new JobEngine.Step<Void, byte[]>() {
+                            @Override
+                            public byte[] apply(Void ignored) throws IOException {
+                                return download(key);
+                            }
+                        });
+                        return engine.cpu(summary, new JobEngine.Step<byte[], Long>() {
+                            @Override
+                            public Long apply(byte[] summary) {
+                                return count(summary);
+                            }
+                        });
+                    }
+                }));
+            }
+
+            long total = 0;
+            for (CompletableFuture<Long> result : results) {
+                total += JobEngine.await(result);
+            }
+            return total;
+        }
+        finally {
+            engine.shutdown();
+        }
+    }
+
+    @Benchmark
+    public long threadPerJob() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(BLOCKING_THREADS);
+        try {
+            List<Future<Long>> results = new ArrayList<Future<Long>>();
+            for (int i = 0; i < jobs; i++) {
+                final String key = "job-" + i;
+                results.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        notifier.register(key);
+                        submit(key);
+                        notifier.await(key, 0, TimeUnit.MILLISECONDS);
+                        return count(download(key));
+                    }
+                }));
+            }
+
+            long total = 0;
+            for (Future<Long> result : results) {
+                total += result.get();
+            }
+            return total;
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void submit(String key) throws IOException {
+        storage.put(key, INPUT, 0, INPUT.length, new ObjectInfo().withContentType("text/plain"));
+        queues.send(jobs_queue, key, null);
+    }
+
+    private byte[] download(String key) throws IOException {
+        InputStream input = storage.get(key);
+        try {
+            ByteArrayOutputStream summary = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = input.read(buffer)) > 0) {
+                summary.write(buffer, 0, read);
+            }
+            return summary.toByteArray();
+        }
+        finally {
+            input.close();
+        }
+    }
+
+    private static long count(byte[] summary) {
+        long lines = 0;
+        for (byte b : summary) {
+            if (b == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Take jobs as they come, and answer each one latency_ms later with a summary of its links.
+     */
+    private void serve() {
+        while (running) {
+            List<QueueMessage> messages;
+            try {
+                messages = queues.receive(jobs_queue, CompletionNotifier.MAX_BATCH_SIZE, 1, 60);
+            }
+            catch (RuntimeException e) {
+                return;
+            }
+            for (final QueueMessage message : messages) {
+                queues.delete(jobs_queue, message.receipt_handle);
+                workers.schedule(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        byte[] summary = (message.body + "|1|[]|" + new String(INPUT, StandardCharsets.UTF_8))
+                                .getBytes(StandardCharsets.UTF_8);
+                        storage.put(message.body, summary, 0, summary.length,
+                                new ObjectInfo().withContentType("text/plain"));
+                        queues.send(answers_queue, message.body + CompletionNotifier.DONE_SUFFIX, null);
+                        return null;
+                    }
+                }, latency_ms, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package localapp;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dedupe of DONE messages that belong to other local apps, with "records" of them already seen.
+ * The old waitForDone kept them in an ArrayList and called contains() for every message it received;
+ * CompletionNotifier keeps message IDs in a bounded LRU set.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class KnownKeysBenchmark {
+
+    @Param({"1000", "100000", "10000000"})
+    public int records;
+
+    private ArrayList<String> known_keys;
+    private Set<String> seen_messages;
+    private int next;
+
+    @Setup
+    public void setup() {
+        known_keys = new ArrayList<String>(records);
+        for (int i = 0; i < records; i++) {
+            known_keys.add(i + CompletionNotifier.DONE_SUFFIX);
+        }
+
+        seen_messages = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > CompletionNotifier.SEEN_CAPACITY;
+            }
+        });
+        for (int i = 0; i < records; i++) {
+            seen_messages.add(i + CompletionNotifier.DONE_SUFFIX);
+        }
+    }
+
+    /**
+     * A message we have not seen yet, the common case.
+     */
+    private String newMessage() {
+        return (records + next++) + CompletionNotifier.DONE_SUFFIX;
+    }
+
+    @Benchmark
+    public boolean arrayListContains() {
+        return known_keys.contains(newMessage());
+    }
+
+    @Benchmark
+    public boolean seenSetAdd() {
+        return seen_messages.add(newMessage());
+    }
+}
@@ -0,0 +1,53 @@
+package localapp;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Utils.loadFromFile, which builds the file content with string concatenation in a loop.
+ * That is quadratic: 100K lines already copy hundreds of GB, so 10M lines is left out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class LoadFromFileBenchmark {
+
+    @Param({"1000", "100000"})
+    public int records;
+
+    private Path file;
+
+    @Setup
+    public void setup() throws IOException {
+        file = Files.createTempFile("load-from-file", ".txt");
+        BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        try {
+            for (int i = 0; i < records; i++) {
+                writer.write(Summaries.record(i));
+                writer.write('\n');
+            }
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public String loadFromFile() throws IOException {
+        return Utils.loadFromFile(file.toString());
+    }
+}
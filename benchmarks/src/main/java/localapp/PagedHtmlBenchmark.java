@@ -0,0 +1,100 @@
+package localapp;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Summary file --> HTML: "singlePage" is Utils.exportToHTMLFile, one page on one thread; "paged" is PagedHtmlExport,
+ * pages of 10000 results rendered on a fork-join pool of "threads" threads (0 for one per core), plus the histogram
+ * and top entities of the index page. Records a second is records / the time of an operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class PagedHtmlBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int records;
+
+    @Param({"text", "binary"})
+    public String format;
+
+    @Param({"0"})
+    public int threads;
+
+    private Path directory;
+    private Path summary;
+    private PagedHtmlExport paged_export;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("paged-html-benchmark");
+        summary = directory.resolve("summary");
+        if (format.equals("text")) {
+            BufferedWriter writer = Files.newBufferedWriter(summary, StandardCharsets.UTF_8);
+            try {
+                for (int i = 0; i < records; i++) {
+                    writer.write(Summaries.record(i));
+                    writer.write('\n');
+                }
+            }
+            finally {
+                writer.close();
+            }
+        }
+        else {
+            OutputStream output = Files.newOutputStream(summary);
+            BinarySummaryWriter writer = new BinarySummaryWriter(output);
+            try {
+                for (int i = 0; i < records; i++) {
+                    String[] fields = Summaries.record(i).split("\\|", 4);
+                    writer.write(fields[0], Integer.parseInt(fields[1]), fields[2], fields[3]);
+                }
+            }
+            finally {
+                writer.close();
+            }
+        }
+        paged_export = new PagedHtmlExport(PagedHtmlExport.DEFAULT_PAGE_RESULTS,
+                threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        paged_export.shutdown();
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+                Files.delete(directory);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Benchmark
+    public long singlePage() throws IOException {
+        return Utils.exportToHTMLFile(summary, directory.resolve("single.html").toString());
+    }
+
+    @Benchmark
+    public long paged() throws IOException {
+        Path index = directory.resolve("paged.html");
+        return paged_export.export(summary, index, index);
+    }
+}
@@ -0,0 +1,62 @@
+package localapp;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Record --> HTML on a 1M line summary: the old String.split path against HtmlResultWriter.
+ * Both write into a NullWriter, so only the parsing and encoding are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ResultParserBenchmark {
+
+    @Param({"1000000"})
+    public int records;
+
+    private ArrayList<String> lines;
+
+    @Setup
+    public void setup() {
+        lines = Summaries.lines(records);
+    }
+
+    /**
+     * What Utils.writeHtmlResult did before: split, then append the fields unescaped.
+     */
+    static void splitResult(Appendable output, String result) throws IOException {
+        String[] result_data = result.split("\\|");
+
+        output.append("\n<p>\n<div class=\"sentiment-level-")
+                .append(result_data[1])
+                .append("\">\n").append(result_data[3]).append("\n</div>")
+                .append(result_data[2]).append("\n</p>");
+    }
+
+    @Benchmark
+    public long split() throws IOException {
+        Summaries.NullWriter output = new Summaries.NullWriter();
+        for (String line : lines) {
+            splitResult(output, line);
+        }
+        return output.written;
+    }
+
+    @Benchmark
+    public long indexed() throws IOException {
+        Summaries.NullWriter output = new Summaries.NullWriter();
+        HtmlResultWriter html = new HtmlResultWriter(output);
+        for (String line : lines) {
+            html.writeResult(line);
+        }
+        html.flush();
+        return output.written;
+    }
+}
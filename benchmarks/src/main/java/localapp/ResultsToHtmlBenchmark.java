@@ -0,0 +1,33 @@
+package localapp;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Utils.resultsToHtml: every record turned into HTML and appended to one big string.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class ResultsToHtmlBenchmark {
+
+    @Param({"1000", "100000", "10000000"})
+    public int records;
+
+    private ArrayList<String> lines;
+
+    @Setup
+    public void setup() {
+        lines = Summaries.lines(records);
+    }
+
+    @Benchmark
+    public String resultsToHtml() {
+        return Utils.resultsToHtml(lines);
+    }
+}
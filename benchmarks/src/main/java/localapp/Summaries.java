@@ -0,0 +1,75 @@
+package localapp;
+
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Made up summaries for the benchmarks, shaped like the workers' results: "key|sentiment|entities|tweet".
+ */
+class Summaries {
+
+    static String record(int i) {
+        return i + "|" + (i % 5) + "|[Obama:PERSON,Israel:LOCATION]|" +
+                "This is tweet number " + i + " and it is about as long as a real tweet would be.";
+    }
+
+    static ArrayList<String> lines(int records) {
+        ArrayList<String> lines = new ArrayList<String>(records);
+        for (int i = 0; i < records; i++) {
+            lines.add(record(i));
+        }
+        return lines;
+    }
+
+    /**
+     * @return the summary file content, a record per line.
+     */
+    static byte[] bytes(int records) {
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < records; i++) {
+            data.append(record(i)).append('\n');
+        }
+        return data.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Drops what is written, after copying it like a real sink would, so only the producing side is measured.
+     */
+    static class NullWriter extends Writer {
+        private final char[] scratch = new char[8192];
+        long written;
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            for (int copied = 0; copied < length; copied += scratch.length) {
+                System.arraycopy(buffer, offset + copied, scratch, 0, Math.min(scratch.length, length - copied));
+            }
+            written += length;
+        }
+
+        @Override
+        public void write(String text, int offset, int length) {
+            for (int copied = 0; copied < length; copied += scratch.length) {
+                int count = Math.min(scratch.length, length - copied);
+                text.getChars(offset + copied, offset + copied + count, scratch, 0);
+            }
+            written += length;
+        }
+
+        @Override
+        public Writer append(CharSequence text) {
+            String string = text.toString();
+            write(string, 0, string.length());
+            return this;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package localapp;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Text summary against the binary one: decoding every field, the summary --> HTML stream, and encoding.
+ * The sizes (text, gzipped text, binary) are printed once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class SummaryFormatBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int records;
+
+    private ArrayList<String> lines;
+    private byte[] text;
+    private byte[] binary;
+
+    @Setup
+    public void setup() throws IOException {
+        lines = Summaries.lines(records);
+        text = Summaries.bytes(records);
+        binary = encode();
+
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(gzipped);
+        gzip.write(text);
+        gzip.close();
+        System.out.println("\nSizes for " + records + " records: text " + text.length + ", gzipped text " +
+                gzipped.size() + ", binary " + binary.length + " bytes");
+    }
+
+    @Benchmark
+    public void textDecode(Blackhole blackhole) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(text), StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int first = line.indexOf('|');
+            int second = line.indexOf('|', first + 1);
+            int third = line.indexOf('|', second + 1);
+            blackhole.consume(line.substring(0, first));
+            blackhole.consume(line.charAt(first + 1) - '0');
+            blackhole.consume(line.substring(second + 1, third));
+            blackhole.consume(line.substring(third + 1));
+        }
+    }
+
+    @Benchmark
+    public void binaryDecode(Blackhole blackhole) throws IOException {
+        BinarySummaryReader reader = new BinarySummaryReader(new ByteArrayInputStream(binary));
+        while (reader.next()) {
+            blackhole.consume(reader.key());
+            blackhole.consume(reader.sentiment());
+            blackhole.consume(reader.entities());
+            blackhole.consume(reader.tweet());
+        }
+        reader.close();
+    }
+
+    @Benchmark
+    public long textToHtml() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(text), StandardCharsets.UTF_8));
+        Summaries.NullWriter output = new Summaries.NullWriter();
+        Utils.writeHtml(reader, output);
+        return output.written;
+    }
+
+    @Benchmark
+    public long binaryToHtml() throws IOException {
+        BinarySummaryReader reader = new BinarySummaryReader(new ByteArrayInputStream(binary));
+        Summaries.NullWriter output = new Summaries.NullWriter();
+        Utils.writeHtml(reader, output);
+        return output.written;
+    }
+
+    @Benchmark
+    public byte[] binaryEncode() throws IOException {
+        return encode();
+    }
+
+    private byte[] encode() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BinarySummaryWriter writer = new BinarySummaryWriter(output);
+        for (String line : lines) {
+            writer.writeLine(line);
+        }
+        writer.close();
+        return output.toByteArray();
+    }
+}
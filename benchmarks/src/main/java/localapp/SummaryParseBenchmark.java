@@ -0,0 +1,53 @@
+package localapp;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a downloaded summary: splitting records into their fields, and the whole
+ * summary --> HTML stream that downloadSummary runs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class SummaryParseBenchmark {
+
+    @Param({"1000", "100000", "10000000"})
+    public int records;
+
+    private ArrayList<String> lines;
+    private byte[] summary;
+
+    @Setup
+    public void setup() {
+        lines = Summaries.lines(records);
+        summary = Summaries.bytes(records);
+    }
+
+    @Benchmark
+    public void splitRecords(Blackhole blackhole) {
+        for (String line : lines) {
+            blackhole.consume(line.split("\\|"));
+        }
+    }
+
+    @Benchmark
+    public long summaryToHtml() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(summary), StandardCharsets.UTF_8));
+        Summaries.NullWriter output = new Summaries.NullWriter();
+        Utils.writeHtml(reader, output);
+        return output.written;
+    }
+}
@@ -0,0 +1,95 @@
+package localapp;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Future;
+
+/**
+ * Keeps the files instances boot from in the bucket, versioned by checksum.
+ * Every file goes to "artifacts/<name>/<sha256>", and "artifacts/manifest.txt" lists the current
+ * checksum of each name. manager.sh and worker.sh read the manifest and only download a file when
+ * their cached copy has a different checksum.
+ */
+class ArtifactCache {
+
+    static final String ARTIFACTS_PREFIX = "artifacts/";
+    static final String MANIFEST_KEY = ARTIFACTS_PREFIX + "manifest.txt";
+
+    private final Storage storage;
+    private final UploadStage upload_stage;
+
+    ArtifactCache(Storage storage, UploadStage upload_stage) {
+        this.storage = storage;
+        this.upload_stage = upload_stage;
+    }
+
+    /**
+     * Upload files that changed, and point the manifest at them.
+     * Names not in the list keep their manifest entry.
+     *
+     * @param files artifacts to publish, by file name.
+     */
+    void publish(List<File> files) throws IOException, InterruptedException {
+        Map<String, String> manifest = loadManifest();
+
+        // Everyone can download, so the instances can wget them.
+        List<Future<String>> uploads = new ArrayList<Future<String>>();
+        for (File file : files) {
+            String hash = UploadStage.sha256(file);
+            if (hash.equals(manifest.get(file.getName()))) {
+                continue;
+            }
+            manifest.put(file.getName(), hash);
+            uploads.add(upload_stage.upload(file, ARTIFACTS_PREFIX + file.getName() + "/" + hash,
+                    true, false, true));
+        }
+
+        if (uploads.isEmpty()) {
+            System.out.println("Artifacts are up to date.");
+            return;
+        }
+        UploadStage.awaitAll(uploads);
+        saveManifest(manifest);
+        System.out.println("Published " + uploads.size() + " artifacts.");
+    }
+
+    /**
+     * @return artifact name --> checksum, empty if there's no manifest yet.
+     */
+    Map<String, String> loadManifest() throws IOException {
+        Map<String, String> manifest = new TreeMap<String, String>();
+        InputStream input = storage.get(MANIFEST_KEY);
+        if (input == null) {
+            return manifest;
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] entry = line.trim().split(" ");
+                if (entry.length == 2) {
+                    manifest.put(entry[0], entry[1]);
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return manifest;
+    }
+
+    private void saveManifest(Map<String, String> manifest) throws IOException {
+        StringBuilder data = new StringBuilder();
+        for (Map.Entry<String, String> entry : manifest.entrySet()) {
+            data.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        byte[] bytes = data.toString().getBytes(StandardCharsets.UTF_8);
+
+        storage.put(MANIFEST_KEY, bytes, 0, bytes.length, new ObjectInfo().withContentType("text/plain").withPublicRead(true));
+    }
+}
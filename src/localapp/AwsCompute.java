@@ -0,0 +1,125 @@
+package localapp;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.*;
+import org.apache.commons.codec.binary.Base64;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Machines on EC2.
+ */
+class AwsCompute implements Compute {
+
+    private final AmazonEC2 ec2;
+    private final String image_id;
+    private final String key_name;
+    private final String security_group_ids;
+
+    AwsCompute(AmazonEC2 ec2, String image_id, String key_name, String security_group_ids) {
+        this.ec2 = ec2;
+        this.image_id = image_id;
+        this.key_name = key_name;
+        this.security_group_ids = security_group_ids;
+    }
+
+    @Override
+    public List<String> launch(String tag, String user_data, int count, InstanceSpec spec)
+            throws UnsupportedEncodingException {
+        // Request for booting machines up with key pair kp
+        RunInstancesRequest request = new RunInstancesRequest().
+                withImageId(image_id).
+                withMinCount(count).
+                withMaxCount(count).
+                withInstanceType(spec.instance_type).
+                withKeyName(key_name).
+                withSecurityGroupIds(security_group_ids).
+                withTagSpecifications(new TagSpecification().
+                        withResourceType(ResourceType.Instance).
+                        withTags(new Tag("Name", tag)));
+
+        if (spec.spot) {
+            SpotMarketOptions spot_options = new SpotMarketOptions().withSpotInstanceType(SpotInstanceType.OneTime);
+            if (spec.spot_price != null) {
+                spot_options.setMaxPrice(spec.spot_price);
+            }
+            request.setInstanceMarketOptions(new InstanceMarketOptionsRequest().
+                    withMarketType(MarketType.Spot).
+                    withSpotOptions(spot_options));
+        }
+
+        // Base configuration.
+        String base64UserData = new String(Base64.encodeBase64(user_data.getBytes("UTF-8")), "UTF-8");
+        request.setUserData(base64UserData);
+        RunInstancesResult runInstancesResult = ec2.runInstances(request);
+
+        // Save IDs locally.
+        List<String> instanceIds = new ArrayList<String>();
+        for (Instance instance : runInstancesResult.getReservation().getInstances()) {
+            instanceIds.add(instance.getInstanceId());
+        }
+        return instanceIds;
+    }
+
+    @Override
+    public List<String> find(String tag, String... states) {
+        DescribeInstancesRequest request = new DescribeInstancesRequest().withFilters(
+                new Filter("tag:Name").withValues(tag),
+                new Filter("instance-state-name").withValues(states));
+
+        List<String> found = new ArrayList<String>();
+        String token = null;
+        do {
+            DescribeInstancesResult result = ec2.describeInstances(request.withNextToken(token));
+            for (Reservation reservation : result.getReservations()) {
+                for (Instance instance : reservation.getInstances()) {
+                    found.add(instance.getInstanceId());
+                }
+            }
+            token = result.getNextToken();
+        } while (token != null);
+        return found;
+    }
+
+    @Override
+    public String state(String instance_id) {
+        try {
+            DescribeInstancesRequest request = new DescribeInstancesRequest().withInstanceIds(instance_id);
+            for (Reservation reservation : ec2.describeInstances(request).getReservations()) {
+                for (Instance instance : reservation.getInstances()) {
+                    return instance.getState().getName();
+                }
+            }
+            return null;
+        }
+        catch (AmazonServiceException e) {
+            // Instances that are long gone are not found at all.
+            if (e.getErrorCode() != null && e.getErrorCode().startsWith("InvalidInstanceID")) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void tag(String instance_id, String key, String value) {
+        ec2.createTags(new CreateTagsRequest().withResources(instance_id).withTags(new Tag(key, value)));
+    }
+
+    @Override
+    public String start(String instance_id) {
+        StartInstancesResult result = ec2.startInstances(new StartInstancesRequest().withInstanceIds(instance_id));
+        for (InstanceStateChange change : result.getStartingInstances()) {
+            return change.getPreviousState().getName();
+        }
+        return null;
+    }
+
+    @Override
+    public void terminate(String instance_id) {
+        ec2.terminateInstances(new TerminateInstancesRequest().withInstanceIds(instance_id));
+    }
+}
@@ -0,0 +1,148 @@
+package localapp;
+
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Queues on SQS.
+ */
+class AwsQueues implements Queues {
+
+    // Most entries SQS takes in one batch request.
+    static final int MAX_BATCH_SIZE = 10;
+
+    // Largest message, and most bytes of all the messages of one batch request.
+    static final int MAX_MESSAGE_BYTES = 256 * 1024;
+    static final int MAX_BATCH_BYTES = 256 * 1024;
+
+    private final AmazonSQS sqs;
+
+    AwsQueues(AmazonSQS sqs) {
+        this.sqs = sqs;
+    }
+
+    @Override
+    public String createQueue(String name, Map<String, String> attributes) {
+        try {
+            CreateQueueRequest createQueueRequest = new CreateQueueRequest(name);
+            if (attributes != null) {
+                createQueueRequest.setAttributes(attributes);
+            }
+            return sqs.createQueue(createQueueRequest).getQueueUrl();
+        }
+        catch (QueueNameExistsException e) {
+            // Exists with other attributes.
+            return sqs.getQueueUrl(name).getQueueUrl();
+        }
+    }
+
+    @Override
+    public void deleteQueue(String queue_url) {
+        sqs.deleteQueue(new DeleteQueueRequest(queue_url));
+    }
+
+    @Override
+    public void purge(String queue_url) {
+        sqs.purgeQueue(new PurgeQueueRequest(queue_url));
+    }
+
+    @Override
+    public void send(String queue_url, String body, Map<String, String> attributes) {
+        SendMessageRequest request = new SendMessageRequest(queue_url, body);
+        if (attributes != null) {
+            for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+                request.addMessageAttributesEntry(attribute.getKey(),
+                        new MessageAttributeValue().withDataType("String").withStringValue(attribute.getValue()));
+            }
+        }
+        sqs.sendMessage(request);
+    }
+
+    @Override
+    public List<QueueMessage> sendBatch(String queue_url, List<QueueMessage> messages) {
+        List<QueueMessage> failed = new ArrayList<QueueMessage>();
+        List<QueueMessage> batch = new ArrayList<QueueMessage>();
+        int batch_bytes = 0;
+        for (QueueMessage message : messages) {
+            int size = message.size();
+            if (!batch.isEmpty() && (batch.size() == MAX_BATCH_SIZE || batch_bytes + size > MAX_BATCH_BYTES)) {
+                failed.addAll(sendBatchRequest(queue_url, batch));
+                batch = new ArrayList<QueueMessage>();
+                batch_bytes = 0;
+            }
+            batch.add(message);
+            batch_bytes += size;
+        }
+        if (!batch.isEmpty()) {
+            failed.addAll(sendBatchRequest(queue_url, batch));
+        }
+        return failed;
+    }
+
+    /**
+     * @return the messages SQS didn't take.
+     */
+    private List<QueueMessage> sendBatchRequest(String queue_url, List<QueueMessage> batch) {
+        List<SendMessageBatchRequestEntry> entries = new ArrayList<SendMessageBatchRequestEntry>();
+        for (int i = 0; i < batch.size(); i++) {
+            SendMessageBatchRequestEntry entry =
+                    new SendMessageBatchRequestEntry(Integer.toString(i), batch.get(i).body);
+            for (Map.Entry<String, String> attribute : batch.get(i).attributes.entrySet()) {
+                entry.addMessageAttributesEntry(attribute.getKey(),
+                        new MessageAttributeValue().withDataType("String").withStringValue(attribute.getValue()));
+            }
+            entries.add(entry);
+        }
+
+        List<QueueMessage> failed = new ArrayList<QueueMessage>();
+        for (BatchResultErrorEntry error : sqs.sendMessageBatch(queue_url, entries).getFailed()) {
+            failed.add(batch.get(Integer.parseInt(error.getId())));
+        }
+        return failed;
+    }
+
+    @Override
+    public List<QueueMessage> receive(String queue_url, int max_messages, int wait_seconds, int visibility_seconds) {
+        ReceiveMessageRequest request = new ReceiveMessageRequest(queue_url)
+                .withWaitTimeSeconds(wait_seconds)
+                .withMaxNumberOfMessages(max_messages)
+                .withVisibilityTimeout(visibility_seconds)
+                .withMessageAttributeNames("All");
+
+        List<QueueMessage> messages = new ArrayList<QueueMessage>();
+        for (Message message : sqs.receiveMessage(request).getMessages()) {
+            Map<String, String> attributes = new HashMap<String, String>();
+            for (Map.Entry<String, MessageAttributeValue> attribute : message.getMessageAttributes().entrySet()) {
+                attributes.put(attribute.getKey(), attribute.getValue().getStringValue());
+            }
+            messages.add(new QueueMessage(message.getMessageId(), message.getReceiptHandle(), message.getBody(), attributes));
+        }
+        return messages;
+    }
+
+    @Override
+    public void delete(String queue_url, String receipt_handle) {
+        sqs.deleteMessage(new DeleteMessageRequest(queue_url, receipt_handle));
+    }
+
+    @Override
+    public void release(String queue_url, List<QueueMessage> messages) {
+        List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<ChangeMessageVisibilityBatchRequestEntry>();
+        for (QueueMessage message : messages) {
+            entries.add(new ChangeMessageVisibilityBatchRequestEntry(message.id, message.receipt_handle)
+                    .withVisibilityTimeout(0));
+            if (entries.size() == MAX_BATCH_SIZE) {
+                sqs.changeMessageVisibilityBatch(queue_url, entries);
+                entries = new ArrayList<ChangeMessageVisibilityBatchRequestEntry>();
+            }
+        }
+        if (!entries.isEmpty()) {
+            sqs.changeMessageVisibilityBatch(queue_url, entries);
+        }
+    }
+}
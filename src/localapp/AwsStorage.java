@@ -0,0 +1,155 @@
+package localapp;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Storage on an S3 bucket.
+ */
+class AwsStorage implements Storage {
+
+    private final AmazonS3 s3;
+    private final String bucket_name;
+
+    AwsStorage(AmazonS3 s3, String bucket_name) {
+        this.s3 = s3;
+        this.bucket_name = bucket_name;
+    }
+
+    @Override
+    public void ensureBucket() {
+        if (!s3.doesBucketExist(bucket_name)) {
+            System.out.println("Creating bucket: " + bucket_name);
+            s3.createBucket(bucket_name);
+        }
+    }
+
+    @Override
+    public ObjectInfo head(String key) {
+        ObjectMetadata metadata;
+        try {
+            metadata = s3.getObjectMetadata(bucket_name, key);
+        }
+        catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == 404) {
+                return null;
+            }
+            throw e;
+        }
+
+        ObjectInfo info = new ObjectInfo()
+                .withContentEncoding(metadata.getContentEncoding())
+                .withContentType(metadata.getContentType());
+        info.length = metadata.getContentLength();
+        info.etag = metadata.getETag();
+        info.user_metadata.putAll(metadata.getUserMetadata());
+        return info;
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return s3.doesObjectExist(bucket_name, key);
+    }
+
+    @Override
+    public void put(String key, byte[] data, int offset, int length, ObjectInfo info) {
+        ObjectMetadata metadata = toMetadata(info);
+        metadata.setContentLength(length);
+        PutObjectRequest request = new PutObjectRequest(bucket_name, key,
+                new ByteArrayInputStream(data, offset, length), metadata);
+        if (info.public_read) {
+            request.setCannedAcl(CannedAccessControlList.PublicRead);
+        }
+        s3.putObject(request);
+    }
+
+    @Override
+    public InputStream get(String key) {
+        try {
+            return s3.getObject(bucket_name, key).getObjectContent();
+        }
+        catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == 404) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public InputStream getRange(String key, long start, long end, String etag) throws IOException {
+        GetObjectRequest request = new GetObjectRequest(bucket_name, key).withRange(start, end);
+        if (etag != null) {
+            request.setMatchingETagConstraints(java.util.Collections.singletonList(etag));
+        }
+        S3Object object = s3.getObject(request);
+        if (object == null) {
+            // The ETag constraint failed.
+            throw new IOException("Object changed while downloading: " + key);
+        }
+        return object.getObjectContent();
+    }
+
+    @Override
+    public void copy(String from_key, String to_key) {
+        s3.copyObject(new CopyObjectRequest(bucket_name, from_key, bucket_name, to_key));
+    }
+
+    @Override
+    public void delete(String key) {
+        s3.deleteObject(new DeleteObjectRequest(bucket_name, key));
+    }
+
+    @Override
+    public String startMultipart(String key, ObjectInfo info) {
+        InitiateMultipartUploadRequest request = new InitiateMultipartUploadRequest(bucket_name, key, toMetadata(info));
+        if (info.public_read) {
+            request.setCannedACL(CannedAccessControlList.PublicRead);
+        }
+        return s3.initiateMultipartUpload(request).getUploadId();
+    }
+
+    @Override
+    public String putPart(String key, String upload_id, int part_number, byte[] data, int length) {
+        UploadPartRequest request = new UploadPartRequest()
+                .withBucketName(bucket_name)
+                .withKey(key)
+                .withUploadId(upload_id)
+                .withPartNumber(part_number)
+                .withPartSize(length)
+                .withInputStream(new ByteArrayInputStream(data, 0, length));
+        return s3.uploadPart(request).getETag();
+    }
+
+    @Override
+    public void completeMultipart(String key, String upload_id, List<String> etags) {
+        List<PartETag> parts = new ArrayList<PartETag>();
+        for (int i = 0; i < etags.size(); i++) {
+            parts.add(new PartETag(i + 1, etags.get(i)));
+        }
+        s3.completeMultipartUpload(new CompleteMultipartUploadRequest(bucket_name, key, upload_id, parts));
+    }
+
+    @Override
+    public void abortMultipart(String key, String upload_id) {
+        s3.abortMultipartUpload(new AbortMultipartUploadRequest(bucket_name, key, upload_id));
+    }
+
+    private static ObjectMetadata toMetadata(ObjectInfo info) {
+        ObjectMetadata metadata = new ObjectMetadata();
+        if (info.content_encoding != null) {
+            metadata.setContentEncoding(info.content_encoding);
+        }
+        if (info.content_type != null) {
+            metadata.setContentType(info.content_type);
+        }
+        metadata.setUserMetadata(new java.util.HashMap<String, String>(info.user_metadata));
+        return metadata;
+    }
+}
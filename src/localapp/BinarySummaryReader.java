@@ -0,0 +1,185 @@
+package localapp;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a binary summary (see SummaryFormat) one result at a time:
+ *
+ *   while (reader.next()) { reader.sentiment(); reader.tweet(); ... }
+ *
+ * Only the current block is in memory.
+ */
+class BinarySummaryReader implements Closeable {
+
+    private final DataInputStream input;
+    private final Inflater inflater = new Inflater();
+
+    // Current block.
+    private byte[] compressed = new byte[64 * 1024];
+    private byte[] data = new byte[0];
+    private String[] dictionary = new String[0];
+    private int block_records;
+    private int sentiments_offset;
+    private int[] keys = new int[0];
+    private int[] entities = new int[0];
+
+    // Position of the next tweet in data.
+    private final int[] position = new int[1];
+
+    // Current result, -1 before the first.
+    private int record = -1;
+    private String tweet;
+    private boolean done;
+
+    BinarySummaryReader(InputStream input) throws IOException {
+        this.input = new DataInputStream(new BufferedInputStream(input, 64 * 1024));
+
+        byte[] magic = new byte[SummaryFormat.MAGIC.length];
+        this.input.readFully(magic);
+        if (!Arrays.equals(magic, SummaryFormat.MAGIC)) {
+            throw new IOException("Not a binary summary");
+        }
+        int version = this.input.read();
+        if (version != SummaryFormat.VERSION) {
+            throw new IOException("Unsupported summary version: " + version);
+        }
+    }
+
+    /**
+     * Move to the next result.
+     *
+     * @return false at the end of the summary.
+     */
+    boolean next() throws IOException {
+        if (done) {
+            return false;
+        }
+        record++;
+        if (record >= block_records) {
+            if (!readBlock()) {
+                done = true;
+                return false;
+            }
+            record = 0;
+        }
+
+        int length = SummaryFormat.readVarInt(data, position);
+        if (position[0] + length > data.length) {
+            throw new IOException("Corrupt summary block");
+        }
+        tweet = new String(data, position[0], length, StandardCharsets.UTF_8);
+        position[0] += length;
+        return true;
+    }
+
+    String key() {
+        return dictionary[keys[record]];
+    }
+
+    /**
+     * @return 0-4, or -1 for none.
+     */
+    int sentiment() {
+        int sentiment = data[sentiments_offset + record] & 0xFF;
+        return sentiment == SummaryFormat.NO_SENTIMENT ? -1 : sentiment;
+    }
+
+    String entities() {
+        return dictionary[entities[record]];
+    }
+
+    String tweet() {
+        return tweet;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        input.close();
+    }
+
+    private boolean readBlock() throws IOException {
+        int count;
+        int raw_length;
+        int compressed_length;
+        try {
+            count = input.readInt();
+            raw_length = input.readInt();
+            compressed_length = input.readInt();
+        }
+        catch (EOFException e) {
+            throw new IOException("Summary is cut off", e);
+        }
+        if (count == 0) {
+            return false;
+        }
+        if (count < 0 || raw_length < 0 || compressed_length < 0) {
+            throw new IOException("Corrupt summary block");
+        }
+
+        if (compressed.length < compressed_length) {
+            compressed = new byte[compressed_length];
+        }
+        input.readFully(compressed, 0, compressed_length);
+        if (data.length < raw_length) {
+            data = new byte[raw_length];
+        }
+        inflater.reset();
+        inflater.setInput(compressed, 0, compressed_length);
+        try {
+            int inflated = 0;
+            while (inflated < raw_length && !inflater.finished()) {
+                int n = inflater.inflate(data, inflated, raw_length - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += n;
+            }
+            if (inflated != raw_length) {
+                throw new IOException("Corrupt summary block");
+            }
+        }
+        catch (DataFormatException e) {
+            throw new IOException("Corrupt summary block", e);
+        }
+
+        position[0] = 0;
+        int dictionary_size = SummaryFormat.readVarInt(data, position);
+        if (dictionary.length < dictionary_size) {
+            dictionary = new String[dictionary_size];
+        }
+        for (int i = 0; i < dictionary_size; i++) {
+            int length = SummaryFormat.readVarInt(data, position);
+            dictionary[i] = new String(data, position[0], length, StandardCharsets.UTF_8);
+            position[0] += length;
+        }
+
+        sentiments_offset = position[0];
+        position[0] += count;
+
+        if (keys.length < count) {
+            keys = new int[count];
+            entities = new int[count];
+        }
+        for (int i = 0; i < count; i++) {
+            keys[i] = checkIndex(SummaryFormat.readVarInt(data, position), dictionary_size);
+        }
+        for (int i = 0; i < count; i++) {
+            entities[i] = checkIndex(SummaryFormat.readVarInt(data, position), dictionary_size);
+        }
+
+        block_records = count;
+        return true;
+    }
+
+    private static int checkIndex(int index, int size) throws IOException {
+        if (index < 0 || index >= size) {
+            throw new IOException("Corrupt summary block");
+        }
+        return index;
+    }
+}
@@ -0,0 +1,143 @@
+package localapp;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a binary summary (see SummaryFormat), a block at a time, so memory stays bounded by the block size.
+ */
+class BinarySummaryWriter implements Closeable {
+
+    private final DataOutputStream output;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+    // Columns of the current block.
+    private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+    private final ByteArrayOutputStream dictionary_column = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream sentiment_column = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream key_column = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream entities_column = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream tweet_column = new ByteArrayOutputStream();
+    private int block_records;
+
+    private byte[] compressed = new byte[64 * 1024];
+
+    // Statistics.
+    long records;
+
+    BinarySummaryWriter(OutputStream output) throws IOException {
+        this.output = new DataOutputStream(new BufferedOutputStream(output, 64 * 1024));
+        this.output.write(SummaryFormat.MAGIC);
+        this.output.write(SummaryFormat.VERSION);
+    }
+
+    /**
+     * @param sentiment 0-4, or anything else for none.
+     */
+    void write(String key, int sentiment, String entities, String tweet) throws IOException {
+        sentiment_column.write(sentiment >= 0 && sentiment <= 4 ? sentiment : SummaryFormat.NO_SENTIMENT);
+        SummaryFormat.writeVarInt(key_column, index(key));
+        SummaryFormat.writeVarInt(entities_column, index(entities));
+        byte[] text = tweet.getBytes(StandardCharsets.UTF_8);
+        SummaryFormat.writeVarInt(tweet_column, text.length);
+        tweet_column.write(text);
+
+        records++;
+        if (++block_records == SummaryFormat.BLOCK_RECORDS) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Write a "key|sentiment|entities|tweet" text line. Missing fields are empty.
+     */
+    void writeLine(String line) throws IOException {
+        if (line.isEmpty()) {
+            return;
+        }
+        int first = line.indexOf('|');
+        int second = first < 0 ? -1 : line.indexOf('|', first + 1);
+        int third = second < 0 ? -1 : line.indexOf('|', second + 1);
+
+        String key = first < 0 ? line : line.substring(0, first);
+        String sentiment = first < 0 ? "" : line.substring(first + 1, second < 0 ? line.length() : second);
+        String entities = second < 0 ? "" : line.substring(second + 1, third < 0 ? line.length() : third);
+        String tweet = third < 0 ? "" : line.substring(third + 1);
+
+        int level = sentiment.length() == 1 ? sentiment.charAt(0) - '0' : SummaryFormat.NO_SENTIMENT;
+        write(key, level, entities, tweet);
+    }
+
+    /**
+     * Write the last block and the end marker.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (block_records > 0) {
+                writeBlock();
+            }
+            output.writeInt(0);
+            output.writeInt(0);
+            output.writeInt(0);
+        }
+        finally {
+            deflater.end();
+            output.close();
+        }
+    }
+
+    private int index(String value) throws IOException {
+        Integer index = dictionary.get(value);
+        if (index == null) {
+            index = dictionary.size();
+            dictionary.put(value, index);
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            SummaryFormat.writeVarInt(dictionary_column, bytes.length);
+            dictionary_column.write(bytes);
+        }
+        return index;
+    }
+
+    private void writeBlock() throws IOException {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream(dictionary_column.size() + sentiment_column.size() +
+                key_column.size() + entities_column.size() + tweet_column.size() + 5);
+        SummaryFormat.writeVarInt(raw, dictionary.size());
+        dictionary_column.writeTo(raw);
+        sentiment_column.writeTo(raw);
+        key_column.writeTo(raw);
+        entities_column.writeTo(raw);
+        tweet_column.writeTo(raw);
+        byte[] data = raw.toByteArray();
+
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressed.length) {
+                byte[] grown = new byte[compressed.length * 2];
+                System.arraycopy(compressed, 0, grown, 0, length);
+                compressed = grown;
+            }
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+
+        output.writeInt(block_records);
+        output.writeInt(data.length);
+        output.writeInt(length);
+        output.write(compressed, 0, length);
+
+        // Every block has its own dictionary, so it can be read on its own.
+        dictionary.clear();
+        dictionary_column.reset();
+        sentiment_column.reset();
+        key_column.reset();
+        entities_column.reset();
+        tweet_column.reset();
+        block_records = 0;
+    }
+}
@@ -0,0 +1,403 @@
+package localapp;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * How every call to one backend (storage, queues or compute) is made. A single policy per backend is shared by
+ * all the jobs of this JVM, and for each call it:
+ *
+ * - Waits for a slot: at most "concurrency" calls at once, and a token bucket of "rate" calls a second.
+ *   Both hand out slots first come first served, so no job starves the others.
+ * - Retries throttling and transient errors (5xx, broken connections) with full jitter exponential backoff,
+ *   up to "attempts" attempts and as long as the "deadline" from the first attempt isn't over.
+ *   Other errors (404, access denied, bad requests) fail right away. Calls that aren't idempotent
+ *   (launching instances) are only retried when throttled, since the request wasn't carried out then.
+ * - Adapts the rate: halved on every throttling error, and raised a bit on every success, up to "rate".
+ * - Breaks the circuit after "breaker" transient errors in a row: calls fail right away with
+ *   CircuitOpenException for "breaker_open_ms", then a single call tries again and closes it if it works.
+ *
+ * Settings are -Dlocalapp.[storage|queues|compute].[rate|burst|concurrency|attempts|deadline_ms|breaker|
+ * breaker_open_ms].
+ * The SDK's own retries are off, so this is the only place calls are retried.
+ */
+class CallPolicy {
+
+    enum Failure {
+        THROTTLED, TRANSIENT, FATAL
+    }
+
+    /**
+     * A call that wasn't made, because the backend kept failing.
+     */
+    static class CircuitOpenException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        CircuitOpenException(String message) {
+            super(message);
+        }
+    }
+
+    // Backoff: the first retry waits up to the base, each one after up to twice as long.
+    static final long BASE_BACKOFF_MS = 100;
+    static final long THROTTLED_BASE_BACKOFF_MS = 500;
+    static final long MAX_BACKOFF_MS = 20000;
+
+    // Lowest rate a throttled backend is slowed down to, calls a second.
+    static final double MIN_RATE = 1;
+
+    // How long an open circuit rejects calls, by default.
+    static final long BREAKER_OPEN_MS = 10000;
+
+    static final String NON_EXISTENT_QUEUE = "AWS.SimpleQueueService.NonExistentQueue";
+
+    final String service;
+    final double max_rate;
+    final int burst;
+    final int attempts;
+    final long deadline_ms;
+    final int breaker_threshold;
+    final long breaker_open_ms;
+
+    private final Semaphore slots;
+    private final Metrics metrics;
+
+    // Token bucket, as the time the next token is free. Fair, so tokens go in the order they were asked for.
+    private final ReentrantLock bucket_lock = new ReentrantLock(true);
+    private double rate;
+    private long next_token_nanos = System.nanoTime();
+
+    // Circuit breaker.
+    private int transient_failures;
+    private long open_until;
+    private boolean probing;
+
+    CallPolicy(String service, double rate, int burst, int concurrency, int attempts, long deadline_ms,
+               int breaker_threshold, long breaker_open_ms, Metrics metrics) {
+        this.service = service;
+        this.max_rate = rate;
+        this.rate = rate;
+        this.burst = burst;
+        this.attempts = attempts;
+        this.deadline_ms = deadline_ms;
+        this.breaker_threshold = breaker_threshold;
+        this.breaker_open_ms = breaker_open_ms;
+        this.slots = new Semaphore(concurrency, true);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Policy of a backend, defaults overridden by -Dlocalapp.service.setting.
+     */
+    static CallPolicy load(String service, double rate, int burst, int concurrency, int attempts, long deadline_ms,
+                           int breaker_threshold, Metrics metrics) {
+        String prefix = "localapp." + service + ".";
+        return new CallPolicy(service,
+                Double.parseDouble(System.getProperty(prefix + "rate", Double.toString(rate))),
+                Integer.getInteger(prefix + "burst", burst),
+                Integer.getInteger(prefix + "concurrency", concurrency),
+                Integer.getInteger(prefix + "attempts", attempts),
+                Long.getLong(prefix + "deadline_ms", deadline_ms),
+                Integer.getInteger(prefix + "breaker", breaker_threshold),
+                Long.getLong(prefix + "breaker_open_ms", BREAKER_OPEN_MS),
+                metrics);
+    }
+
+    /**
+     * Make every call of a backend through this policy.
+     *
+     * @param non_idempotent names of the methods that must not be retried unless throttled.
+     */
+    @SuppressWarnings("unchecked")
+    <T> T guard(Class<T> type, final T backend, String... non_idempotent) {
+        final Set<String> once = new HashSet<String>(Arrays.asList(non_idempotent));
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, final Method method, final Object[] args) throws Throwable {
+                if (method.getDeclaringClass() == Object.class) {
+                    return method.invoke(backend, args);
+                }
+                try {
+                    return call(method.getName(), !once.contains(method.getName()), new Callable<Object>() {
+                        @Override
+                        public Object call() throws Exception {
+                            try {
+                                return method.invoke(backend, args);
+                            }
+                            catch (InvocationTargetException e) {
+                                if (e.getCause() instanceof Error) {
+                                    throw (Error) e.getCause();
+                                }
+                                throw (Exception) e.getCause();
+                            }
+                        }
+                    });
+                }
+                catch (IOException e) {
+                    // Queues and compute calls don't declare IOException.
+                    for (Class<?> declared : method.getExceptionTypes()) {
+                        if (declared.isInstance(e)) {
+                            throw e;
+                        }
+                    }
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Make a call, retrying it as long as the policy allows.
+     *
+     * @param operation name of the call, for the log.
+     * @param idempotent the call can be repeated after a transient error.
+     * @return what the call returned.
+     * @throws IOException the call's own exception (IOException or unchecked) once it is given up on,
+     *                     CircuitOpenException if it wasn't even tried.
+     */
+    <T> T call(String operation, boolean idempotent, Callable<T> call) throws IOException {
+        long deadline = System.currentTimeMillis() + deadline_ms;
+        for (int attempt = 1; ; attempt++) {
+            boolean probe = admit(operation);
+            boolean settled = false;
+            Failure failure;
+            Exception error;
+            try {
+                acquire();
+                try {
+                    T result = call.call();
+                    settled = true;
+                    succeeded(probe);
+                    return result;
+                }
+                finally {
+                    slots.release();
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted calling " + service + "." + operation);
+            }
+            catch (Exception e) {
+                error = e;
+                failure = classify(e);
+                settled = true;
+                failed(failure, probe);
+            }
+            finally {
+                if (probe && !settled) {
+                    // Interrupted or an Error, says nothing about the backend: the next call probes instead.
+                    abandonProbe();
+                }
+            }
+
+            long backoff_ms = backoff(failure, attempt);
+            boolean retry = failure == Failure.THROTTLED || (failure == Failure.TRANSIENT && idempotent);
+            if (!retry || attempt >= attempts || System.currentTimeMillis() + backoff_ms > deadline) {
+                if (retry) {
+                    metrics.count(service + (attempt >= attempts ? ".gave_up" : ".deadline_exceeded"), 1);
+                }
+                throw rethrow(error);
+            }
+
+            metrics.count(service + ".retries", 1);
+            System.out.println("Retrying " + service + "." + operation + " in " + backoff_ms + " ms (attempt " +
+                    (attempt + 1) + "/" + attempts + "): " + error.toString());
+            try {
+                Thread.sleep(backoff_ms);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted retrying " + service + "." + operation);
+            }
+        }
+    }
+
+    /**
+     * Which errors are worth another try.
+     */
+    static Failure classify(Throwable error) {
+        if (error instanceof AmazonServiceException) {
+            AmazonServiceException service_error = (AmazonServiceException) error;
+            if (RetryUtils.isThrottlingException(service_error) || service_error.getStatusCode() == 503) {
+                return Failure.THROTTLED;
+            }
+            if (RetryUtils.isRetryableServiceException(service_error) || RetryUtils.isClockSkewError(service_error)) {
+                return Failure.TRANSIENT;
+            }
+            // A queue used by a cached URL before it is created again, or just created and not seen yet.
+            if (NON_EXISTENT_QUEUE.equals(service_error.getErrorCode())) {
+                return Failure.TRANSIENT;
+            }
+            return Failure.FATAL;
+        }
+        if (error instanceof AmazonClientException) {
+            // No answer from the service: connection errors, timeouts.
+            return ((AmazonClientException) error).isRetryable() ? Failure.TRANSIENT : Failure.FATAL;
+        }
+        if (error instanceof SocketTimeoutException || error instanceof ConnectException ||
+                error instanceof SocketException) {
+            return Failure.TRANSIENT;
+        }
+        return Failure.FATAL;
+    }
+
+    /**
+     * Current rate of the token bucket, calls a second.
+     */
+    double rate() {
+        bucket_lock.lock();
+        try {
+            return rate;
+        }
+        finally {
+            bucket_lock.unlock();
+        }
+    }
+
+    /**
+     * Let a call through the circuit breaker.
+     *
+     * @return true if the call is the one probing a circuit that was open.
+     */
+    private synchronized boolean admit(String operation) throws CircuitOpenException {
+        if (open_until == 0) {
+            return false;
+        }
+        if (System.currentTimeMillis() < open_until || probing) {
+            metrics.count(service + ".rejected", 1);
+            throw new CircuitOpenException("Circuit of " + service + " is open, not calling " + operation);
+        }
+        probing = true;
+        return true;
+    }
+
+    private synchronized void abandonProbe() {
+        probing = false;
+    }
+
+    private synchronized void succeeded(boolean probe) {
+        transient_failures = 0;
+        if (probe) {
+            System.out.println("Circuit of " + service + " is closed again.");
+            open_until = 0;
+            probing = false;
+        }
+        adapt(false);
+    }
+
+    private synchronized void failed(Failure failure, boolean probe) {
+        if (failure == Failure.TRANSIENT) {
+            metrics.count(service + ".transient_errors", 1);
+            transient_failures++;
+        }
+        else {
+            // The backend answered, it is up.
+            transient_failures = 0;
+        }
+        if (failure == Failure.THROTTLED) {
+            metrics.count(service + ".throttled", 1);
+            adapt(true);
+        }
+
+        if (probe) {
+            probing = false;
+            if (failure == Failure.TRANSIENT) {
+                open();
+            }
+            else {
+                System.out.println("Circuit of " + service + " is closed again.");
+                open_until = 0;
+            }
+        }
+        else if (failure == Failure.TRANSIENT && transient_failures >= breaker_threshold && open_until == 0) {
+            open();
+        }
+    }
+
+    private void open() {
+        open_until = System.currentTimeMillis() + breaker_open_ms;
+        metrics.count(service + ".circuit_opened", 1);
+        System.out.println("Circuit of " + service + " is open for " + breaker_open_ms + " ms after " +
+                transient_failures + " errors in a row.");
+    }
+
+    /**
+     * Wait for a free slot and a token.
+     */
+    private void acquire() throws InterruptedException {
+        slots.acquire();
+        long wait_nanos;
+        bucket_lock.lock();
+        try {
+            long now = System.nanoTime();
+            long interval = (long) (1e9 / rate);
+            // Tokens not used pile up, up to the burst.
+            next_token_nanos = Math.max(next_token_nanos, now - burst * interval);
+            wait_nanos = next_token_nanos - now;
+            next_token_nanos += interval;
+        }
+        finally {
+            bucket_lock.unlock();
+        }
+        if (wait_nanos > 0) {
+            metrics.count(service + ".rate_wait_ms", wait_nanos / 1000000);
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait_nanos);
+            }
+            catch (InterruptedException e) {
+                slots.release();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Additive increase, multiplicative decrease.
+     */
+    private void adapt(boolean throttled) {
+        bucket_lock.lock();
+        try {
+            rate = throttled ? Math.max(MIN_RATE, rate / 2) : Math.min(max_rate, rate + max_rate / 50);
+        }
+        finally {
+            bucket_lock.unlock();
+        }
+    }
+
+    private static long backoff(Failure failure, int attempt) {
+        long base = failure == Failure.THROTTLED ? THROTTLED_BASE_BACKOFF_MS : BASE_BACKOFF_MS;
+        long cap = Math.min(MAX_BACKOFF_MS, base << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    private static IOException rethrow(Exception error) {
+        if (error instanceof IOException) {
+            return (IOException) error;
+        }
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+        return new IOException(error);
+    }
+}
@@ -0,0 +1,312 @@
+package localapp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Waits for "key|DONE" messages from the manager.
+ * A single long-polling thread serves every job of this JVM, and completes each waiter's future only for its own key,
+ * so jobs waiting on the manager hold no thread of their own.
+ * Messages of other local apps are handed back to the queue right away, so nobody steals them. On the shared
+ * manager_local_queue every client still receives and releases the others' messages; only with a reply queue
+ * ("reply_queue") does a client get nothing but its own.
+ * "key|CHUNK|n|done|total" progress messages of a key go to its ChunkListener, if it has one.
+ */
+class CompletionNotifier {
+
+    static final String DONE_SUFFIX = "|DONE";
+
+    /**
+     * Told about each chunk of results the manager publishes for a key, on the polling thread.
+     */
+    interface ChunkListener {
+        void chunk(String key, int chunk, long done, long total);
+    }
+
+    // SQS limits: 20 seconds is the longest poll, 10 is the biggest batch.
+    static final int LONG_POLL_SECONDS = 20;
+    static final int MAX_BATCH_SIZE = 10;
+
+    // While we look at a message no one else can see it, so keep that window short.
+    private static final int RECEIVE_VISIBILITY_SECONDS = 30;
+
+    // Back off when the queue only holds messages we already handed back.
+    private static final long MIN_BACKOFF_MS = 100;
+    private static final long MAX_BACKOFF_MS = 1000;
+
+    // How many foreign message IDs, and how many completed keys, to remember.
+    static final int SEEN_CAPACITY = 10000;
+    static final int COMPLETED_CAPACITY = 10000;
+
+    private final Queues queues;
+    private final String queue_url;
+
+    // Key --> future completed when the key's DONE message arrives.
+    private final Map<String, CompletableFuture<Void>> waiters = new ConcurrentHashMap<String, CompletableFuture<Void>>();
+
+    // Key --> who wants its progress messages.
+    private final Map<String, ChunkListener> chunk_listeners = new ConcurrentHashMap<String, ChunkListener>();
+
+    // Keys we already got a DONE for, so duplicates can be deleted instead of bouncing around forever.
+    // In insertion order, so a long batch run forgets the oldest.
+    private final Set<String> completed_keys = Collections.synchronizedSet(Collections.newSetFromMap(
+            new LinkedHashMap<String, Boolean>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > COMPLETED_CAPACITY;
+                }
+            }));
+
+    // Message IDs of other local apps' messages, in insertion order so the oldest are dropped first.
+    private final Set<String> seen_messages = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > SEEN_CAPACITY;
+        }
+    });
+
+    private Thread poller;
+    private volatile boolean running;
+
+    // API call counters.
+    final AtomicLong receive_calls = new AtomicLong();
+    final AtomicLong delete_calls = new AtomicLong();
+    final AtomicLong release_calls = new AtomicLong();
+    final AtomicLong messages_received = new AtomicLong();
+
+    CompletionNotifier(Queues queues, String queue_url) {
+        this.queues = queues;
+        this.queue_url = queue_url;
+    }
+
+    /**
+     * Start waiting for a key. Call before the job is sent, so an early DONE is not missed.
+     *
+     * @param key the tweets file key
+     */
+    synchronized void register(String key) {
+        if (completed_keys.contains(key)) {
+            return;
+        }
+        if (!waiters.containsKey(key)) {
+            waiters.put(key, new CompletableFuture<Void>());
+        }
+        if (poller == null) {
+            running = true;
+            poller = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    pollLoop();
+                }
+            }, "completion-notifier");
+            poller.setDaemon(true);
+            poller.start();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Start waiting for a key, and pass its progress messages to listener.
+     */
+    synchronized void register(String key, ChunkListener listener) {
+        if (completed_keys.contains(key)) {
+            return;
+        }
+        chunk_listeners.put(key, listener);
+        register(key);
+    }
+
+    /**
+     * Start waiting for a key without blocking.
+     *
+     * @param key the tweets file key
+     * @return completed on the polling thread when the DONE message of the key arrives.
+     */
+    CompletableFuture<Void> completion(String key) {
+        register(key);
+        CompletableFuture<Void> done = waiters.get(key);
+        // Null if completed between register and here.
+        return done != null ? done : CompletableFuture.<Void>completedFuture(null);
+    }
+
+    /**
+     * Block until the DONE message of the key arrives.
+     *
+     * @param key the tweets file key
+     * @param timeout max time to wait, 0 for forever
+     * @param unit unit of the timeout
+     * @return true if done, false on timeout.
+     * @throws InterruptedException
+     */
+    boolean await(String key, long timeout, TimeUnit unit) throws InterruptedException {
+        CompletableFuture<Void> done = completion(key);
+        try {
+            if (timeout <= 0) {
+                done.get();
+            }
+            else {
+                done.get(timeout, unit);
+            }
+            return true;
+        }
+        catch (TimeoutException e) {
+            return false;
+        }
+        catch (ExecutionException e) {
+            // Never completed with an error.
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Stop the polling thread.
+     */
+    synchronized void shutdown() {
+        running = false;
+        if (poller != null) {
+            poller.interrupt();
+            poller = null;
+        }
+    }
+
+    private synchronized void waitForWaiters() throws InterruptedException {
+        while (running && waiters.isEmpty()) {
+            wait();
+        }
+    }
+
+    private void pollLoop() {
+        long backoff_ms = MIN_BACKOFF_MS;
+
+        while (running) {
+            try {
+                waitForWaiters();
+                if (!running) {
+                    return;
+                }
+
+                receive_calls.incrementAndGet();
+                List<QueueMessage> messages = queues.receive(queue_url, MAX_BATCH_SIZE, LONG_POLL_SECONDS,
+                        RECEIVE_VISIBILITY_SECONDS);
+                messages_received.addAndGet(messages.size());
+
+                if (dispatch(messages)) {
+                    backoff_ms = MIN_BACKOFF_MS;
+                }
+                else if (!messages.isEmpty()) {
+                    // Only old foreign messages: their owners did not pick them up yet.
+                    Thread.sleep(backoff_ms);
+                    backoff_ms = Math.min(backoff_ms * 2, MAX_BACKOFF_MS);
+                }
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+            catch (Exception e) {
+                System.out.println("Error receiving done messages: " + e.toString());
+                try {
+                    Thread.sleep(MAX_BACKOFF_MS);
+                }
+                catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Route received messages to their waiters, hand back the rest.
+     *
+     * @return true if any message was new to us.
+     */
+    private boolean dispatch(List<QueueMessage> messages) {
+        boolean progress = false;
+        List<QueueMessage> foreign = new ArrayList<QueueMessage>();
+
+        for (QueueMessage message : messages) {
+            String body = message.body;
+            int chunk_marker = body.indexOf(ProgressiveResults.CHUNK_MARKER);
+            if (chunk_marker > 0) {
+                String key = body.substring(0, chunk_marker);
+                if (waiters.containsKey(key) || completed_keys.contains(key)) {
+                    delete_calls.incrementAndGet();
+                    queues.delete(queue_url, message.receipt_handle);
+                    chunk(key, body.substring(chunk_marker + ProgressiveResults.CHUNK_MARKER.length()));
+                    progress = true;
+                    continue;
+                }
+            }
+
+            String key = body.endsWith(DONE_SUFFIX) ? body.substring(0, body.length() - DONE_SUFFIX.length()) : null;
+
+            if (key != null && (waiters.containsKey(key) || completed_keys.contains(key))) {
+                // Ours: delete it and wake the waiter.
+                delete_calls.incrementAndGet();
+                queues.delete(queue_url, message.receipt_handle);
+
+                // Completed first, so a waiter registering now doesn't wait for a message that already came.
+                completed_keys.add(key);
+                CompletableFuture<Void> done = waiters.remove(key);
+                chunk_listeners.remove(key);
+                if (done != null) {
+                    done.complete(null);
+                }
+                progress = true;
+                continue;
+            }
+
+            synchronized (seen_messages) {
+                if (seen_messages.add(message.id)) {
+                    progress = true;
+                }
+            }
+            foreign.add(message);
+        }
+
+        if (!foreign.isEmpty()) {
+            // Make other local apps' messages visible again.
+            release_calls.incrementAndGet();
+            queues.release(queue_url, foreign);
+        }
+        return progress;
+    }
+
+    /**
+     * Pass a progress message on, if the key is still waited for.
+     *
+     * @param chunk "n|done|total"
+     */
+    private void chunk(String key, String chunk) {
+        ChunkListener listener = chunk_listeners.get(key);
+        if (listener == null) {
+            return;
+        }
+        String[] fields = chunk.split("\\|");
+        try {
+            listener.chunk(key, Integer.parseInt(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]));
+        }
+        catch (RuntimeException e) {
+            System.out.println("Bad progress message of " + key + ": " + chunk + " : " + e.toString());
+        }
+    }
+
+    /**
+     * @return one line of API call counters.
+     */
+    String stats() {
+        return "receive calls: " + receive_calls.get() +
+                ", messages received: " + messages_received.get() +
+                ", deletes: " + delete_calls.get() +
+                ", released: " + release_calls.get();
+    }
+}
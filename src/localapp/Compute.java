@@ -0,0 +1,41 @@
+package localapp;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Machines (EC2, or fake in-process instances).
+ * States are EC2's names: "pending", "running", "stopping", "stopped", "shutting-down", "terminated".
+ */
+interface Compute {
+
+    /**
+     * Launch instances in a single request, tagged at launch.
+     *
+     * @return instance IDs.
+     */
+    List<String> launch(String tag, String user_data, int count, InstanceSpec spec) throws IOException;
+
+    /**
+     * @param tag value of the Name tag.
+     * @param states wanted states.
+     * @return IDs of the matching instances.
+     */
+    List<String> find(String tag, String... states);
+
+    /**
+     * @return state of the instance, null if there's no such instance.
+     */
+    String state(String instance_id);
+
+    void tag(String instance_id, String key, String value);
+
+    /**
+     * Start a stopped instance.
+     *
+     * @return state the instance was in, "stopped" only for the one call that started it.
+     */
+    String start(String instance_id);
+
+    void terminate(String instance_id);
+}
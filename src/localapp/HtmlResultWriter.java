@@ -0,0 +1,332 @@
+package localapp;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Turns worker results ("key|sentiment|entities|tweet") into HTML in a single pass.
+ * Fields are found by index and HTML-escaped straight into a reusable char buffer, so a record costs
+ * no allocations besides the output. Malformed records are written with what they have instead of failing:
+ * missing fields are empty and a sentiment that is not 0-4 gets no level.
+ */
+class HtmlResultWriter {
+
+    private static final char SEPARATOR = '|';
+
+    private static final char[] RESULT_START = "\n<p>\n<div class=\"sentiment-level-".toCharArray();
+    private static final char[] TWEET_START = "\">\n".toCharArray();
+    private static final char[] TWEET_END = "\n</div>".toCharArray();
+    private static final char[] RESULT_END = "\n</p>".toCharArray();
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    // Chars that need escaping, as a bit mask of chars 0-63, and their HTML entities.
+    private static final long SPECIAL_CHARS = (1L << '<') | (1L << '>') | (1L << '&') | (1L << '"') | (1L << '\'');
+    private static final String[] ENTITIES = new String['>' + 1];
+    static {
+        ENTITIES['<'] = "&lt;";
+        ENTITIES['>'] = "&gt;";
+        ENTITIES['&'] = "&amp;";
+        ENTITIES['"'] = "&quot;";
+        ENTITIES['\''] = "&#39;";
+    }
+
+    // Where the HTML goes, one of them.
+    private final Writer writer;
+    private final StringBuilder builder;
+
+    // Output not yet handed over.
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int buffered;
+
+    // The record being read by writeAll, grown for long lines.
+    private char[] line = new char[1024];
+
+    // Statistics.
+    long results;
+    long malformed;
+
+    HtmlResultWriter(Writer writer) {
+        this.writer = writer;
+        this.builder = null;
+    }
+
+    HtmlResultWriter(StringBuilder builder) {
+        this.writer = null;
+        this.builder = builder;
+    }
+
+    /**
+     * Write the HTML of every record the reader has, one per line.
+     *
+     * @return number of results written.
+     */
+    long writeAll(Reader input) throws IOException {
+        long before = results;
+        char[] chunk = new char[BUFFER_SIZE];
+        int line_length = 0;
+        int read;
+
+        while ((read = input.read(chunk)) != -1) {
+            int start = 0;
+            for (int i = 0; i < read; i++) {
+                if (chunk[i] != '\n') {
+                    continue;
+                }
+                if (line_length == 0) {
+                    // The whole line is in the chunk.
+                    writeResult(chunk, start, trimCarriageReturn(chunk, start, i));
+                }
+                else {
+                    appendToLine(chunk, start, i, line_length);
+                    int length = line_length + i - start;
+                    writeResult(line, 0, trimCarriageReturn(line, 0, length));
+                    line_length = 0;
+                }
+                start = i + 1;
+            }
+            if (start < read) {
+                // A line that goes on in the next chunk.
+                appendToLine(chunk, start, read, line_length);
+                line_length += read - start;
+            }
+        }
+        if (line_length > 0) {
+            writeResult(line, 0, trimCarriageReturn(line, 0, line_length));
+        }
+        return results - before;
+    }
+
+    /**
+     * Write the HTML of a single record.
+     * Same as writeResult(char[], ...), but the fields are found with String.indexOf, which the JIT vectorizes,
+     * and copied straight from the string when it has nothing to escape, the usual case.
+     */
+    void writeResult(String record) throws IOException {
+        int end = record.length();
+        if (hasSpecialChars(record)) {
+            if (line.length < end) {
+                line = new char[Math.max(end, line.length * 2)];
+            }
+            record.getChars(0, end, line, 0);
+            writeResult(line, 0, end);
+            return;
+        }
+        if (end == 0) {
+            // Blank line.
+            return;
+        }
+
+        int first = record.indexOf(SEPARATOR);
+        int second = first < 0 ? -1 : record.indexOf(SEPARATOR, first + 1);
+        int third = second < 0 ? -1 : record.indexOf(SEPARATOR, second + 1);
+        if (third < 0) {
+            malformed++;
+        }
+
+        // Missing fields are empty.
+        int sentiment_start = first < 0 ? end : first + 1;
+        int sentiment_end = first < 0 ? end : (second < 0 ? end : second);
+        int entities_start = second < 0 ? end : second + 1;
+        int entities_end = second < 0 ? end : (third < 0 ? end : third);
+        int tweet_start = third < 0 ? end : third + 1;
+
+        write(RESULT_START);
+        if (sentiment_end - sentiment_start == 1) {
+            writeSentiment(record.charAt(sentiment_start));
+        }
+        write(TWEET_START);
+        write(record, tweet_start, end);
+        write(TWEET_END);
+        write(record, entities_start, entities_end);
+        write(RESULT_END);
+        results++;
+    }
+
+    /**
+     * Write the HTML of the record in chars[start..end).
+     */
+    void writeResult(char[] chars, int start, int end) throws IOException {
+        if (start == end) {
+            // Blank line.
+            return;
+        }
+
+        // Separators between the fields: 0 - Key, 1 - Sentiment (0-4), 2 - Entities, 3 - Tweet.
+        // The tweet is the rest of the line, separators and all.
+        int first = indexOf(chars, start, end);
+        int second = first < 0 ? -1 : indexOf(chars, first + 1, end);
+        int third = second < 0 ? -1 : indexOf(chars, second + 1, end);
+        if (third < 0) {
+            malformed++;
+        }
+
+        // Missing fields are empty.
+        int sentiment_start = first < 0 ? end : first + 1;
+        int sentiment_end = first < 0 ? end : (second < 0 ? end : second);
+        int entities_start = second < 0 ? end : second + 1;
+        int entities_end = second < 0 ? end : (third < 0 ? end : third);
+        int tweet_start = third < 0 ? end : third + 1;
+
+        write(RESULT_START);
+        if (sentiment_end - sentiment_start == 1) {
+            writeSentiment(chars[sentiment_start]);
+        }
+        write(TWEET_START);
+        writeEscaped(chars, tweet_start, end);
+        write(TWEET_END);
+        writeEscaped(chars, entities_start, entities_end);
+        write(RESULT_END);
+        results++;
+    }
+
+    /**
+     * Write the HTML of a result whose fields are already apart, e.g. from a binary summary.
+     *
+     * @param sentiment 0-4, anything else for no level.
+     */
+    void writeResult(int sentiment, String entities, String tweet) throws IOException {
+        write(RESULT_START);
+        if (sentiment >= 0 && sentiment <= 4) {
+            write((char) ('0' + sentiment));
+        }
+        write(TWEET_START);
+        writeEscaped(tweet);
+        write(TWEET_END);
+        writeEscaped(entities);
+        write(RESULT_END);
+        results++;
+    }
+
+    /**
+     * Write plain text, e.g. the page header.
+     */
+    void write(String text) throws IOException {
+        write(text, 0, text.length());
+    }
+
+    /**
+     * Hand the buffered output over to the writer or builder.
+     */
+    void flush() throws IOException {
+        if (writer != null) {
+            writer.write(buffer, 0, buffered);
+        }
+        else {
+            builder.append(buffer, 0, buffered);
+        }
+        buffered = 0;
+    }
+
+    private void writeSentiment(char sentiment) throws IOException {
+        // Anything else is no level at all.
+        if (sentiment >= '0' && sentiment <= '4') {
+            write(sentiment);
+        }
+    }
+
+    private void write(String text, int start, int end) throws IOException {
+        while (start < end) {
+            if (buffered == BUFFER_SIZE) {
+                flush();
+            }
+            int count = Math.min(end - start, BUFFER_SIZE - buffered);
+            text.getChars(start, start + count, buffer, buffered);
+            buffered += count;
+            start += count;
+        }
+    }
+
+    private void writeEscaped(char[] chars, int start, int end) throws IOException {
+        // Copy runs of safe chars at once, only the special ones one by one.
+        int run = start;
+        for (int i = start; i < end; i++) {
+            char c = chars[i];
+            if (c < 64 && ((SPECIAL_CHARS >>> c) & 1) != 0) {
+                write(chars, run, i);
+                write(ENTITIES[c]);
+                run = i + 1;
+            }
+        }
+        write(chars, run, end);
+    }
+
+    /**
+     * Write text HTML-escaped, e.g. a field of a result.
+     */
+    void writeEscaped(String text) throws IOException {
+        if (!hasSpecialChars(text)) {
+            write(text, 0, text.length());
+            return;
+        }
+        int run = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 64 && ((SPECIAL_CHARS >>> c) & 1) != 0) {
+                write(text, run, i);
+                write(ENTITIES[c]);
+                run = i + 1;
+            }
+        }
+        write(text, run, text.length());
+    }
+
+    private void write(char[] chars, int start, int end) throws IOException {
+        while (start < end) {
+            if (buffered == BUFFER_SIZE) {
+                flush();
+            }
+            int count = Math.min(end - start, BUFFER_SIZE - buffered);
+            System.arraycopy(chars, start, buffer, buffered, count);
+            buffered += count;
+            start += count;
+        }
+    }
+
+    private void write(char[] text) throws IOException {
+        if (BUFFER_SIZE - buffered < text.length) {
+            flush();
+        }
+        System.arraycopy(text, 0, buffer, buffered, text.length);
+        buffered += text.length;
+    }
+
+    private void write(char c) throws IOException {
+        if (buffered == BUFFER_SIZE) {
+            flush();
+        }
+        buffer[buffered++] = c;
+    }
+
+    private void appendToLine(char[] chunk, int start, int end, int line_length) {
+        int needed = line_length + end - start;
+        if (line.length < needed) {
+            char[] grown = new char[Math.max(needed, line.length * 2)];
+            System.arraycopy(line, 0, grown, 0, line_length);
+            line = grown;
+        }
+        System.arraycopy(chunk, start, line, line_length, end - start);
+    }
+
+    private static int trimCarriageReturn(char[] chars, int start, int end) {
+        return end > start && chars[end - 1] == '\r' ? end - 1 : end;
+    }
+
+    private static boolean hasSpecialChars(String text) {
+        return text.indexOf('<') >= 0 || text.indexOf('>') >= 0 || text.indexOf('&') >= 0 ||
+                text.indexOf('"') >= 0 || text.indexOf('\'') >= 0;
+    }
+
+    /**
+     * @return index of the next separator in chars[start..end), -1 if none.
+     */
+    private static int indexOf(char[] chars, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (chars[i] == SEPARATOR) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
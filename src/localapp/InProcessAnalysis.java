@@ -0,0 +1,184 @@
+package localapp;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Analyzes the tweets of a job in this JVM instead of sending them to the manager, for jobs too small to be worth
+ * booting instances for (-Dlocalapp.inprocess_links) and, unless -Dlocalapp.inprocess_when_down=false, for any job
+ * while no manager is running.
+ *
+ * The analyzer is the class named by -Dlocalapp.analyzer, e.g. the workers' CoreNLP one when its jars are on the
+ * classpath. Each thread of a fork-join pool as big as the number of cores builds one and keeps it, so a pipeline
+ * is loaded once per core. The summary is the same "key|sentiment|entities|tweet" records in input order
+ * the manager would have written, so the HTML and the caches don't know the difference.
+ */
+class InProcessAnalysis {
+
+    static final String ANALYZER_PROPERTY = "localapp.analyzer";
+
+    // Jobs with at most this many links are analyzed here (-Dlocalapp.inprocess_links), 0 for none.
+    static final int DEFAULT_MAX_LINKS = 1000;
+
+    // Links read and analyzed at once, so memory stays bounded on large inputs.
+    private static final int ROUND_LINKS = 64 * 1024;
+
+    // Links a fork-join task analyzes without splitting further.
+    private static final int TASK_LINKS = 64;
+
+    private final Class<? extends TweetAnalyzer> analyzer_class;
+    private final ForkJoinPool pool;
+
+    private final ThreadLocal<TweetAnalyzer> analyzers = new ThreadLocal<TweetAnalyzer>() {
+        @Override
+        protected TweetAnalyzer initialValue() {
+            try {
+                return analyzer_class.getDeclaredConstructor().newInstance();
+            }
+            catch (Exception e) {
+                throw new IllegalStateException("Can't create analyzer " + analyzer_class.getName(), e);
+            }
+        }
+    };
+
+    // Statistics.
+    private long jobs;
+    private long links;
+
+    private InProcessAnalysis(Class<? extends TweetAnalyzer> analyzer_class, int threads) {
+        this.analyzer_class = analyzer_class;
+        this.pool = new ForkJoinPool(threads);
+    }
+
+    /**
+     * @return the analysis of -Dlocalapp.analyzer, the made up one on the local backend if not set,
+     *         null if there is no analyzer (the default on AWS) or it is "none".
+     */
+    static InProcessAnalysis create() throws IOException {
+        String name = System.getProperty(ANALYZER_PROPERTY,
+                Utils.isLocal() ? TweetAnalyzer.Simulated.class.getName() : "none");
+        if (name.equals("none")) {
+            return null;
+        }
+        try {
+            Class<? extends TweetAnalyzer> analyzer_class = Class.forName(name).asSubclass(TweetAnalyzer.class);
+            return new InProcessAnalysis(analyzer_class, Runtime.getRuntime().availableProcessors());
+        }
+        catch (ClassNotFoundException e) {
+            throw new IOException("No analyzer class " + name, e);
+        }
+        catch (ClassCastException e) {
+            throw new IOException(name + " isn't a TweetAnalyzer", e);
+        }
+    }
+
+    /**
+     * Analyze the links of an input, a line each, and write their summary.
+     *
+     * @param key key of the job, which the records carry.
+     * @return number of links analyzed.
+     */
+    long analyze(File input, String key, Path summary) throws IOException {
+        long count = 0;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(input),
+                StandardCharsets.UTF_8), 64 * 1024);
+        BinarySummaryWriter writer = new BinarySummaryWriter(Files.newOutputStream(summary));
+        try {
+            List<String> round = new ArrayList<String>(ROUND_LINKS);
+            String link;
+            while ((link = reader.readLine()) != null) {
+                // Blank lines aren't tweets, like for the manager.
+                link = link.trim();
+                if (link.isEmpty()) {
+                    continue;
+                }
+                round.add(link);
+                if (round.size() == ROUND_LINKS) {
+                    count += analyzeRound(round, key, writer);
+                    round.clear();
+                }
+            }
+            count += analyzeRound(round, key, writer);
+        }
+        finally {
+            reader.close();
+            writer.close();
+        }
+
+        synchronized (this) {
+            jobs++;
+            links += count;
+        }
+        Utils.metrics.count("inprocess.links", count);
+        return count;
+    }
+
+    /**
+     * @return one line about what was analyzed.
+     */
+    synchronized String stats() {
+        return jobs + " jobs, " + links + " links analyzed with " + analyzer_class.getSimpleName() + " on " +
+                pool.getParallelism() + " threads";
+    }
+
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private int analyzeRound(List<String> round, String key, BinarySummaryWriter writer) throws IOException {
+        TweetAnalyzer.Analysis[] results = new TweetAnalyzer.Analysis[round.size()];
+        try {
+            pool.invoke(new Analyze(round, results, 0, round.size()));
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        for (TweetAnalyzer.Analysis result : results) {
+            writer.write(key, result.sentiment, result.entities, result.tweet);
+        }
+        return results.length;
+    }
+
+    /**
+     * Analyze links[start..end) into results[start..end), halving the range until it is small.
+     */
+    private class Analyze extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> links;
+        private final TweetAnalyzer.Analysis[] results;
+        private final int start;
+        private final int end;
+
+        Analyze(List<String> links, TweetAnalyzer.Analysis[] results, int start, int end) {
+            this.links = links;
+            this.results = results;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > TASK_LINKS) {
+                int middle = (start + end) >>> 1;
+                invokeAll(new Analyze(links, results, start, middle), new Analyze(links, results, middle, end));
+                return;
+            }
+            TweetAnalyzer analyzer = analyzers.get();
+            for (int i = start; i < end; i++) {
+                try {
+                    results[i] = analyzer.analyze(links.get(i));
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+}
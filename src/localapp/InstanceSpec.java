@@ -0,0 +1,87 @@
+package localapp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Size and pricing of the instances of one role (manager / worker).
+ * Read from Resources/instances.properties, e.g.:
+ *
+ *   worker.type=m4.large
+ *   worker.heap=6G
+ *   worker.spot=true
+ *   worker.spot_price=0.05
+ */
+class InstanceSpec {
+
+    static final String CONFIG_FILE_NAME = "Resources/instances.properties";
+    static final String DEFAULT_INSTANCE_TYPE = "t2.micro";
+
+    // Instance type name, e.g. "t2.micro".
+    final String instance_type;
+
+    // JVM max heap, e.g. "768M", or null for the JVM default.
+    final String heap;
+
+    // Use spot capacity, with an optional max hourly price (null for the on-demand price).
+    final boolean spot;
+    final String spot_price;
+
+    InstanceSpec(String instance_type, String heap, boolean spot, String spot_price) {
+        this.instance_type = instance_type;
+        this.heap = heap;
+        this.spot = spot;
+        this.spot_price = spot_price;
+    }
+
+    /**
+     * Load the spec of a role, missing settings keep their default.
+     *
+     * @param role prefix of the settings, e.g. "worker".
+     * @param defaults used when the file or a setting is missing.
+     */
+    static InstanceSpec load(String role, InstanceSpec defaults) throws IOException {
+        File file = new File(CONFIG_FILE_NAME);
+        if (!file.exists()) {
+            return defaults;
+        }
+
+        Properties properties = new Properties();
+        InputStream input = new FileInputStream(file);
+        try {
+            properties.load(input);
+        }
+        finally {
+            input.close();
+        }
+
+        return new InstanceSpec(
+                properties.getProperty(role + ".type", defaults.instance_type),
+                properties.getProperty(role + ".heap", defaults.heap),
+                Boolean.parseBoolean(properties.getProperty(role + ".spot", defaults.spot + "")),
+                properties.getProperty(role + ".spot_price", defaults.spot_price));
+    }
+
+    /**
+     * Same spec on on-demand capacity. Spot instances can't be stopped, so standby instances use this.
+     */
+    InstanceSpec onDemand() {
+        return new InstanceSpec(instance_type, heap, false, null);
+    }
+
+    /**
+     * @return java command line option for the heap, empty for the default.
+     */
+    String javaHeapOption() {
+        return heap == null ? "" : "-Xmx" + heap;
+    }
+
+    @Override
+    public String toString() {
+        return instance_type + (heap == null ? "" : ", heap " + heap) +
+                (spot ? ", spot" + (spot_price == null ? "" : " up to $" + spot_price + "/h") : ", on-demand");
+    }
+}
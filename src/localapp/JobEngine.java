@@ -0,0 +1,229 @@
+package localapp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs the lifecycle of many jobs (upload, submit, wait, download, render) as CompletableFuture pipelines,
+ * so a job only holds a thread while one of its steps is actually working:
+ *
+ * - Steps that block on storage or queues run on a fixed pool of "io" threads (-Dlocalapp.io_threads).
+ * - Steps that burn CPU, like writing the HTML, run on a pool as big as the number of cores.
+ * - Waiting for the manager holds no thread at all: it is a future completed by CompletionNotifier.
+ *
+ * A waiting job costs only its futures and its PreparedJob, so thousands of them can be in flight
+ * on the same few threads. At most max_jobs are admitted at once, and jobs with the same key run one
+ * after the other, so an input is analyzed once and the ones after it come from the cache.
+ */
+class JobEngine {
+
+    /**
+     * A step of a pipeline, which may throw like the blocking code it wraps.
+     */
+    interface Step<A, B> {
+        B apply(A input) throws Exception;
+    }
+
+    static final int DEFAULT_IO_THREADS = 64;
+
+    private final Semaphore admission;
+    private final ExecutorService io;
+    private final ExecutorService cpu;
+
+    // Key --> the last job of that key, which the next one with that key waits for.
+    private final ConcurrentMap<String, CompletableFuture<?>> last_by_key =
+            new ConcurrentHashMap<String, CompletableFuture<?>>();
+
+    // Statistics.
+    private int in_flight;
+    private int peak_in_flight;
+    private long jobs;
+
+    JobEngine(int max_jobs, int io_threads, int cpu_threads) {
+        this.admission = new Semaphore(max_jobs, true);
+        this.io = Executors.newFixedThreadPool(io_threads, Utils.daemonThreads("io"));
+        this.cpu = Executors.newFixedThreadPool(cpu_threads, Utils.daemonThreads("cpu"));
+    }
+
+    /**
+     * Start a job once there's room for it, waiting for a job to finish if max_jobs are in flight.
+     *
+     * @param job builds the pipeline of the job.
+     * @return the result of the job.
+     */
+    <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> job) throws InterruptedException {
+        admission.acquire();
+        admitted(1);
+        return start(job).whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T value, Throwable error) {
+                admitted(-1);
+                admission.release();
+            }
+        });
+    }
+
+    /**
+     * Run a part of a job after the one before it with the same key is over, successful or not.
+     */
+    <T> CompletableFuture<T> inOrder(final String key, final Supplier<CompletableFuture<T>> job) {
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        CompletableFuture<?> before = last_by_key.put(key, result);
+        CompletableFuture<T> run;
+        if (before == null) {
+            run = start(job);
+        }
+        else {
+            run = before.handle(new BiFunction<Object, Throwable, Void>() {
+                @Override
+                public Void apply(Object value, Throwable error) {
+                    return null;
+                }
+            }).thenComposeAsync(new Function<Void, CompletableFuture<T>>() {
+                @Override
+                public CompletableFuture<T> apply(Void ignored) {
+                    return start(job);
+                }
+            }, io);
+        }
+        run.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T value, Throwable error) {
+                // Forget the key unless a later job is waiting on it.
+                last_by_key.remove(key, result);
+                if (error != null) {
+                    result.completeExceptionally(error);
+                }
+                else {
+                    result.complete(value);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Run a blocking task on an io thread.
+     */
+    <T> CompletableFuture<T> io(final Callable<T> task) {
+        return CompletableFuture.supplyAsync(new Supplier<T>() {
+            @Override
+            public T get() {
+                try {
+                    return task.call();
+                }
+                catch (Exception e) {
+                    throw wrap(e);
+                }
+            }
+        }, io);
+    }
+
+    /**
+     * Run a blocking step on an io thread once what it needs is there.
+     */
+    <A, B> CompletableFuture<B> io(CompletableFuture<A> after, Step<A, B> step) {
+        return after.thenApplyAsync(unchecked(step), io);
+    }
+
+    /**
+     * Run a CPU bound step on a cpu thread once what it needs is there.
+     */
+    <A, B> CompletableFuture<B> cpu(CompletableFuture<A> after, Step<A, B> step) {
+        return after.thenApplyAsync(unchecked(step), cpu);
+    }
+
+    /**
+     * Block until a job is over, for callers that have nothing else to do.
+     *
+     * @return the job's result.
+     * @throws IOException what the job failed with, or wrapping it.
+     */
+    static <T> T await(Future<T> job) throws IOException, InterruptedException {
+        try {
+            return job.get();
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw new InterruptedIOException(cause.getMessage());
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * @return one line about the pools and how many jobs were in flight.
+     */
+    synchronized String stats() {
+        return jobs + " jobs, at most " + peak_in_flight + " in flight at once, on " +
+                ((ThreadPoolExecutor) io).getLargestPoolSize() + " io and " +
+                ((ThreadPoolExecutor) cpu).getLargestPoolSize() + " cpu threads";
+    }
+
+    synchronized int peakInFlight() {
+        return peak_in_flight;
+    }
+
+    void shutdown() {
+        io.shutdownNow();
+        cpu.shutdownNow();
+    }
+
+    private synchronized void admitted(int delta) {
+        in_flight += delta;
+        if (delta > 0) {
+            jobs++;
+            peak_in_flight = Math.max(peak_in_flight, in_flight);
+        }
+    }
+
+    private static <T> CompletableFuture<T> start(Supplier<CompletableFuture<T>> job) {
+        try {
+            return job.get();
+        }
+        catch (RuntimeException e) {
+            CompletableFuture<T> failed = new CompletableFuture<T>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    private static <A, B> Function<A, B> unchecked(final Step<A, B> step) {
+        return new Function<A, B>() {
+            @Override
+            public B apply(A input) {
+                try {
+                    return step.apply(input);
+                }
+                catch (Exception e) {
+                    throw wrap(e);
+                }
+            }
+        };
+    }
+
+    private static RuntimeException wrap(Exception e) {
+        if (e instanceof CompletionException) {
+            return (CompletionException) e;
+        }
+        return new CompletionException(e);
+    }
+}
@@ -0,0 +1,185 @@
+package localapp;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Results of single tweet links, shared by all jobs, so a link that was analyzed before is never sent again.
+ * An input is split into the links the index knows and the misses, only the misses go to the manager,
+ * and its summary is merged back with the known results in the input's order.
+ *
+ * The merge relies on the manager answering each link of a job with a result, in order, as it does for
+ * whole inputs. If the counts don't match, the results can't be lined up with their links: the summary is
+ * still written, known results first, but nothing new is indexed.
+ */
+class LinkCache implements Closeable {
+
+    private final LinkIndex index;
+
+    // Statistics.
+    final AtomicLong link_hits = new AtomicLong();
+    final AtomicLong link_misses = new AtomicLong();
+
+    LinkCache(Path directory) throws IOException {
+        this.index = new LinkIndex(directory);
+    }
+
+    /**
+     * Links of an input, split by whether their results are known.
+     */
+    static class Split {
+        int links;
+        int misses;
+
+        // Per link of the input, in order: known or not.
+        final BitSet known = new BitSet();
+
+        // Results of the known links, and the links to analyze, a line each in input order.
+        final Path known_results;
+        final Path missed_links;
+
+        Split(Path known_results, Path missed_links) {
+            this.known_results = known_results;
+            this.missed_links = missed_links;
+        }
+
+        int hits() {
+            return links - misses;
+        }
+
+        void delete() throws IOException {
+            Files.deleteIfExists(known_results);
+            Files.deleteIfExists(missed_links);
+        }
+    }
+
+    /**
+     * Look up every link of an input, a line each, blank lines skipped like the manager does.
+     *
+     * @param work_prefix path prefix of the split's files.
+     */
+    Split split(File input, String work_prefix) throws IOException {
+        Split split = new Split(new File(work_prefix + ".known").toPath(), new File(work_prefix + ".missed").toPath());
+        BufferedReader reader = Files.newBufferedReader(input.toPath(), StandardCharsets.UTF_8);
+        BufferedWriter known = Files.newBufferedWriter(split.known_results, StandardCharsets.UTF_8);
+        BufferedWriter missed = Files.newBufferedWriter(split.missed_links, StandardCharsets.UTF_8);
+        try {
+            String link;
+            while ((link = reader.readLine()) != null) {
+                link = link.trim();
+                if (link.isEmpty()) {
+                    continue;
+                }
+                String result = index.get(link);
+                if (result != null) {
+                    split.known.set(split.links);
+                    known.write(result);
+                    known.write('\n');
+                }
+                else {
+                    split.misses++;
+                    missed.write(link);
+                    missed.write('\n');
+                }
+                split.links++;
+            }
+        }
+        finally {
+            reader.close();
+            known.close();
+            missed.close();
+        }
+
+        link_hits.addAndGet(split.hits());
+        link_misses.addAndGet(split.misses);
+        return split;
+    }
+
+    /**
+     * Write the summary of the whole input: the known results and the new ones, in the input's order,
+     * and index the new ones.
+     *
+     * @param summary the manager's summary of the missed links, in any format, null if there were none.
+     * @param key key field of the merged results.
+     * @param merged text summary to write.
+     * @return number of results written.
+     */
+    long merge(Split split, Path summary, String key, Path merged) throws IOException {
+        boolean aligned = summary == null ? split.misses == 0 : countResults(summary) == split.misses;
+        if (!aligned) {
+            System.out.println("Summary of " + key + " doesn't have a result per link, not indexing it.");
+        }
+
+        long count = 0;
+        BufferedReader known = Files.newBufferedReader(split.known_results, StandardCharsets.UTF_8);
+        BufferedReader missed = Files.newBufferedReader(split.missed_links, StandardCharsets.UTF_8);
+        SummaryRecords fresh = summary == null ? null : new SummaryRecords(summary);
+        BufferedWriter output = Files.newBufferedWriter(merged, StandardCharsets.UTF_8);
+        try {
+            String result;
+            if (aligned) {
+                for (int i = 0; i < split.links; i++) {
+                    if (split.known.get(i)) {
+                        result = known.readLine();
+                    }
+                    else {
+                        fresh.next();
+                        result = fresh.result();
+                        index.put(missed.readLine(), result);
+                    }
+                    output.write(key + "|" + result + "\n");
+                    count++;
+                }
+            }
+            else {
+                while ((result = known.readLine()) != null) {
+                    output.write(key + "|" + result + "\n");
+                    count++;
+                }
+                while (fresh != null && fresh.next()) {
+                    output.write(key + "|" + fresh.result() + "\n");
+                    count++;
+                }
+            }
+        }
+        finally {
+            known.close();
+            missed.close();
+            if (fresh != null) {
+                fresh.close();
+            }
+            output.close();
+        }
+        return count;
+    }
+
+    String stats() {
+        long lookups = link_hits.get() + link_misses.get();
+        return link_hits + " link hits, " + link_misses + " link misses" +
+                (lookups == 0 ? "" : " (" + (100 * link_hits.get() / lookups) + "% hit rate)") +
+                ", " + index.size() + " links indexed";
+    }
+
+    @Override
+    public void close() throws IOException {
+        index.close();
+    }
+
+    private static long countResults(Path summary) throws IOException {
+        long count = 0;
+        SummaryRecords results = new SummaryRecords(summary);
+        try {
+            while (results.next()) {
+                count++;
+            }
+        }
+        finally {
+            results.close();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,313 @@
+package localapp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Persistent string --> string map on disk, for tens of millions of entries without holding them on the heap.
+ *
+ * Two files:
+ *   links.idx: memory mapped open addressing hash table. A header (magic, capacity, size), then a slot per entry:
+ *              a long hash of the key and a long offset into links.dat, 0 for an empty slot.
+ *   links.dat: append only records: int key length, key UTF-8, int value length, value UTF-8.
+ * A put appends a record and then points the slot at it, so a crash at worst leaves an unused record.
+ * The table doubles, into a new file, when it is LOAD_FACTOR full.
+ */
+class LinkIndex implements Closeable {
+
+    private static final long MAGIC = 0x4C494E4B49445831L; // "LINKIDX1"
+    private static final int HEADER_BYTES = 32;
+    private static final int SLOT_BYTES = 16;
+
+    // Slots per mapped segment, a mapping can't be over 2GB.
+    private static final int SEGMENT_SHIFT = 26;
+    private static final long SEGMENT_SLOTS = 1L << SEGMENT_SHIFT;
+
+    private static final long INITIAL_CAPACITY = 1L << 16;
+    private static final double LOAD_FACTOR = 0.7;
+
+    private final Path index_path;
+    private final FileChannel data;
+    private long data_end;
+
+    private FileChannel index;
+    private MappedByteBuffer header;
+    private MappedByteBuffer[] segments;
+    private long capacity;
+    private long size;
+
+    // Reused by reads, grown for long records, and the offset of the record in it.
+    private ByteBuffer read_buffer = ByteBuffer.allocate(512);
+    private long read_offset = -1;
+
+    /**
+     * Open the index in directory, created if missing.
+     */
+    LinkIndex(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        this.index_path = directory.resolve("links.idx");
+
+        data = FileChannel.open(directory.resolve("links.dat"), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (data.size() == 0) {
+            // Offset 0 means an empty slot, so no record starts there.
+            data.write(ByteBuffer.allocate(8).putLong(0, MAGIC), 0);
+        }
+        data_end = data.size();
+
+        if (Files.exists(index_path)) {
+            openIndex(index_path);
+            if (header.getLong(0) != MAGIC) {
+                throw new IOException("Not a link index: " + index_path);
+            }
+        }
+        else {
+            createIndex(index_path, INITIAL_CAPACITY);
+        }
+    }
+
+    synchronized long size() {
+        return size;
+    }
+
+    /**
+     * @return the value of key, null if none.
+     */
+    synchronized String get(String key) throws IOException {
+        byte[] key_bytes = key.getBytes(StandardCharsets.UTF_8);
+        long slot = find(key_bytes, hash(key_bytes));
+        long offset = offset(slot);
+        if (offset == 0) {
+            return null;
+        }
+        // find() left the record in the read buffer.
+        ByteBuffer record = readRecord(offset);
+        int key_length = record.getInt(0);
+        int value_length = record.getInt(4 + key_length);
+        return new String(record.array(), 8 + key_length, value_length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Set the value of key, replacing any older one.
+     */
+    synchronized void put(String key, String value) throws IOException {
+        if (size + 1 > capacity * LOAD_FACTOR) {
+            grow();
+        }
+
+        byte[] key_bytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] value_bytes = value.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(key_bytes);
+        long slot = find(key_bytes, hash);
+
+        ByteBuffer record = ByteBuffer.allocate(8 + key_bytes.length + value_bytes.length);
+        record.putInt(key_bytes.length).put(key_bytes).putInt(value_bytes.length).put(value_bytes).flip();
+        long offset = data_end;
+        while (record.hasRemaining()) {
+            data_end += data.write(record, data_end);
+        }
+
+        if (offset(slot) == 0) {
+            size++;
+            header.putLong(16, size);
+        }
+        setSlot(slot, hash, offset);
+    }
+
+    /**
+     * Write everything to disk.
+     */
+    synchronized void force() throws IOException {
+        data.force(false);
+        header.force();
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        force();
+        data.close();
+        index.close();
+    }
+
+    /**
+     * @return the slot of key, or the empty slot it would go into.
+     */
+    private long find(byte[] key_bytes, long hash) throws IOException {
+        long mask = capacity - 1;
+        for (long slot = hash & mask; ; slot = (slot + 1) & mask) {
+            long offset = offset(slot);
+            if (offset == 0) {
+                return slot;
+            }
+            if (slotHash(slot) == hash && keyEquals(offset, key_bytes)) {
+                return slot;
+            }
+        }
+    }
+
+    private boolean keyEquals(long offset, byte[] key_bytes) throws IOException {
+        ByteBuffer record = readRecord(offset);
+        if (record.getInt(0) != key_bytes.length) {
+            return false;
+        }
+        byte[] stored = record.array();
+        for (int i = 0; i < key_bytes.length; i++) {
+            if (stored[4 + i] != key_bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read the record at offset into the read buffer, with a single read for most records.
+     * The last record read is kept, records never change, so find() followed by get() reads once.
+     */
+    private ByteBuffer readRecord(long offset) throws IOException {
+        if (offset == read_offset) {
+            return read_buffer;
+        }
+        read_offset = -1;
+        read(offset, (int) Math.min(read_buffer.capacity(), data_end - offset));
+
+        int key_length = read_buffer.getInt(0);
+        int length;
+        if (8 + key_length <= read_buffer.limit()) {
+            length = 8 + key_length + read_buffer.getInt(4 + key_length);
+        }
+        else {
+            // A key longer than the buffer.
+            read(offset + 4 + key_length, 4);
+            length = 8 + key_length + read_buffer.getInt(0);
+        }
+        if (length > read_buffer.limit()) {
+            read(offset, length);
+        }
+        read_offset = offset;
+        return read_buffer;
+    }
+
+    /**
+     * Read length bytes of links.dat at position into the start of the read buffer.
+     */
+    private void read(long position, int length) throws IOException {
+        if (read_buffer.capacity() < length) {
+            read_buffer = ByteBuffer.allocate(Math.max(length, read_buffer.capacity() * 2));
+        }
+        read_buffer.clear().limit(length);
+        while (read_buffer.hasRemaining()) {
+            if (data.read(read_buffer, position + read_buffer.position()) < 0) {
+                throw new IOException("Link index data is cut off");
+            }
+        }
+    }
+
+    private long slotHash(long slot) {
+        return segments[(int) (slot >>> SEGMENT_SHIFT)].getLong((int) (slot & (SEGMENT_SLOTS - 1)) * SLOT_BYTES);
+    }
+
+    private long offset(long slot) {
+        return segments[(int) (slot >>> SEGMENT_SHIFT)].getLong((int) (slot & (SEGMENT_SLOTS - 1)) * SLOT_BYTES + 8);
+    }
+
+    private void setSlot(long slot, long hash, long offset) {
+        MappedByteBuffer segment = segments[(int) (slot >>> SEGMENT_SHIFT)];
+        int position = (int) (slot & (SEGMENT_SLOTS - 1)) * SLOT_BYTES;
+        segment.putLong(position, hash);
+        segment.putLong(position + 8, offset);
+    }
+
+    /**
+     * Rehash into a table twice the size, then swap the files.
+     */
+    private void grow() throws IOException {
+        long old_capacity = capacity;
+        long old_size = size;
+        MappedByteBuffer[] old_segments = segments;
+        FileChannel old_index = index;
+
+        Path grown = index_path.resolveSibling(index_path.getFileName() + ".tmp");
+        Files.deleteIfExists(grown);
+        createIndex(grown, old_capacity * 2);
+
+        long mask = capacity - 1;
+        for (long old_slot = 0; old_slot < old_capacity; old_slot++) {
+            MappedByteBuffer segment = old_segments[(int) (old_slot >>> SEGMENT_SHIFT)];
+            int position = (int) (old_slot & (SEGMENT_SLOTS - 1)) * SLOT_BYTES;
+            long offset = segment.getLong(position + 8);
+            if (offset == 0) {
+                continue;
+            }
+            long hash = segment.getLong(position);
+            long slot = hash & mask;
+            while (offset(slot) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            setSlot(slot, hash, offset);
+        }
+        // Same entries, only more room.
+        size = old_size;
+        header.putLong(16, size);
+
+        force();
+        old_index.close();
+        Files.move(grown, index_path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void createIndex(Path path, long new_capacity) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        ByteBuffer new_header = ByteBuffer.allocate(HEADER_BYTES);
+        new_header.putLong(0, MAGIC).putLong(8, new_capacity).putLong(16, 0);
+        channel.write(new_header, 0);
+        // Sparse, the slots read as 0, empty.
+        channel.write(ByteBuffer.allocate(1), HEADER_BYTES + new_capacity * SLOT_BYTES - 1);
+        channel.close();
+
+        openIndex(path);
+    }
+
+    private void openIndex(Path path) throws IOException {
+        index = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        header = index.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+        capacity = header.getLong(8);
+        size = header.getLong(16);
+        if (Long.bitCount(capacity) != 1 || index.size() < HEADER_BYTES + capacity * SLOT_BYTES) {
+            throw new IOException("Corrupt link index: " + path);
+        }
+
+        long count = (capacity + SEGMENT_SLOTS - 1) / SEGMENT_SLOTS;
+        segments = new MappedByteBuffer[(int) count];
+        for (int i = 0; i < count; i++) {
+            long slots = Math.min(SEGMENT_SLOTS, capacity - i * SEGMENT_SLOTS);
+            segments[i] = index.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + i * SEGMENT_SLOTS * SLOT_BYTES,
+                    slots * SLOT_BYTES);
+        }
+    }
+
+    /**
+     * FNV-1a, then a finalizer so linear probing doesn't cluster on similar links.
+     */
+    private static long hash(byte[] bytes) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,1566 @@
+package localapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+
+public class LocalApp {
+    private String input_file_name;
+    private String output_file_name;
+    private int num_tasks_per_worker;
+    private boolean terminate;
+    private boolean use_reply_queue;
+    private boolean gzip_upload;
+    private UploadStage upload_stage;
+    private RangedDownloader downloader;
+    private ManagerLocator manager_locator;
+    private boolean warm_pool;
+    private StandbyPool manager_pool;
+    private ArtifactCache artifact_cache;
+    private long shard_bytes;
+
+    // Inputs up to this size go in the job message instead of the bucket, 0 for never.
+    private long inline_bytes;
+
+    // Results per chunk the manager publishes while it works, 0 for all at once when done.
+    private int chunk_records;
+
+    // Writes the HTML as an index page and pages of results ("pages=N"), null for one page.
+    private PagedHtmlExport paged_export;
+
+    // Downloads the chunks of progressive jobs as they are published.
+    private final ExecutorService shard_executor = Executors.newCachedThreadPool(Utils.daemonThreads("shard"));
+
+    // Picks the tasks per worker of each job.
+    private WorkerSizing worker_sizing;
+
+    // Analyzes small jobs, or all of them while no manager is up, in this JVM. Null when there's no analyzer.
+    private InProcessAnalysis in_process;
+    private int in_process_links;
+    private boolean in_process_when_down;
+
+    // Whether a manager was up when first asked, null until then.
+    private Boolean manager_up;
+
+    // Started by the first job that needs the manager, null until then.
+    private CompletableFuture<Void> manager_ready;
+
+    // Runs the steps of the jobs, see JobEngine.
+    private final JobEngine engine;
+    private int max_jobs;
+
+    // Summaries of inputs and results of links analyzed before, null when not caching.
+    private ResultCache result_cache;
+    private LinkCache link_cache;
+    private CompletionNotifier completion_notifier;
+
+    // Sends the job messages in batches, see MessageBatcher.
+    private MessageBatcher job_sender;
+
+    // Private answers queue of this run, null when answers come on the shared manager_local_queue.
+    private String reply_queue_url;
+
+    // Set by the first job sent to the manager, whose time from the start of the app is the startup time.
+    private final AtomicBoolean first_submit = new AtomicBoolean();
+
+    // File password for jars encryption.
+    // Remember to change in encryptFiles.sh as well.
+    private static final String FILE_PASSWORD = "foofoofoofoo";
+
+    public static final String BUCKET_NAME = "malachi-amir-bucket";
+
+    // Directory contains files to upload.
+    private static final String UPLOADS_DIRECTORY = "Resources/uploads";
+
+    // Max jobs of a batch in flight at once. A job waiting on the manager holds no thread, so this can be high.
+    private static final int DEFAULT_MAX_JOBS = 1024;
+
+    // Max parts uploaded to S3 at once.
+    private static final int UPLOAD_THREADS = 8;
+
+    // Max ranges downloaded from S3 at once, and where they are written.
+    private static final int DOWNLOAD_THREADS = 8;
+    private static final String DOWNLOADS_DIRECTORY = "Resources/downloads";
+
+    // Extra files instances boot from, e.g. the CoreNLP jars.
+    private static final String ARTIFACTS_DIRECTORY = "Resources/artifacts";
+
+    // Keeps the manager instance ID between runs.
+    private static final String MANAGER_CACHE_FILE = "Resources/manager.cache";
+
+    // Summaries of inputs analyzed before, by content hash, and their size limit (-Dlocalapp.cache_max_mb).
+    private static final String RESULTS_CACHE_DIRECTORY = "Resources/cache";
+    private static final long DEFAULT_CACHE_MAX_MB = 1024;
+
+    // Results of single links analyzed before.
+    private static final String LINK_CACHE_DIRECTORY = "Resources/links";
+
+    // Key suffix of a job with only the links of an input that aren't known.
+    private static final String PARTIAL_JOB_SUFFIX = "-part";
+
+    // Key prefix of the empty job that carries the termination when no job of the run did.
+    private static final String TERMINATION_JOB_PREFIX = "terminate-";
+
+    // Inputs over this size are cut into shards the manager works on in parallel ("shard_mb=N", 0 to never cut).
+    private static final long DEFAULT_SHARD_MB = 8;
+    private static final int MAX_SHARDS = 64;
+
+    // Inputs up to this size are sent in the job message (-Dlocalapp.inline_kb, 0 for never), leaving room for
+    // the key and the attributes in the 256 KB of an SQS message. Off on AWS until the manager reads InlineInput.
+    private static final long DEFAULT_INLINE_KB = 240;
+
+    // Results per chunk in progressive mode ("progressive" or "progressive=N").
+    private static final int DEFAULT_CHUNK_RECORDS = 1000;
+
+    // Jobs and Stats of earlier runs the tasks per worker are sized by, and the time a job should take
+    // (-Dlocalapp.target_s) with how many workers at most (-Dlocalapp.max_workers). See WorkerSizing.
+    private static final String SIZING_HISTORY_FILE = "Resources/sizing.history";
+
+    // Metrics of a run go next to the manager's Stats file, as .json, .csv and .trace.json.
+    // -Dlocalapp.metrics_port=N also serves them on http://localhost:N/metrics while the app runs.
+    private static final String METRICS_FILE = "Metrics";
+
+    // Longest wait for the stats of a terminating manager (-Dlocalapp.stats_timeout_s).
+    private static final long DEFAULT_STATS_TIMEOUT_S = 600;
+
+
+    private LocalApp(String input_file_name, String output_file_name, String mission_per_worker, boolean terminate,
+                     boolean use_reply_queue, boolean gzip_upload, boolean warm_pool, boolean use_cache,
+                     long shard_mb, int chunk_records, int max_jobs, int page_results) throws IOException {
+        Metrics.Span span = Utils.metrics.start("phase.init");
+        try {
+            Utils.init(mission_per_worker, FILE_PASSWORD);
+            span.ok();
+        }
+        finally {
+            span.end();
+        }
+        this.terminate = terminate;
+        this.use_reply_queue = use_reply_queue;
+        this.gzip_upload = gzip_upload;
+        this.warm_pool = warm_pool;
+        this.shard_bytes = shard_mb * 1024 * 1024;
+        this.inline_bytes = Long.getLong("localapp.inline_kb", Utils.isLocal() ? DEFAULT_INLINE_KB : 0) * 1024;
+        this.chunk_records = chunk_records;
+        if (page_results > 0) {
+            this.paged_export = new PagedHtmlExport(page_results, Runtime.getRuntime().availableProcessors());
+        }
+        this.max_jobs = max_jobs;
+        this.engine = new JobEngine(max_jobs, Integer.getInteger("localapp.io_threads", JobEngine.DEFAULT_IO_THREADS),
+                Runtime.getRuntime().availableProcessors());
+        this.upload_stage = new UploadStage(Utils.storage, UPLOAD_THREADS);
+        // Storage calls are retried by their CallPolicy already.
+        this.downloader = new RangedDownloader(Utils.storage, DOWNLOAD_THREADS, 1);
+        // Local instances die with the JVM, so there's nothing to remember between runs.
+        this.manager_locator = new ManagerLocator(Utils.compute, Utils.isLocal() ? null : Paths.get(MANAGER_CACHE_FILE));
+        this.manager_pool = new StandbyPool(Utils.compute, ManagerLocator.MANAGER_TAG_VALUE, Utils.managerStandbyUserData(),
+                Utils.manager_spec);
+        this.artifact_cache = new ArtifactCache(Utils.storage, upload_stage);
+        if (use_cache) {
+            long max_mb = Long.getLong("localapp.cache_max_mb", DEFAULT_CACHE_MAX_MB);
+            this.result_cache = new ResultCache(backendPath(RESULTS_CACHE_DIRECTORY), max_mb * 1024 * 1024,
+                    Utils.storage, downloader);
+            this.link_cache = new LinkCache(backendPath(LINK_CACHE_DIRECTORY));
+        }
+        Files.createDirectories(Paths.get(DOWNLOADS_DIRECTORY));
+        this.input_file_name = input_file_name;
+        this.output_file_name = output_file_name;
+        this.num_tasks_per_worker = Integer.parseInt(mission_per_worker);
+        this.worker_sizing = new WorkerSizing(backendPath(SIZING_HISTORY_FILE),
+                num_tasks_per_worker, Long.getLong("localapp.target_s", WorkerSizing.DEFAULT_TARGET_S) * 1000,
+                Integer.getInteger("localapp.max_workers", WorkerSizing.DEFAULT_MAX_WORKERS));
+        System.out.println("Worker sizing: " + worker_sizing.stats());
+        this.in_process = InProcessAnalysis.create();
+        this.in_process_links = Integer.getInteger("localapp.inprocess_links", InProcessAnalysis.DEFAULT_MAX_LINKS);
+        // The local manager is never up before the app starts it, so by default it still gets the large jobs.
+        this.in_process_when_down = Boolean.parseBoolean(System.getProperty("localapp.inprocess_when_down",
+                Boolean.toString(!Utils.isLocal())));
+        if (in_process != null) {
+            System.out.println("Analyzing jobs of up to " + in_process_links + " links in process" +
+                    (in_process_when_down ? ", and any job while the manager is down." : "."));
+        }
+    }
+
+    /**
+     * upload to S3 the manager jar to the bucket "malachi-amir-bucket"
+     * for the manager EC2 node will be able to download it from there.
+     * Jars that aren't in Resources keep the copy already in the bucket.
+     */
+    private void uploadJars() throws IOException, InterruptedException {
+        List<File> artifacts = new ArrayList<File>();
+        for (String name : new String[] {"worker.enc", "manager.enc"}) {
+            File jar = new File("Resources/" + name);
+            if (jar.exists()) {
+                artifacts.add(jar);
+            }
+            else {
+                System.out.println("No " + jar.getPath() + ", using the one in the bucket.");
+            }
+        }
+
+        // Set permission so everyone can download object, so the manager wil be able to download the object.
+        List<Future<String>> uploads = new ArrayList<Future<String>>();
+        for (File jar : artifacts) {
+            uploads.add(upload_stage.upload(jar, jar.getName(), true, false, true));
+        }
+        UploadStage.awaitAll(uploads);
+
+        // Versioned copies the boot scripts can cache, with any extra jars the workers need.
+        File[] extra = new File(ARTIFACTS_DIRECTORY).listFiles();
+        if (extra != null) {
+            for (File file : extra) {
+                artifacts.add(file);
+            }
+        }
+        artifact_cache.publish(artifacts);
+    }
+
+
+    /**
+     * Check if manager instance if up by checking the machines tag
+     *
+     * @return manager instance ID if up, else null.
+     */
+    private String getManager() throws IOException {
+        return manager_locator.getManager();
+    }
+
+    /**
+     * The tweets file of a single run: the file in the uploads directory that isn't a script.
+     */
+    private File findTweetsFile() throws IOException {
+        File tweets = null;
+        File[] files = new File(UPLOADS_DIRECTORY).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.getName().contains(".sh")) {
+                    tweets = file;
+                }
+            }
+        }
+        if (tweets == null) {
+            throw new IOException("No tweets file in " + UPLOADS_DIRECTORY);
+        }
+        return tweets;
+    }
+
+    /**
+     * Upload the scripts in the uploads directory, if they changed.
+     */
+    private void uploadScripts() throws IOException, InterruptedException {
+        Metrics.Span span = Utils.metrics.start("phase.upload");
+        try {
+            List<Future<String>> uploads = new ArrayList<Future<String>>();
+            File[] files = new File(UPLOADS_DIRECTORY).listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (file.getName().contains(".sh")) {
+                        uploads.add(upload_stage.upload(file, file.getName(), false, false, true));
+                    }
+                }
+            }
+            UploadStage.awaitAll(uploads);
+            span.ok();
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Upload a single tweets file.
+     *
+     * @param key the job key, the content hash of the file.
+     */
+    private void uploadInput(File input, String key) throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        UploadStage.awaitAll(Collections.singletonList(upload_stage.upload(input, key, false, gzip_upload, false)));
+        System.out.println("Uploaded " + input + " as " + key + ", " +
+                upload_stage.stats(System.currentTimeMillis() - start));
+    }
+
+    /**
+     * Write the HTML of an input that was analyzed before, if its summary is cached or archived.
+     *
+     * @param key the job key, the content hash of the input.
+     * @return number of results written, -1 if the input has to be analyzed.
+     */
+    private long exportCached(String key, String output_file_name) throws IOException, InterruptedException {
+        if (result_cache == null) {
+            return -1;
+        }
+        Path summary_path;
+        Metrics.Span span = Utils.metrics.start("phase.cache");
+        try {
+            summary_path = span.ok(result_cache.lookup(key));
+        }
+        finally {
+            span.end();
+        }
+        if (summary_path == null) {
+            return -1;
+        }
+
+        long count;
+        span = Utils.metrics.start("phase.render");
+        try {
+            count = span.ok(exportHtml(summary_path, output_file_name, Paths.get(output_file_name)));
+        }
+        finally {
+            span.end();
+        }
+        System.out.println("Summary of " + key + " was cached, " + count + " results.");
+        return count;
+    }
+
+    /**
+     * Put the key inside the queue, so the manager will know what key should he download from s3 malachi-amir-bucket
+     * take the message, and ask the file "@key" from the bucket "malachi-amir-bucket" in s3_client
+     *
+     * @param key the tweets file key
+     * @param inline the tweets file itself, sent after the key instead of downloaded, or null
+     * @param last send once the jobs before it are in the queue
+     * @return done when the message is in the queue
+     */
+    private CompletableFuture<Void> acknowledgeFileLocation(String key, WorkerSizing.Hint sizing, String inline,
+                                                            boolean last) {
+        Map<String, String> attributes = new HashMap<String, String>();
+
+        if (reply_queue_url != null) {
+            // Tell the manager to send the done message to our private queue.
+            attributes.put(Utils.REPLY_QUEUE_ATTRIBUTE, reply_queue_url);
+        }
+        // Ask for the binary summary, managers that don't know it send text.
+        attributes.put(SummaryFormat.SUMMARY_FORMATS_ATTRIBUTE, SummaryFormat.ACCEPTED_FORMATS);
+        if (chunk_records > 0) {
+            // Ask for results while the job runs, managers that don't know it send them all when done.
+            attributes.put(ProgressiveResults.CHUNK_RECORDS_ATTRIBUTE, Integer.toString(chunk_records));
+        }
+        // Size the workers for this job, managers that don't know it use the number they were started with.
+        attributes.put(WorkerSizing.TASKS_PER_WORKER_ATTRIBUTE, Integer.toString(sizing.tasks_per_worker));
+        attributes.put(WorkerSizing.WORKERS_ATTRIBUTE, Integer.toString(sizing.workers));
+        if (inline != null) {
+            attributes.put(Utils.INLINE_INPUT_ATTRIBUTE, Utils.INLINE_TEXT);
+            return job_sender.send(key + "\n" + inline, attributes, last);
+        }
+        return job_sender.send(key, attributes, last);
+    }
+
+
+    /**
+     * When we will see a message in the answers queue named "@key", then we will know that
+     * the manager done parsing
+     *
+     * @param key
+     * @return completed when the manager is done, no thread waits meanwhile.
+     */
+    private CompletableFuture<Void> waitForDone(final PreparedJob job, final String key) {
+        final long start = System.currentTimeMillis();
+        final Metrics.Span span = Utils.metrics.start("phase.wait");
+        return completion_notifier.completion(key).whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void done, Throwable error) {
+                if (error == null) {
+                    span.ok();
+                    job.done_at = System.currentTimeMillis();
+                }
+                span.end();
+                System.out.println("Queue of " + key + " is done after " + (System.currentTimeMillis() - start) +
+                        " ms (" + completion_notifier.stats() + ").");
+            }
+        });
+    }
+
+    /**
+     * After the manager send done message, then we can download the summary file from S3.
+     * The summary is fetched in parallel ranges into a local file, so it is never held in memory.
+     * In progressive mode it is put together from the chunks already downloaded, if they are all there.
+     *
+     * @return the local summary file.
+     */
+    private Path downloadSummary(PreparedJob job, String key) throws IOException, InterruptedException {
+        Metrics.Span span = Utils.metrics.start("phase.download");
+        try {
+            Path summary_path = job.progress != null ? job.progress.assemble(key) : null;
+            if (summary_path == null) {
+                System.out.println("Downloading summary from bucket.");
+                long start = System.currentTimeMillis();
+                summary_path = downloader.download(key, Paths.get(DOWNLOADS_DIRECTORY, key));
+                System.out.println("Downloaded " + downloader.stats(System.currentTimeMillis() - start));
+            }
+
+            // Move the file to a subfolder for neatness. The summary of a whole input goes by its content hash,
+            // where ResultCache looks for it.
+            System.out.println("Moving summary file.");
+            Utils.storage.copy(key, ResultCache.ARCHIVE_PREFIX + (key.equals(job.submission_key) ? job.key : key));
+            Utils.storage.delete(key);
+            System.out.println("Bucket is tidy :)");
+
+            return span.ok(summary_path);
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    /**
+     * An input on its way through the manager.
+     */
+    private static class PreparedJob {
+        // Content hash of the whole input.
+        final String key;
+        final String output_file_name;
+
+        // Key of this submission of the input, so the same input sent again gets its own objects, files and DONE.
+        final String submission_key;
+
+        // Key of what the manager works on, null if the caches had everything.
+        String job_key;
+
+        // Keys of the shards of job_key in input order, only job_key itself if it wasn't cut.
+        List<String> shard_keys;
+
+        // Links of the input split by the link cache, null when not caching.
+        LinkCache.Split split;
+
+        // Results written as they come, null when not in progressive mode.
+        ProgressiveResults progress;
+
+        // What goes to the manager as job_key, the input or only its links not known.
+        File upload;
+
+        // Content of upload when it goes in the job message instead of the bucket, null if uploaded.
+        String inline;
+
+        // Done once all the shards are in the manager's queue.
+        CompletableFuture<Void> sent;
+
+        // Number of results written, once done.
+        long results = -1;
+
+        // Links the manager gets, and how its workers were sized for them.
+        long links = -1;
+        WorkerSizing.Hint sizing;
+
+        // How the workers of each shard were sized, in the order of shard_keys.
+        List<WorkerSizing.Hint> shard_sizing;
+
+        // When the job was sent, and when the manager was done with its last shard.
+        long submitted_at;
+        volatile long done_at;
+
+        final long started_at = System.currentTimeMillis();
+
+        PreparedJob(String key, String output_file_name) {
+            this.key = key;
+            this.submission_key = submissionKey(key);
+            this.output_file_name = output_file_name;
+        }
+    }
+
+    /**
+     * Get an input ready for the manager: answer as much of it as possible from the caches, analyze the rest
+     * in process if it is small, or start the manager and upload it.
+     *
+     * @param key content hash of the input.
+     * @return the job, done already if its job_key is null.
+     */
+    private PreparedJob prepareJob(File input, String key, String output_file_name)
+            throws IOException, InterruptedException {
+        PreparedJob job = lookupJob(input, key, output_file_name);
+        if (job.job_key != null && !analyzeInProcess(job)) {
+            managerReady();
+            uploadJob(job);
+        }
+        return job;
+    }
+
+    /**
+     * Answer as much of an input as possible from the caches.
+     *
+     * @param key content hash of the input.
+     * @return the job, done already if its job_key is null.
+     */
+    private PreparedJob lookupJob(File input, String key, String output_file_name)
+            throws IOException, InterruptedException {
+        PreparedJob job = new PreparedJob(key, output_file_name);
+        job.results = exportCached(key, output_file_name);
+        if (job.results >= 0) {
+            printTimeToFirstResult(job);
+            return job;
+        }
+
+        job.upload = input;
+        job.job_key = job.submission_key;
+        if (link_cache != null) {
+            Metrics.Span span = Utils.metrics.start("phase.cache");
+            try {
+                job.split = span.ok(link_cache.split(input,
+                        Paths.get(DOWNLOADS_DIRECTORY, job.submission_key).toString()));
+            }
+            finally {
+                span.end();
+            }
+            if (job.split.misses == 0) {
+                System.out.println("All " + job.split.links + " links of " + input + " are known.");
+                job.job_key = null;
+                job.results = finishJob(job, null);
+                return job;
+            }
+            if (job.split.hits() > 0) {
+                // Only the links never analyzed go to the manager.
+                System.out.println(job.split.hits() + " of " + job.split.links + " links of " + input +
+                        " are known, sending " + job.split.misses + ".");
+                job.upload = job.split.missed_links.toFile();
+                job.job_key = job.submission_key + PARTIAL_JOB_SUFFIX;
+            }
+        }
+        job.links = job.split != null ? job.split.misses : WorkerSizing.countLinks(job.upload);
+        return job;
+    }
+
+    /**
+     * Analyze what the caches didn't know in this JVM, if it is small or there's no manager to send it to.
+     *
+     * @return true if the job is done, false if it goes to the manager.
+     */
+    private boolean analyzeInProcess(PreparedJob job) throws IOException {
+        if (in_process == null) {
+            return false;
+        }
+        if (job.links > in_process_links && !(in_process_when_down && !managerUp())) {
+            return false;
+        }
+
+        System.out.println("Analyzing " + job.job_key + " (" + job.links + " links) in process.");
+        Path summary = Paths.get(DOWNLOADS_DIRECTORY, job.job_key + ".inprocess");
+        Metrics.Span span = Utils.metrics.start("phase.analyze");
+        try {
+            in_process.analyze(job.upload, job.job_key, summary);
+            span.ok();
+        }
+        finally {
+            span.end();
+        }
+        job.job_key = null;
+        job.results = finishJob(job, summary);
+        System.out.println("Analyzed in process, " + job.results + " results.");
+        return true;
+    }
+
+    /**
+     * @return true if a manager is up or starting, looked up once.
+     */
+    private synchronized boolean managerUp() throws IOException {
+        if (manager_ready != null) {
+            return true;
+        }
+        if (manager_up == null) {
+            manager_up = getManager() != null;
+        }
+        return manager_up;
+    }
+
+    /**
+     * Upload what the caches didn't know, and get ready for its results.
+     */
+    private void uploadJob(PreparedJob job) throws IOException, InterruptedException {
+        job.sizing = worker_sizing.size(job.links);
+        System.out.println("Sizing " + job.job_key + " (" + job.links + " links): " + job.sizing + ".");
+
+        job.inline = readInline(job.upload);
+        if (job.inline != null) {
+            System.out.println("Sending " + job.job_key + " in the job message, " + job.upload.length() + " bytes.");
+            job.shard_keys = Collections.singletonList(job.job_key);
+            job.shard_sizing = Collections.singletonList(job.sizing);
+        }
+        else {
+            Metrics.Span span = Utils.metrics.start("phase.upload");
+            try {
+                job.shard_keys = span.ok(uploadShards(job));
+            }
+            finally {
+                span.end();
+            }
+        }
+
+        if (chunk_records > 0) {
+            job.progress = new ProgressiveResults(Utils.storage, downloader, shard_executor,
+                    Paths.get(DOWNLOADS_DIRECTORY), job.job_key, chunk_records, job.output_file_name, job.started_at,
+                    Utils.HTML_HEADER);
+            if (job.split != null) {
+                // Known results can be looked at while the manager works on the rest.
+                job.progress.writeKnown(job.split.known_results);
+            }
+        }
+    }
+
+    /**
+     * @return the content of an input small enough to send in the job message, null if it has to be uploaded:
+     *         too large, or not text SQS takes.
+     */
+    private String readInline(File input) throws IOException {
+        if (input.length() > inline_bytes) {
+            return null;
+        }
+        String content;
+        try {
+            content = StandardCharsets.UTF_8.newDecoder()
+                    .decode(ByteBuffer.wrap(Files.readAllBytes(input.toPath()))).toString();
+        }
+        catch (CharacterCodingException e) {
+            return null;
+        }
+        for (int i = 0; i < content.length(); i++) {
+            // Characters SQS messages can't hold.
+            char c = content.charAt(i);
+            if ((c < 0x20 && c != '\t' && c != '\n' && c != '\r') || c == 0xFFFE || c == 0xFFFF) {
+                return null;
+            }
+        }
+        return content;
+    }
+
+    /**
+     * Upload the input of a job, cut into shards if it is large, and size the workers of each shard.
+     *
+     * @return keys of the shards in input order, only the job key itself if it wasn't cut.
+     */
+    private List<String> uploadShards(PreparedJob job) throws IOException, InterruptedException {
+        File input = job.upload;
+        String key = job.job_key;
+        List<Path> shards = Shards.split(input, shard_bytes, MAX_SHARDS, Paths.get(DOWNLOADS_DIRECTORY, key).toString());
+        if (shards.isEmpty()) {
+            uploadInput(input, key);
+            job.shard_sizing = Collections.singletonList(job.sizing);
+            return Collections.singletonList(key);
+        }
+
+        long start = System.currentTimeMillis();
+        List<String> keys = new ArrayList<String>();
+        List<Long> links = new ArrayList<Long>();
+        List<Future<String>> uploads = new ArrayList<Future<String>>();
+        for (int i = 0; i < shards.size(); i++) {
+            keys.add(key + "-" + i);
+            uploads.add(upload_stage.upload(shards.get(i).toFile(), keys.get(i), false, gzip_upload, false));
+        }
+        try {
+            // Counted while they upload.
+            for (Path shard : shards) {
+                links.add(WorkerSizing.countLinks(shard.toFile()));
+            }
+            UploadStage.awaitAll(uploads);
+        }
+        finally {
+            for (Path shard : shards) {
+                Files.deleteIfExists(shard);
+            }
+        }
+        job.shard_sizing = worker_sizing.shard(job.sizing, links);
+        StringBuilder workers = new StringBuilder();
+        for (WorkerSizing.Hint sizing : job.shard_sizing) {
+            workers.append(workers.length() == 0 ? "" : ", ").append(sizing.workers);
+        }
+        System.out.println("Workers of the shards of " + key + ": " + workers + ".");
+        System.out.println("Uploaded " + input + " as " + shards.size() + " shards of " + key + ", " +
+                upload_stage.stats(System.currentTimeMillis() - start));
+        return keys;
+    }
+
+    /**
+     * Send all the shards of a job to the manager, with the next batch of job messages.
+     * job.sent is done once they are in the queue.
+     *
+     * @param terminate tell the manager to terminate after the last shard.
+     * @return key of the last shard.
+     */
+    private String submitShards(PreparedJob job, boolean terminate) {
+        job.submitted_at = System.currentTimeMillis();
+        CompletableFuture<?>[] sent = new CompletableFuture<?>[job.shard_keys.size()];
+        for (int i = 0; i < job.shard_keys.size(); i++) {
+            if (job.progress != null) {
+                completion_notifier.register(job.shard_keys.get(i), job.progress);
+            }
+            sent[i] = submitJob(job.shard_keys.get(i), terminate && i == job.shard_keys.size() - 1,
+                    job.shard_sizing.get(i), job.inline);
+        }
+        job.sent = CompletableFuture.allOf(sent);
+        return job.shard_keys.get(job.shard_keys.size() - 1);
+    }
+
+    /**
+     * Once the manager is done: get the summary, merge it with the known results and write the HTML.
+     *
+     * @return number of results written.
+     */
+    private CompletableFuture<Long> completeJob(final PreparedJob job) {
+        CompletableFuture<Path> summary;
+        if (job.shard_keys.size() == 1) {
+            System.out.println("Receiving messages from answers queue.\n");
+            summary = engine.io(waitForDone(job, job.job_key), new JobEngine.Step<Void, Path>() {
+                @Override
+                public Path apply(Void done) throws Exception {
+                    return downloadSummary(job, job.job_key);
+                }
+            });
+        }
+        else {
+            summary = awaitShards(job);
+        }
+        return engine.cpu(summary, new JobEngine.Step<Path, Long>() {
+            @Override
+            public Long apply(Path summary) throws Exception {
+                worker_sizing.record(job.shard_sizing, job.done_at - job.submitted_at);
+                job.results = finishJob(job, summary);
+                System.out.println("Summary downloaded, " + job.results + " results.");
+                return job.results;
+            }
+        });
+    }
+
+    /**
+     * Wait for all the shards of a job, downloading each summary as soon as it is done, and append them
+     * in input order to one summary as the ones before them arrive.
+     *
+     * @return the summary of the whole job.
+     */
+    private CompletableFuture<Path> awaitShards(final PreparedJob job) {
+        final long start = System.currentTimeMillis();
+        final Path merged = Paths.get(DOWNLOADS_DIRECTORY, job.job_key + ".shards");
+        final int shards = job.shard_keys.size();
+
+        final CompletableFuture<BinarySummaryWriter> opened = engine.io(new Callable<BinarySummaryWriter>() {
+            @Override
+            public BinarySummaryWriter call() throws IOException {
+                return new BinarySummaryWriter(Files.newOutputStream(merged));
+            }
+        });
+        CompletableFuture<BinarySummaryWriter> appended = opened;
+        for (int i = 0; i < shards; i++) {
+            final String shard_key = job.shard_keys.get(i);
+            final int shard = i + 1;
+            final CompletableFuture<Path> summary = engine.io(waitForDone(job, shard_key),
+                    new JobEngine.Step<Void, Path>() {
+                        @Override
+                        public Path apply(Void done) throws Exception {
+                            return downloadSummary(job, shard_key);
+                        }
+                    });
+            final CompletableFuture<BinarySummaryWriter> before = appended;
+            appended = engine.io(CompletableFuture.allOf(before, summary),
+                    new JobEngine.Step<Void, BinarySummaryWriter>() {
+                        @Override
+                        public BinarySummaryWriter apply(Void ready) throws Exception {
+                            BinarySummaryWriter writer = before.join();
+                            Shards.append(summary.join(), writer);
+                            Files.delete(summary.join());
+                            System.out.println("Shard " + shard + "/" + shards + " of " + job.job_key +
+                                    " merged after " + (System.currentTimeMillis() - start) + " ms.");
+                            return writer;
+                        }
+                    });
+        }
+
+        CompletableFuture<Path> done = engine.io(appended, new JobEngine.Step<BinarySummaryWriter, Path>() {
+            @Override
+            public Path apply(BinarySummaryWriter writer) throws Exception {
+                writer.close();
+                return merged;
+            }
+        });
+        done.whenComplete(new BiConsumer<Path, Throwable>() {
+            @Override
+            public void accept(Path path, Throwable error) {
+                BinarySummaryWriter writer = opened.getNow(null);
+                if (error != null && writer != null) {
+                    try {
+                        writer.close();
+                    }
+                    catch (IOException e) {
+                        // Failed already.
+                    }
+                }
+            }
+        });
+        return done;
+    }
+
+    /**
+     * @param summary the manager's summary, null if it had nothing to do.
+     * @return number of results written.
+     */
+    private long finishJob(PreparedJob job, Path summary) throws IOException {
+        long count;
+        Metrics.Span span = Utils.metrics.start("phase.render");
+        try {
+            count = span.ok(render(job, summary));
+        }
+        finally {
+            span.end();
+        }
+        printTimeToFirstResult(job);
+        return count;
+    }
+
+    /**
+     * Merge the summary with the known results, write the HTML and cache the result.
+     */
+    private long render(PreparedJob job, Path summary) throws IOException {
+        Path result = summary;
+        if (job.split != null) {
+            result = Paths.get(DOWNLOADS_DIRECTORY, job.submission_key + ".merged");
+            link_cache.merge(job.split, summary, job.key, result);
+            job.split.delete();
+            if (summary != null) {
+                Files.delete(summary);
+            }
+        }
+
+        long count;
+        if (job.progress != null) {
+            // Replace what was written as it came with the whole output in order, without a moment of an empty file.
+            job.progress.close();
+            Path output = Paths.get(job.output_file_name);
+            Path complete = output.resolveSibling(output.getFileName() + ".tmp");
+            count = exportHtml(result, job.output_file_name, complete);
+            Files.move(complete, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        else {
+            count = exportHtml(result, job.output_file_name, Paths.get(job.output_file_name));
+        }
+
+        if (result_cache != null) {
+            result_cache.put(job.key, result);
+        }
+        else {
+            Files.delete(result);
+        }
+        return count;
+    }
+
+    /**
+     * Write the HTML of a summary: one page, or with "pages" an index page and pages of results.
+     *
+     * @param write_to where the page goes, output_file_name or a file next to it that replaces it later.
+     * @return number of results written.
+     */
+    private long exportHtml(Path summary, String output_file_name, Path write_to) throws IOException {
+        if (paged_export != null) {
+            return paged_export.export(summary, Paths.get(output_file_name), write_to);
+        }
+        return Utils.exportToHTMLFile(summary, write_to.toString());
+    }
+
+    /**
+     * Where the local backend keeps its own copy of a file of Resources: its results are simulated, and
+     * its timings say nothing about AWS.
+     */
+    private static Path backendPath(String path) {
+        return Paths.get(Utils.isLocal() ? path + ".local" : path);
+    }
+
+    /**
+     * Manager key of one submission of the input with the given content hash. The hash alone comes back
+     * when the same input is sent again, after its DONE was already seen.
+     */
+    static String submissionKey(String key) {
+        return key + "-" + UUID.randomUUID();
+    }
+
+    /**
+     * Time from the start of a job until its first result could be looked at in the output:
+     * as soon as the first chunk came in progressive mode, when the whole output was written otherwise.
+     */
+    private void printTimeToFirstResult(PreparedJob job) {
+        long ms = job.progress != null ? job.progress.timeToFirstResult() : -1;
+        if (ms < 0) {
+            ms = System.currentTimeMillis() - job.started_at;
+        }
+        Utils.metrics.histogram("job.time_to_first_result").record(ms * 1000000, false);
+        System.out.println("Time to first result of " + job.key + ": " + ms + " ms");
+    }
+
+    private void printCacheStats() {
+        if (result_cache != null) {
+            System.out.println("Result cache: " + result_cache.stats());
+            System.out.println("Link cache: " + link_cache.stats());
+        }
+    }
+
+    private void closeInProcess() {
+        if (in_process != null) {
+            System.out.println("In process: " + in_process.stats() + ".");
+            in_process.shutdown();
+        }
+    }
+
+    private void closePagedExport() {
+        if (paged_export != null) {
+            paged_export.shutdown();
+        }
+    }
+
+    private void closeCaches() throws IOException {
+        if (link_cache != null) {
+            link_cache.close();
+        }
+    }
+
+    /**
+     * Checks if a Manager node is active on the EC2 cloud. If it is not, the application will start the manager node.
+     */
+    private void ensureManager() throws IOException {
+        System.out.println("Getting manager.");
+        Metrics.Span span = Utils.metrics.start("phase.discovery");
+        try {
+            Utils.manager_instanceId = span.ok(getManager());
+        }
+        finally {
+            span.end();
+        }
+        System.out.println("Manager lookup: " + manager_locator.stats());
+
+        span = Utils.metrics.start("phase.bootstrap");
+        try {
+            bootstrapManager();
+            span.ok();
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Start a manager if none is up, and a standby one if asked to.
+     */
+    private void bootstrapManager() throws IOException {
+        if (Utils.manager_instanceId == null || warm_pool) {
+            // New and standby managers boot from the published artifacts.
+            System.out.println("Uploading jars.");
+            try {
+                uploadJars();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while uploading jars");
+            }
+        }
+
+        if (Utils.manager_instanceId == null) {
+            System.out.println("Manager is down, creating one.");
+
+            // start manager, a stopped standby one is much faster than a new one
+            Utils.manager_instanceId = manager_pool.acquire();
+            if (Utils.manager_instanceId != null) {
+                System.out.println("Starting standby manager.");
+            }
+            else {
+                System.out.println("Starting manager instances.");
+                Utils.manager_instanceId = Utils.createManager();
+            }
+            manager_locator.remember(Utils.manager_instanceId);
+        }
+
+        if (warm_pool) {
+            // Have a standby manager ready for the next time the manager is down.
+            if (manager_pool.fill(1) > 0) {
+                System.out.println("Launched a standby manager.");
+            }
+        }
+    }
+
+    /**
+     * Start the manager the first time a job needs it.
+     */
+    private synchronized CompletableFuture<Void> managerReady() {
+        if (manager_ready == null) {
+            manager_ready = startManager();
+        }
+        return manager_ready;
+    }
+
+    /**
+     * Get the manager up, the scripts uploaded and the answers queue open, in the background
+     * while the inputs are uploaded.
+     */
+    private CompletableFuture<Void> startManager() {
+        return engine.io(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                ensureManager();
+                uploadScripts();
+                openAnswersQueue();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Wait for the manager start to be over, failed or not, so what it opened can be closed.
+     *
+     * @param ready null if the manager wasn't started.
+     */
+    private static void awaitManagerQuietly(Future<Void> ready) {
+        if (ready == null) {
+            return;
+        }
+        try {
+            ready.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e) {
+            // Thrown by the job waiting for it already, or hidden by what went wrong first.
+        }
+    }
+
+    /**
+     * Start listening for done messages.
+     * Answers come on a private queue if asked to, so we don't compete with other local apps.
+     */
+    private void openAnswersQueue() {
+        if (use_reply_queue) {
+            System.out.println("Creating reply queue.");
+            reply_queue_url = Utils.createReplyQueue();
+            completion_notifier = new CompletionNotifier(Utils.queues, reply_queue_url);
+        }
+        else {
+            completion_notifier = new CompletionNotifier(Utils.queues, Utils.manager_local_queue_url);
+        }
+        job_sender = new MessageBatcher(Utils.queues, Utils.local_manager_queue_url,
+                Long.getLong("localapp.send_linger_ms", MessageBatcher.DEFAULT_LINGER_MS));
+    }
+
+    private void closeAnswersQueue() {
+        if (job_sender != null) {
+            System.out.println("Job messages: " + job_sender.stats() + ".");
+            job_sender.shutdown();
+        }
+        if (completion_notifier != null) {
+            completion_notifier.shutdown();
+        }
+        if (reply_queue_url != null) {
+            Utils.deleteReplyQueue(reply_queue_url);
+            reply_queue_url = null;
+        }
+    }
+
+    /**
+     * Send a job to the manager.
+     *
+     * @param key the tweets file key
+     * @param terminate tell the manager to terminate after this job
+     * @param sizing tasks per worker of the job
+     * @param inline the tweets file, if it goes in the message
+     * @return done when the job is in the queue
+     */
+    private CompletableFuture<Void> submitJob(String key, boolean terminate, WorkerSizing.Hint sizing, String inline) {
+        // Listen for the done message before sending the job, so it can't be missed.
+        completion_notifier.register(key);
+        if (first_submit.compareAndSet(false, true)) {
+            long nanos = Utils.metrics.elapsedNanos();
+            Utils.metrics.histogram("startup.time_to_first_submit").record(nanos, false);
+            System.out.println("Time to first submit: " + nanos / 1000000 + " ms");
+        }
+
+        //  Sends a message to an SQS queue, stating the location of the file on S3
+        //if terminate arg is supplied, then acknowledge the manager
+        // The termination goes after all the jobs sent before it.
+        if (terminate) {
+            return acknowledgeFileLocation("TERMINATE|" + key, sizing, inline, true);
+        }
+        else {
+            return acknowledgeFileLocation(key, sizing, inline, false);
+        }
+    }
+
+    /**
+     * Tell the manager to terminate when no job of this run carried the termination: send an empty job that does,
+     * so it still writes its stats like after a real one.
+     *
+     * @return key of the termination job, for terminateManager.
+     */
+    private String submitTermination() throws IOException, InterruptedException {
+        String key = TERMINATION_JOB_PREFIX + UUID.randomUUID();
+        JobEngine.await(managerReady());
+        String inline = inline_bytes > 0 ? "" : null;
+        if (inline == null) {
+            Utils.storage.put(key, new byte[0], 0, 0, new ObjectInfo());
+        }
+        CompletableFuture<Void> done = completion_notifier.completion(key);
+        JobEngine.await(submitJob(key, true, worker_sizing.size(0), inline));
+        JobEngine.await(done);
+        // Its empty summary.
+        Utils.storage.delete(key);
+        return key;
+    }
+
+    /**
+     * Wait for the stats of a terminating manager, then kill it.
+     *
+     * @param key key of the job that carried the termination signal.
+     */
+    private void terminateManager(String key) throws IOException, InterruptedException {
+        Metrics.Span span = Utils.metrics.start("phase.stats");
+        try {
+            if (awaitStats(key)) {
+                span.ok();
+            }
+        }
+        catch (IOException e) {
+            // The manager has to go anyway.
+            System.out.println("Error getting stats file : " + e.toString());
+        }
+        finally {
+            span.end();
+        }
+
+        // Kill manager instance
+        System.out.println("Killing manager");
+        String manager_id = getManager();
+        if (manager_id != null) {
+            Utils.compute.terminate(manager_id);
+            manager_locator.forget();
+        }
+    }
+
+    /**
+     * Download the stats file of a terminating manager, once it wrote it.
+     *
+     * @return false if the manager didn't write it in time.
+     */
+    private boolean awaitStats(String key) throws IOException, InterruptedException {
+        System.out.println("Got termination signal, waiting for stats file.");
+        // Download Stat file from S3, once the manager wrote it.
+        String stats_key = key + "|STATS";
+        long timeout_s = Long.getLong("localapp.stats_timeout_s", DEFAULT_STATS_TIMEOUT_S);
+        long deadline = System.currentTimeMillis() + timeout_s * 1000;
+        while (!Utils.storage.exists(stats_key)) {
+            if (System.currentTimeMillis() > deadline) {
+                System.out.println("No stats file after " + timeout_s + " s, killing the manager anyway.");
+                return false;
+            }
+            Thread.sleep(1000);
+        }
+
+        // Write stats to file
+        System.out.println("Writing stats to file");
+        downloader.download(stats_key, Paths.get("Stats"));
+        worker_sizing.recordStats(Paths.get("Stats"));
+        System.out.println("Worker sizing: " + worker_sizing.stats());
+
+        // Remove file from S3
+        Utils.storage.delete(stats_key);
+        return true;
+    }
+
+    /**
+     * Start local App
+     *
+     * @param terminate
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void startLocalApp(boolean terminate) throws IOException, InterruptedException {
+        // Jobs are keyed by content, so an input analyzed before needs no manager at all.
+        //  Uploads the file to S3, or only its links that weren't analyzed before.
+        System.out.println("Uploading files to storage.");
+        File tweets = findTweetsFile();
+        PreparedJob job = lookupJob(tweets, ResultCache.key(tweets), output_file_name);
+        if (job.job_key == null || analyzeInProcess(job)) {
+            // No job carries the termination, so it gets one of its own.
+            String termination_key = null;
+            try {
+                // Without a manager there's nobody to tell, and the message would stop the next one.
+                if (terminate && managerUp()) {
+                    termination_key = submitTermination();
+                }
+            }
+            finally {
+                awaitManagerQuietly(manager_ready);
+                closeAnswersQueue();
+                closeInProcess();
+                closePagedExport();
+                engine.shutdown();
+                upload_stage.shutdown();
+            }
+
+            System.out.println("Created HTML file.");
+            printCacheStats();
+            closeCaches();
+
+            if (termination_key != null) {
+                terminateManager(termination_key);
+            }
+            // Last, the stats come through it.
+            downloader.shutdown();
+            return;
+        }
+
+        // The manager starts while the input is uploaded.
+        String last_key;
+        CompletableFuture<Void> ready = managerReady();
+        try {
+            uploadJob(job);
+            JobEngine.await(ready);
+            last_key = submitShards(job, terminate);
+            JobEngine.await(job.sent);
+
+            //  Checks an SQS queue for a message indicating the process is done and the response (the summary file) is available on S3.
+            //  Downloads the summary file from S3, and create an HTML file representing the results.
+            JobEngine.await(completeJob(job));
+        }
+        finally {
+            awaitManagerQuietly(ready);
+            closeAnswersQueue();
+            closeInProcess();
+            closePagedExport();
+            engine.shutdown();
+            upload_stage.shutdown();
+        }
+
+        System.out.println("Created HTML file.");
+        printCacheStats();
+        closeCaches();
+
+        if (terminate) {
+            terminateManager(last_key);
+        }
+        // Last, the stats come through it.
+        downloader.shutdown();
+    }
+
+    /**
+     * One input of a batch, and where its HTML goes.
+     */
+    private static class BatchJob {
+        final File input;
+        final String output_file_name;
+
+        BatchJob(File input, String output_file_name) {
+            this.input = input;
+            this.output_file_name = output_file_name;
+        }
+    }
+
+    /**
+     * Read the inputs of a batch.
+     *
+     * @param source a directory of input files, or "@manifest": a file with an input path per line,
+     *               optionally followed by a space and the output file name.
+     * @param output_directory where the HTML of inputs without an output file name goes.
+     */
+    private static List<BatchJob> loadBatch(String source, String output_directory) throws IOException {
+        List<BatchJob> jobs = new ArrayList<BatchJob>();
+
+        if (source.startsWith("@")) {
+            for (String line : Files.readAllLines(Paths.get(source.substring(1)), StandardCharsets.UTF_8)) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int space = line.indexOf(' ');
+                File input = new File(space < 0 ? line : line.substring(0, space));
+                String output = space < 0 ?
+                        new File(output_directory, input.getName() + ".html").getPath() :
+                        line.substring(space + 1).trim();
+                jobs.add(new BatchJob(input, output));
+            }
+        }
+        else {
+            File[] inputs = new File(source).listFiles();
+            if (inputs == null) {
+                throw new IOException("Not a directory: " + source);
+            }
+            for (File input : inputs) {
+                if (input.isFile()) {
+                    jobs.add(new BatchJob(input, new File(output_directory, input.getName() + ".html").getPath()));
+                }
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * The pipeline of a job of a batch: look it up in the caches, analyze what they don't know in process if it is
+     * small or upload it, then once the manager is up submit it, wait for it without a thread, download its summary
+     * and write the HTML.
+     *
+     * @return number of results written.
+     */
+    private CompletableFuture<Long> runBatchJob(final BatchJob job) {
+        CompletableFuture<String> key = engine.io(new Callable<String>() {
+            @Override
+            public String call() throws IOException {
+                return ResultCache.key(job.input);
+            }
+        });
+        return key.thenCompose(new Function<String, CompletableFuture<Long>>() {
+            @Override
+            public CompletableFuture<Long> apply(final String key) {
+                // Inputs with the same content run one after the other, the later ones from the cache.
+                return engine.inOrder(key, new Supplier<CompletableFuture<Long>>() {
+                    @Override
+                    public CompletableFuture<Long> get() {
+                        return engine.io(new Callable<PreparedJob>() {
+                            @Override
+                            public PreparedJob call() throws Exception {
+                                return prepareJob(job.input, key, job.output_file_name);
+                            }
+                        }).thenCompose(new Function<PreparedJob, CompletableFuture<Long>>() {
+                            @Override
+                            public CompletableFuture<Long> apply(PreparedJob prepared) {
+                                if (prepared.job_key == null) {
+                                    return CompletableFuture.completedFuture(prepared.results);
+                                }
+                                return submitBatchJob(prepared);
+                            }
+                        });
+                    }
+                });
+            }
+        });
+    }
+
+    private CompletableFuture<Long> submitBatchJob(final PreparedJob job) {
+        return engine.io(managerReady(), new JobEngine.Step<Void, PreparedJob>() {
+            @Override
+            public PreparedJob apply(Void ready) {
+                submitShards(job, false);
+                return job;
+            }
+        }).thenCompose(new Function<PreparedJob, CompletableFuture<Long>>() {
+            @Override
+            public CompletableFuture<Long> apply(final PreparedJob submitted) {
+                return submitted.sent.thenCompose(new Function<Void, CompletableFuture<Long>>() {
+                    @Override
+                    public CompletableFuture<Long> apply(Void sent) {
+                        return completeJob(submitted);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Run a whole batch of inputs as concurrent jobs, sharing the clients, the manager and the answers queue.
+     * Up to max_jobs are in flight at once, and a job only holds a thread while it uploads, downloads or renders.
+     *
+     * @param jobs inputs and outputs.
+     * @param terminate terminate the manager once all the jobs are over, done or failed.
+     */
+    private void startBatch(List<BatchJob> jobs, boolean terminate) throws IOException, InterruptedException {
+        System.out.println("Running a batch of " + jobs.size() + " jobs, up to " + max_jobs + " at once.");
+        // The manager starts once the first input that needs it is looked up, while it is uploaded.
+        String termination_key = null;
+        long start = System.currentTimeMillis();
+        int failed = 0;
+
+        try {
+            List<CompletableFuture<Long>> results = new ArrayList<CompletableFuture<Long>>();
+            for (final BatchJob job : jobs) {
+                results.add(engine.submit(new Supplier<CompletableFuture<Long>>() {
+                    @Override
+                    public CompletableFuture<Long> get() {
+                        return runBatchJob(job);
+                    }
+                }));
+            }
+
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    long count = JobEngine.await(results.get(i));
+                    System.out.println("Done: " + jobs.get(i).input + " --> " + jobs.get(i).output_file_name +
+                            " (" + count + " results)");
+                }
+                catch (InterruptedException e) {
+                    throw e;
+                }
+                catch (Exception e) {
+                    failed++;
+                    System.out.println("Failed: " + jobs.get(i).input + " : " + e);
+                }
+            }
+
+            // Once every job is over, so a job that failed before it was sent can't keep the manager up.
+            // Without a manager there's nobody to tell, and the message would stop the next one.
+            if (terminate && managerUp()) {
+                termination_key = submitTermination();
+            }
+        }
+        finally {
+            awaitManagerQuietly(manager_ready);
+            closeAnswersQueue();
+            closeInProcess();
+            closePagedExport();
+            engine.shutdown();
+            upload_stage.shutdown();
+        }
+
+        System.out.println("Engine: " + engine.stats() + ".");
+        System.out.println("Batch done in " + (System.currentTimeMillis() - start) + " ms, " +
+                (jobs.size() - failed) + " succeeded, " + failed + " failed.");
+        printCacheStats();
+        closeCaches();
+
+        if (termination_key != null) {
+            terminateManager(termination_key);
+        }
+        // Last, the stats come through it.
+        downloader.shutdown();
+    }
+
+    /**
+     * Print the time of each phase and write the metrics files.
+     */
+    private static void writeMetrics() {
+        System.out.print("Phases:\n" + Utils.metrics.phases());
+        try {
+            Utils.metrics.writeJson(Paths.get(METRICS_FILE + ".json"));
+            Utils.metrics.writeCsv(Paths.get(METRICS_FILE + ".csv"));
+            Utils.metrics.writeTrace(Paths.get(METRICS_FILE + ".trace.json"));
+            System.out.println("Wrote " + METRICS_FILE + ".json, " + METRICS_FILE + ".csv and " + METRICS_FILE +
+                    ".trace.json");
+        }
+        catch (IOException e) {
+            System.out.println("Error writing metrics : " + e.toString());
+        }
+    }
+
+    /**
+     * Localapp executable.
+     *
+     * @param args Arguments:
+     *             0 - String Input file name. A directory, or "@manifest" file, runs a batch of inputs.
+     *             1 - String output file name. The output directory for a batch.
+     *             2 - Int Files per worker.
+     *             "terminate" - (optional) terminate the manager when done.
+     *             "reply_queue" - (optional) get the answers on a private queue.
+     *             "gzip" - (optional) upload the tweets file gzipped.
+     *             "warm_pool" - (optional) keep a stopped standby manager ready.
+     *             "max_jobs=N" - (optional) max jobs of a batch in flight at once, default 1024.
+     *             "no_cache" - (optional) analyze inputs even if they were analyzed before.
+     *             "shard_mb=N" - (optional) cut inputs over N MB into parallel jobs, 0 to never cut.
+     *             "progressive" - (optional) write results to the HTML file while the job runs,
+     *                             "progressive=N" for N results per chunk.
+     *             "pages" - (optional) write an index page and pages of 10000 results, rendered in parallel,
+     *                       "pages=N" for N results per page.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+        String input_file_name = args[0];
+        String output_file_name = args[1];
+        String missions_per_worker = args[2];
+
+        // Flag which represents if to terminate the app
+        boolean terminate = false;
+
+        // Flag which represents if to get the answers on a private queue
+        boolean use_reply_queue = false;
+
+        // Flag which represents if to compress the tweets file on upload
+        boolean gzip_upload = false;
+
+        // Flag which represents if to keep a standby manager
+        boolean warm_pool = false;
+
+        // Max jobs in flight in batch mode
+        int max_jobs = DEFAULT_MAX_JOBS;
+
+        // Flag which represents if to reuse the summaries of inputs analyzed before
+        boolean use_cache = true;
+
+        // Size over which inputs are cut into shards
+        long shard_mb = DEFAULT_SHARD_MB;
+
+        // Results per chunk in progressive mode, 0 when not
+        int chunk_records = 0;
+
+        // Results per page when paging the HTML, 0 for one page
+        int page_results = 0;
+
+        // Check if the flags are supplied as one of the args
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("terminate")) {
+                terminate = true;
+            }
+            if (args[i].equals("reply_queue")) {
+                use_reply_queue = true;
+            }
+            if (args[i].equals("gzip")) {
+                gzip_upload = true;
+            }
+            if (args[i].equals("warm_pool")) {
+                warm_pool = true;
+            }
+            if (args[i].startsWith("max_jobs=")) {
+                max_jobs = Integer.parseInt(args[i].substring("max_jobs=".length()));
+            }
+            if (args[i].equals("no_cache")) {
+                use_cache = false;
+            }
+            if (args[i].startsWith("shard_mb=")) {
+                shard_mb = Long.parseLong(args[i].substring("shard_mb=".length()));
+            }
+            if (args[i].equals("progressive")) {
+                chunk_records = DEFAULT_CHUNK_RECORDS;
+            }
+            if (args[i].startsWith("progressive=")) {
+                chunk_records = Integer.parseInt(args[i].substring("progressive=".length()));
+            }
+            if (args[i].equals("pages")) {
+                page_results = PagedHtmlExport.DEFAULT_PAGE_RESULTS;
+            }
+            if (args[i].startsWith("pages=")) {
+                page_results = Integer.parseInt(args[i].substring("pages=".length()));
+            }
+        }
+
+        int metrics_port = Integer.getInteger("localapp.metrics_port", 0);
+        if (metrics_port > 0) {
+            Utils.metrics.serve(metrics_port);
+        }
+
+        try {
+            // Create local app.
+            LocalApp local_app = new LocalApp(input_file_name, output_file_name, missions_per_worker, terminate,
+                    use_reply_queue, gzip_upload, warm_pool, use_cache, shard_mb, chunk_records, max_jobs,
+                    page_results);
+
+            // Start local app.
+            if (input_file_name.startsWith("@") || new File(input_file_name).isDirectory()) {
+                Files.createDirectories(Paths.get(output_file_name));
+                local_app.startBatch(loadBatch(input_file_name, output_file_name), terminate);
+            }
+            else {
+                local_app.startLocalApp(terminate);
+            }
+        }
+        finally {
+            writeMetrics();
+            Utils.metrics.stopServing();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package localapp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fake in-process instances, for running without AWS.
+ * Instances only have a Name tag and a state. A running "manager" instance is a LocalManager thread
+ * that serves the local queues and storage, so a whole job can run on one machine.
+ */
+class LocalCompute implements Compute {
+
+    private final Storage storage;
+    private final Queues queues;
+
+    private final Map<String, LocalInstance> instances = new ConcurrentHashMap<String, LocalInstance>();
+    private final AtomicLong ids = new AtomicLong();
+
+    LocalCompute(Storage storage, Queues queues) {
+        this.storage = storage;
+        this.queues = queues;
+    }
+
+    @Override
+    public List<String> launch(String tag, String user_data, int count, InstanceSpec spec) {
+        List<String> launched = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            LocalInstance instance = new LocalInstance(String.format("i-local%08d", ids.incrementAndGet()), tag);
+            instances.put(instance.id, instance);
+            launched.add(instance.id);
+
+            // Standby instances stop by themselves once booted.
+            if (tag.endsWith(StandbyPool.STANDBY_SUFFIX)) {
+                instance.state = "stopped";
+            }
+            else {
+                start(instance.id);
+            }
+        }
+        return launched;
+    }
+
+    @Override
+    public List<String> find(String tag, String... states) {
+        List<String> wanted = Arrays.asList(states);
+        List<String> found = new ArrayList<String>();
+        for (LocalInstance instance : instances.values()) {
+            synchronized (instance) {
+                if (instance.tag.equals(tag) && wanted.contains(instance.state)) {
+                    found.add(instance.id);
+                }
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public String state(String instance_id) {
+        LocalInstance instance = instances.get(instance_id);
+        if (instance == null) {
+            return null;
+        }
+        synchronized (instance) {
+            return instance.state;
+        }
+    }
+
+    @Override
+    public void tag(String instance_id, String key, String value) {
+        LocalInstance instance = instances.get(instance_id);
+        if (instance != null && key.equals("Name")) {
+            synchronized (instance) {
+                instance.tag = value;
+            }
+        }
+    }
+
+    @Override
+    public String start(String instance_id) {
+        LocalInstance instance = instances.get(instance_id);
+        if (instance == null) {
+            throw new IllegalArgumentException("No such instance: " + instance_id);
+        }
+        synchronized (instance) {
+            String previous = instance.state;
+            if (previous.equals("running")) {
+                return previous;
+            }
+            instance.state = "running";
+            // A standby manager runs the manager once started, like its boot script does.
+            if (instance.tag.equals(ManagerLocator.MANAGER_TAG_VALUE) ||
+                    instance.tag.equals(ManagerLocator.MANAGER_TAG_VALUE + StandbyPool.STANDBY_SUFFIX)) {
+                instance.manager = new LocalManager(storage, queues, instance_id);
+                instance.manager.start();
+            }
+            return previous;
+        }
+    }
+
+    @Override
+    public void terminate(String instance_id) {
+        LocalInstance instance = instances.get(instance_id);
+        if (instance == null) {
+            return;
+        }
+        synchronized (instance) {
+            instance.state = "terminated";
+            if (instance.manager != null) {
+                instance.manager.shutdown();
+                instance.manager = null;
+            }
+        }
+    }
+
+    private static class LocalInstance {
+        final String id;
+        String tag;
+        String state = "pending";
+        LocalManager manager;
+
+        LocalInstance(String id, String tag) {
+            this.id = id;
+            this.tag = tag;
+        }
+    }
+}
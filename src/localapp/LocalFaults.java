@@ -0,0 +1,110 @@
+package localapp;
+
+import com.amazonaws.AmazonServiceException;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Makes the local backend slow and fail like AWS does under load, to see how the client copes:
+ *
+ * -Dlocalapp.local_throttle_rps=N throttles calls of a backend over N a second, with the service's own
+ *  throttling error (S3 "SlowDown", SQS "RequestThrottled", EC2 "RequestLimitExceeded").
+ * -Dlocalapp.local_error_rate=P fails a call with a 500 "InternalError" with probability P (0..1).
+ * -Dlocalapp.local_latency_ms=N makes every call take N ms more, like a round trip to AWS.
+ *
+ * Only the local app's calls fail, the simulated manager's don't.
+ */
+class LocalFaults {
+
+    static final String THROTTLE_RPS_PROPERTY = "localapp.local_throttle_rps";
+    static final String ERROR_RATE_PROPERTY = "localapp.local_error_rate";
+    static final String LATENCY_MS_PROPERTY = "localapp.local_latency_ms";
+
+    private final String service_name;
+    private final String throttling_code;
+    private final int throttling_status;
+    private final int throttle_rps;
+    private final double error_rate;
+    private final long latency_ms;
+
+    // Calls in the current second.
+    private long window_start;
+    private int window_calls;
+
+    private LocalFaults(String service_name, String throttling_code, int throttling_status) {
+        this.service_name = service_name;
+        this.throttling_code = throttling_code;
+        this.throttling_status = throttling_status;
+        this.throttle_rps = Integer.getInteger(THROTTLE_RPS_PROPERTY, 0);
+        this.error_rate = Double.parseDouble(System.getProperty(ERROR_RATE_PROPERTY, "0"));
+        this.latency_ms = Long.getLong(LATENCY_MS_PROPERTY, 0);
+    }
+
+    static boolean enabled() {
+        return Integer.getInteger(THROTTLE_RPS_PROPERTY, 0) > 0 ||
+                Double.parseDouble(System.getProperty(ERROR_RATE_PROPERTY, "0")) > 0 ||
+                Long.getLong(LATENCY_MS_PROPERTY, 0) > 0;
+    }
+
+    /**
+     * @param service_name e.g. "Amazon S3".
+     * @param throttling_code error code of the service when throttling.
+     * @param throttling_status HTTP status of the service when throttling.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T wrap(Class<T> type, final T backend, String service_name, String throttling_code,
+                      int throttling_status) {
+        final LocalFaults faults = new LocalFaults(service_name, throttling_code, throttling_status);
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getDeclaringClass() != Object.class) {
+                    if (faults.latency_ms > 0) {
+                        Thread.sleep(faults.latency_ms);
+                    }
+                    faults.maybeFail(method.getName());
+                }
+                try {
+                    return method.invoke(backend, args);
+                }
+                catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        });
+    }
+
+    private void maybeFail(String operation) {
+        if (throttle_rps > 0) {
+            boolean throttled;
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                if (now - window_start >= 1000) {
+                    window_start = now;
+                    window_calls = 0;
+                }
+                throttled = ++window_calls > throttle_rps;
+            }
+            if (throttled) {
+                throw error(throttling_code, throttling_status, "Rate exceeded", operation);
+            }
+        }
+        if (error_rate > 0 && ThreadLocalRandom.current().nextDouble() < error_rate) {
+            throw error("InternalError", 500, "We encountered an internal error. Please try again.", operation);
+        }
+    }
+
+    private AmazonServiceException error(String code, int status, String message, String operation) {
+        AmazonServiceException error = new AmazonServiceException(message + " (" + operation + ")");
+        error.setServiceName(service_name);
+        error.setErrorCode(code);
+        error.setStatusCode(status);
+        error.setErrorType(status >= 500 ? AmazonServiceException.ErrorType.Service :
+                AmazonServiceException.ErrorType.Client);
+        return error;
+    }
+}
@@ -0,0 +1,233 @@
+package localapp;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Stand-in for the manager and its workers when running without AWS.
+ * Takes jobs from local_manager_queue like the real manager does, and answers each one with a summary
+ * stored under the job's key and a "key|DONE" message. The analysis is TweetAnalyzer.Simulated,
+ * so runs are repeatable. A job with a TasksPerWorker hint is timed as if that many
+ * tweets went to each of a fleet of workers working at once.
+ */
+class LocalManager {
+
+    private static final String TERMINATE_PREFIX = "TERMINATE|";
+
+    // Short polls, so shutdown doesn't wait long.
+    private static final int POLL_SECONDS = 1;
+
+    // Made up analysis time per tweet, to watch progress (-Dlocalapp.local_tweet_ms).
+    private static final long TWEET_MS = Long.getLong("localapp.local_tweet_ms", 0);
+
+    // Made up boot time of the workers of a job with a TasksPerWorker hint (-Dlocalapp.local_worker_boot_ms).
+    private static final long WORKER_BOOT_MS = Long.getLong("localapp.local_worker_boot_ms", 0);
+
+    private static final TweetAnalyzer ANALYZER = new TweetAnalyzer.Simulated();
+
+    private final Storage storage;
+    private final Queues queues;
+    private final String instance_id;
+
+    private Thread thread;
+    private volatile boolean running;
+
+    // Statistics, written to the stats file on termination.
+    private long jobs_done;
+    private long tweets_done;
+
+    LocalManager(Storage storage, Queues queues, String instance_id) {
+        this.storage = storage;
+        this.queues = queues;
+        this.instance_id = instance_id;
+    }
+
+    synchronized void start() {
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "local-manager-" + instance_id);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    synchronized void shutdown() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    private void serve() {
+        while (running) {
+            List<QueueMessage> messages = queues.receive(Utils.local_manager_queue_url, CompletionNotifier.MAX_BATCH_SIZE,
+                    POLL_SECONDS, 60);
+            for (QueueMessage message : messages) {
+                try {
+                    handle(message);
+                }
+                catch (Exception e) {
+                    // Leave the message, it comes back after its visibility timeout.
+                    System.out.println("Local manager error on " + message.body + " : " + e.toString());
+                }
+            }
+        }
+    }
+
+    private void handle(QueueMessage message) throws IOException, InterruptedException {
+        if (message.body.equals("TERMINATE")) {
+            queues.delete(Utils.local_manager_queue_url, message.receipt_handle);
+            running = false;
+            return;
+        }
+
+        boolean terminate = message.body.startsWith(TERMINATE_PREFIX);
+        String key = terminate ? message.body.substring(TERMINATE_PREFIX.length()) : message.body;
+
+        // An inline input comes after the key, instead of in the bucket.
+        String inline = null;
+        if (message.attributes.containsKey(Utils.INLINE_INPUT_ATTRIBUTE)) {
+            int newline = key.indexOf('\n');
+            inline = key.substring(newline + 1);
+            key = key.substring(0, newline);
+        }
+
+        String reply_queue_url = message.attributes.get(Utils.REPLY_QUEUE_ATTRIBUTE);
+        if (reply_queue_url == null) {
+            reply_queue_url = Utils.manager_local_queue_url;
+        }
+        String chunk_records = message.attributes.get(ProgressiveResults.CHUNK_RECORDS_ATTRIBUTE);
+        String tasks_per_worker = message.attributes.get(WorkerSizing.TASKS_PER_WORKER_ATTRIBUTE);
+
+        writeSummary(key, inline, SummaryFormat.choose(message.attributes.get(SummaryFormat.SUMMARY_FORMATS_ATTRIBUTE)),
+                chunk_records == null ? 0 : Integer.parseInt(chunk_records),
+                tasks_per_worker == null ? 0 : Integer.parseInt(tasks_per_worker), reply_queue_url);
+        jobs_done++;
+
+        queues.send(reply_queue_url, key + CompletionNotifier.DONE_SUFFIX, null);
+        queues.delete(Utils.local_manager_queue_url, message.receipt_handle);
+
+        if (terminate) {
+            byte[] stats = ("Local manager " + instance_id + "\njobs: " + jobs_done + "\ntweets: " + tweets_done +
+                    "\n" + WorkerSizing.STATS_WORKER_BOOT_MS + ": " + WORKER_BOOT_MS + "\n")
+                    .getBytes(StandardCharsets.UTF_8);
+            storage.put(key + "|STATS", stats, 0, stats.length, new ObjectInfo().withContentType("text/plain"));
+            running = false;
+        }
+    }
+
+    /**
+     * Replace the tweets file of a job with its summary: one "key|sentiment|entities|tweet" result per link,
+     * as text lines or binary blocks, whichever format the local app asked for.
+     *
+     * @param inline the tweets file, if it came in the message.
+     * @param chunk_records if over 0, also publish the results every so many while working,
+     *                      see ProgressiveResults.
+     * @param tasks_per_worker tweets per worker, 0 to work through them one after the other.
+     */
+    private void writeSummary(String key, String inline, String format, int chunk_records, int tasks_per_worker,
+                              String reply_queue_url) throws IOException, InterruptedException {
+        Reader tweets;
+        if (inline != null) {
+            tweets = new StringReader(inline);
+        }
+        else {
+            ObjectInfo info = storage.head(key);
+            InputStream input = storage.get(key);
+            if (info == null || input == null) {
+                throw new FileNotFoundException("No such key: " + key);
+            }
+            if ("gzip".equals(info.content_encoding)) {
+                input = new GZIPInputStream(input);
+            }
+            tweets = new InputStreamReader(input, StandardCharsets.UTF_8);
+        }
+
+        List<String> links = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(tweets);
+        try {
+            String link;
+            while ((link = reader.readLine()) != null) {
+                link = link.trim();
+                if (!link.isEmpty()) {
+                    links.add(link);
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+
+        // Workers working at once take tasks_per_worker tweets' time for all of them.
+        double tweet_ms = TWEET_MS;
+        if (tasks_per_worker > 0 && !links.isEmpty()) {
+            Thread.sleep(WORKER_BOOT_MS);
+            tweet_ms = TWEET_MS * Math.min(tasks_per_worker, links.size()) / (double) links.size();
+        }
+
+        int chunk = 0;
+        int chunk_start = 0;
+        double owed_ms = 0;
+        for (int i = 0; i < links.size(); i++) {
+            owed_ms += tweet_ms;
+            if (owed_ms >= 1) {
+                Thread.sleep((long) owed_ms);
+                owed_ms -= (long) owed_ms;
+            }
+            tweets_done++;
+            if (chunk_records > 0 && (i + 1 - chunk_start == chunk_records || i + 1 == links.size())) {
+                put(ProgressiveResults.chunkKey(key, chunk), summary(key, links, chunk_start, i + 1, format), format);
+                queues.send(reply_queue_url, ProgressiveResults.chunkKey(key, chunk) + "|" + (i + 1) + "|" +
+                        links.size(), null);
+                chunk++;
+                chunk_start = i + 1;
+            }
+        }
+
+        put(key, summary(key, links, 0, links.size(), format), format);
+    }
+
+    /**
+     * @return the summary of links[start..end).
+     */
+    private static byte[] summary(String key, List<String> links, int start, int end, String format)
+            throws IOException {
+        boolean binary = SummaryFormat.BINARY_V1.equals(format);
+        ByteArrayOutputStream summary = new ByteArrayOutputStream();
+        BinarySummaryWriter binary_writer = binary ? new BinarySummaryWriter(summary) : null;
+        Writer text_writer = binary ? null : new OutputStreamWriter(summary, StandardCharsets.UTF_8);
+        try {
+            for (String link : links.subList(start, end)) {
+                TweetAnalyzer.Analysis analysis = ANALYZER.analyze(link);
+                if (binary) {
+                    binary_writer.write(key, analysis.sentiment, analysis.entities, analysis.tweet);
+                }
+                else {
+                    text_writer.write(key + "|" + analysis.sentiment + "|" + analysis.entities + "|" +
+                            analysis.tweet + "\n");
+                }
+            }
+        }
+        finally {
+            if (binary) {
+                binary_writer.close();
+            }
+            else {
+                text_writer.close();
+            }
+        }
+        return summary.toByteArray();
+    }
+
+    private void put(String key, byte[] data, String format) throws IOException {
+        storage.put(key, data, 0, data.length, new ObjectInfo().withContentType(
+                SummaryFormat.BINARY_V1.equals(format) ? SummaryFormat.BINARY_CONTENT_TYPE : "text/plain"));
+    }
+}
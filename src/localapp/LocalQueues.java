@@ -0,0 +1,249 @@
+package localapp;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-process queues with SQS semantics: long polling, visibility timeouts and receipt handles.
+ * Messages are not persisted, they live as long as the JVM.
+ */
+class LocalQueues implements Queues {
+
+    private static final String URL_PREFIX = "local://queue/";
+
+    private final Map<String, LocalQueue> queues = new ConcurrentHashMap<String, LocalQueue>();
+    private final AtomicLong ids = new AtomicLong();
+
+    @Override
+    public String createQueue(String name, Map<String, String> attributes) {
+        String queue_url = URL_PREFIX + name;
+        if (!queues.containsKey(queue_url)) {
+            queues.putIfAbsent(queue_url, new LocalQueue());
+        }
+        return queue_url;
+    }
+
+    @Override
+    public void deleteQueue(String queue_url) {
+        queues.remove(queue_url);
+    }
+
+    @Override
+    public void purge(String queue_url) {
+        LocalQueue queue = queue(queue_url);
+        queue.lock.lock();
+        try {
+            queue.visible.clear();
+            queue.in_flight.clear();
+        }
+        finally {
+            queue.lock.unlock();
+        }
+    }
+
+    @Override
+    public void send(String queue_url, String body, Map<String, String> attributes) {
+        LocalQueue queue = queue(queue_url);
+        Map<String, String> copy = attributes == null ?
+                new HashMap<String, String>() : new HashMap<String, String>(attributes);
+        LocalMessage message = new LocalMessage("m-" + ids.incrementAndGet(), body, copy);
+
+        queue.lock.lock();
+        try {
+            queue.visible.addLast(message);
+            queue.not_empty.signal();
+        }
+        finally {
+            queue.lock.unlock();
+        }
+    }
+
+    @Override
+    public List<QueueMessage> sendBatch(String queue_url, List<QueueMessage> messages) {
+        for (QueueMessage message : messages) {
+            send(queue_url, message.body, message.attributes);
+        }
+        return new ArrayList<QueueMessage>();
+    }
+
+    @Override
+    public List<QueueMessage> receive(String queue_url, int max_messages, int wait_seconds, int visibility_seconds) {
+        LocalQueue queue = queue(queue_url);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(wait_seconds);
+        List<QueueMessage> received = new ArrayList<QueueMessage>();
+
+        queue.lock.lock();
+        try {
+            while (true) {
+                queue.returnExpired();
+                if (!queue.visible.isEmpty()) {
+                    break;
+                }
+
+                long wait_nanos = Math.min(deadline - System.nanoTime(), queue.nanosToNextExpiry());
+                if (wait_nanos <= 0) {
+                    if (System.nanoTime() >= deadline) {
+                        return received;
+                    }
+                    continue;
+                }
+                try {
+                    queue.not_empty.awaitNanos(wait_nanos);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return received;
+                }
+            }
+
+            long visible_at = System.nanoTime() + TimeUnit.SECONDS.toNanos(visibility_seconds);
+            List<LocalMessage> still_visible = new ArrayList<LocalMessage>();
+            while (received.size() < max_messages && !queue.visible.isEmpty()) {
+                LocalMessage message = queue.visible.pollFirst();
+                String receipt_handle = "r-" + ids.incrementAndGet();
+                if (visibility_seconds > 0) {
+                    queue.in_flight.put(receipt_handle, new InFlight(message, visible_at));
+                }
+                else {
+                    // Visible again right away, but the receipt still works for deleting.
+                    still_visible.add(message);
+                    queue.released.put(receipt_handle, message);
+                }
+                received.add(new QueueMessage(message.id, receipt_handle, message.body, message.attributes));
+            }
+            queue.visible.addAll(still_visible);
+            return received;
+        }
+        finally {
+            queue.lock.unlock();
+        }
+    }
+
+    @Override
+    public void delete(String queue_url, String receipt_handle) {
+        LocalQueue queue = queue(queue_url);
+        queue.lock.lock();
+        try {
+            if (queue.in_flight.remove(receipt_handle) == null) {
+                LocalMessage message = queue.released.remove(receipt_handle);
+                if (message != null) {
+                    queue.visible.remove(message);
+                }
+            }
+        }
+        finally {
+            queue.lock.unlock();
+        }
+    }
+
+    @Override
+    public void release(String queue_url, List<QueueMessage> messages) {
+        LocalQueue queue = queue(queue_url);
+        queue.lock.lock();
+        try {
+            for (QueueMessage message : messages) {
+                InFlight in_flight = queue.in_flight.remove(message.receipt_handle);
+                if (in_flight != null) {
+                    queue.visible.addLast(in_flight.message);
+                }
+            }
+            queue.not_empty.signalAll();
+        }
+        finally {
+            queue.lock.unlock();
+        }
+    }
+
+    /**
+     * @return messages waiting in the queue, visible or not.
+     */
+    int size(String queue_url) {
+        LocalQueue queue = queue(queue_url);
+        queue.lock.lock();
+        try {
+            return queue.visible.size() + queue.in_flight.size();
+        }
+        finally {
+            queue.lock.unlock();
+        }
+    }
+
+    private LocalQueue queue(String queue_url) {
+        LocalQueue queue = queues.get(queue_url);
+        if (queue == null) {
+            throw new IllegalArgumentException("No such queue: " + queue_url);
+        }
+        return queue;
+    }
+
+    private static class LocalMessage {
+        final String id;
+        final String body;
+        final Map<String, String> attributes;
+
+        LocalMessage(String id, String body, Map<String, String> attributes) {
+            this.id = id;
+            this.body = body;
+            this.attributes = attributes;
+        }
+    }
+
+    private static class InFlight {
+        final LocalMessage message;
+        final long visible_at;
+
+        InFlight(LocalMessage message, long visible_at) {
+            this.message = message;
+            this.visible_at = visible_at;
+        }
+    }
+
+    private static class LocalQueue {
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition not_empty = lock.newCondition();
+
+        final Deque<LocalMessage> visible = new ArrayDeque<LocalMessage>();
+
+        // Receipt handle --> hidden message. Insertion order is expiry order for a fixed visibility timeout.
+        final Map<String, InFlight> in_flight = new LinkedHashMap<String, InFlight>();
+
+        // Receipt handle --> message received with a zero visibility timeout.
+        final Map<String, LocalMessage> released = new LinkedHashMap<String, LocalMessage>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, LocalMessage> eldest) {
+                return size() > 10000;
+            }
+        };
+
+        /**
+         * Make messages whose visibility timeout passed visible again.
+         */
+        void returnExpired() {
+            if (in_flight.isEmpty()) {
+                return;
+            }
+            long now = System.nanoTime();
+            Iterator<InFlight> iterator = in_flight.values().iterator();
+            while (iterator.hasNext()) {
+                InFlight entry = iterator.next();
+                if (entry.visible_at <= now) {
+                    iterator.remove();
+                    visible.addLast(entry.message);
+                }
+            }
+        }
+
+        long nanosToNextExpiry() {
+            long next = Long.MAX_VALUE;
+            long now = System.nanoTime();
+            for (InFlight entry : in_flight.values()) {
+                next = Math.min(next, entry.visible_at - now);
+            }
+            return next;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package localapp;
+
+import java.io.*;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * Storage in a local directory, for running without AWS.
+ * Every object is a file in "objects" named by its URL-encoded key, with its info in "info".
+ * Writes go to a temporary file in "uploads" that is moved into place, so readers never see half an object.
+ */
+class LocalStorage implements Storage {
+
+    private static final String OBJECTS_DIRECTORY = "objects";
+    private static final String INFO_DIRECTORY = "info";
+    private static final String UPLOADS_DIRECTORY = "uploads";
+    private static final String INFO_SUFFIX = ".info";
+
+    private final Path root;
+
+    LocalStorage(Path root) {
+        this.root = root;
+    }
+
+    @Override
+    public void ensureBucket() throws IOException {
+        Files.createDirectories(root.resolve(OBJECTS_DIRECTORY));
+        Files.createDirectories(root.resolve(INFO_DIRECTORY));
+        Files.createDirectories(root.resolve(UPLOADS_DIRECTORY));
+    }
+
+    @Override
+    public ObjectInfo head(String key) throws IOException {
+        try {
+            return readInfo(infoPath(key));
+        }
+        catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return Files.exists(objectPath(key));
+    }
+
+    @Override
+    public void put(String key, byte[] data, int offset, int length, ObjectInfo info) throws IOException {
+        ensureBucket();
+        Path temp = root.resolve(UPLOADS_DIRECTORY).resolve(UUID.randomUUID().toString());
+        OutputStream output = Files.newOutputStream(temp);
+        try {
+            output.write(data, offset, length);
+        }
+        finally {
+            output.close();
+        }
+        commit(key, temp, info);
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        try {
+            return Files.newInputStream(objectPath(key));
+        }
+        catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public InputStream getRange(String key, long start, long end, String etag) throws IOException {
+        ObjectInfo info = head(key);
+        if (info == null || (etag != null && !etag.equals(info.etag))) {
+            throw new IOException("Object changed while downloading: " + key);
+        }
+        FileChannel channel = FileChannel.open(objectPath(key), StandardOpenOption.READ);
+        channel.position(start);
+        final long length = end - start + 1;
+        return new FilterInputStream(Channels.newInputStream(channel)) {
+            private long left = length;
+
+            @Override
+            public int read() throws IOException {
+                if (left <= 0) {
+                    return -1;
+                }
+                int b = super.read();
+                if (b != -1) {
+                    left--;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int count) throws IOException {
+                if (left <= 0) {
+                    return -1;
+                }
+                int read = super.read(buffer, offset, (int) Math.min(count, left));
+                if (read > 0) {
+                    left -= read;
+                }
+                return read;
+            }
+        };
+    }
+
+    @Override
+    public void copy(String from_key, String to_key) throws IOException {
+        ObjectInfo info = head(from_key);
+        if (info == null) {
+            throw new FileNotFoundException("No such key: " + from_key);
+        }
+        ensureBucket();
+        Path temp = root.resolve(UPLOADS_DIRECTORY).resolve(UUID.randomUUID().toString());
+        Files.copy(objectPath(from_key), temp);
+        commit(to_key, temp, info);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(objectPath(key));
+        Files.deleteIfExists(infoPath(key));
+    }
+
+    @Override
+    public String startMultipart(String key, ObjectInfo info) throws IOException {
+        String upload_id = UUID.randomUUID().toString();
+        Path directory = root.resolve(UPLOADS_DIRECTORY).resolve(upload_id);
+        Files.createDirectories(directory);
+        writeInfo(directory.resolve(INFO_SUFFIX), info);
+        return upload_id;
+    }
+
+    @Override
+    public String putPart(String key, String upload_id, int part_number, byte[] data, int length) throws IOException {
+        Path part = root.resolve(UPLOADS_DIRECTORY).resolve(upload_id).resolve(part_number + "");
+        OutputStream output = Files.newOutputStream(part);
+        try {
+            output.write(data, 0, length);
+        }
+        finally {
+            output.close();
+        }
+        return part_number + "";
+    }
+
+    @Override
+    public void completeMultipart(String key, String upload_id, List<String> etags) throws IOException {
+        Path directory = root.resolve(UPLOADS_DIRECTORY).resolve(upload_id);
+        Path temp = root.resolve(UPLOADS_DIRECTORY).resolve(UUID.randomUUID().toString());
+
+        FileChannel output = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        try {
+            for (String etag : etags) {
+                FileChannel part = FileChannel.open(directory.resolve(etag), StandardOpenOption.READ);
+                try {
+                    long size = part.size();
+                    long copied = 0;
+                    while (copied < size) {
+                        copied += part.transferTo(copied, size - copied, output);
+                    }
+                }
+                finally {
+                    part.close();
+                }
+            }
+        }
+        finally {
+            output.close();
+        }
+
+        ObjectInfo info = readInfo(directory.resolve(INFO_SUFFIX));
+        commit(key, temp, info);
+        abortMultipart(key, upload_id);
+    }
+
+    @Override
+    public void abortMultipart(String key, String upload_id) throws IOException {
+        Path directory = root.resolve(UPLOADS_DIRECTORY).resolve(upload_id);
+        if (!Files.exists(directory)) {
+            return;
+        }
+        DirectoryStream<Path> files = Files.newDirectoryStream(directory);
+        try {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        finally {
+            files.close();
+        }
+        Files.delete(directory);
+    }
+
+    /**
+     * Move a written file into place as the object, with a new ETag.
+     */
+    private void commit(String key, Path temp, ObjectInfo info) throws IOException {
+        ObjectInfo stored = new ObjectInfo()
+                .withContentEncoding(info.content_encoding)
+                .withContentType(info.content_type)
+                .withPublicRead(info.public_read);
+        stored.user_metadata.putAll(info.user_metadata);
+        stored.length = Files.size(temp);
+        stored.etag = UUID.randomUUID().toString();
+
+        Path info_temp = temp.resolveSibling(temp.getFileName() + INFO_SUFFIX);
+        writeInfo(info_temp, stored);
+        Files.move(temp, objectPath(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(info_temp, infoPath(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeInfo(Path path, ObjectInfo info) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("length", info.length + "");
+        properties.setProperty("public_read", info.public_read + "");
+        if (info.etag != null) {
+            properties.setProperty("etag", info.etag);
+        }
+        if (info.content_encoding != null) {
+            properties.setProperty("content_encoding", info.content_encoding);
+        }
+        if (info.content_type != null) {
+            properties.setProperty("content_type", info.content_type);
+        }
+        for (Map.Entry<String, String> entry : info.user_metadata.entrySet()) {
+            properties.setProperty("user." + entry.getKey(), entry.getValue());
+        }
+
+        OutputStream output = Files.newOutputStream(path);
+        try {
+            properties.store(output, null);
+        }
+        finally {
+            output.close();
+        }
+    }
+
+    private static ObjectInfo readInfo(Path path) throws IOException {
+        Properties properties = new Properties();
+        InputStream input = Files.newInputStream(path);
+        try {
+            properties.load(input);
+        }
+        finally {
+            input.close();
+        }
+        ObjectInfo info = new ObjectInfo()
+                .withContentEncoding(properties.getProperty("content_encoding"))
+                .withContentType(properties.getProperty("content_type"))
+                .withPublicRead(Boolean.parseBoolean(properties.getProperty("public_read")));
+        info.length = Long.parseLong(properties.getProperty("length", "-1"));
+        info.etag = properties.getProperty("etag");
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith("user.")) {
+                info.user_metadata.put(name.substring("user.".length()), properties.getProperty(name));
+            }
+        }
+        return info;
+    }
+
+    private Path objectPath(String key) {
+        return root.resolve(OBJECTS_DIRECTORY).resolve(encode(key));
+    }
+
+    private Path infoPath(String key) {
+        return root.resolve(INFO_DIRECTORY).resolve(encode(key));
+    }
+
+    private static String encode(String key) {
+        try {
+            return URLEncoder.encode(key, "UTF-8");
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package localapp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds the running manager instance.
+ * The compute backend filters by tag and state on its side, so only the manager comes back instead of every instance
+ * in the account. The ID is cached in memory and in a local file. For CACHE_TTL_MS after it was last seen alive it
+ * is used as is, after that it is health checked with a DescribeInstances of that one ID before it is trusted.
+ */
+class ManagerLocator {
+
+    static final String MANAGER_TAG_VALUE = "manager";
+
+    // How long a manager seen alive is trusted without asking EC2. Short, so a dead one isn't handed out for long.
+    static final long CACHE_TTL_MS = 10 * 1000;
+
+    private static final String[] ALIVE_STATES = {"pending", "running"};
+
+    private final Compute compute;
+    private final Path cache_path;
+
+    private String manager_id;
+    private long checked_at;
+
+    // API call counters.
+    final AtomicLong describe_calls = new AtomicLong();
+    final AtomicLong instances_returned = new AtomicLong();
+
+    /**
+     * @param compute where the manager runs.
+     * @param cache_path local file that keeps the manager ID between runs, null to keep it in memory only.
+     */
+    ManagerLocator(Compute compute, Path cache_path) {
+        this.compute = compute;
+        this.cache_path = cache_path;
+    }
+
+    /**
+     * Check if manager instance if up.
+     *
+     * @return manager instance ID if up, else null.
+     */
+    synchronized String getManager() throws IOException {
+        if (manager_id == null) {
+            loadCache();
+        }
+
+        if (manager_id != null) {
+            if (System.currentTimeMillis() - checked_at < CACHE_TTL_MS) {
+                return manager_id;
+            }
+            if (isAlive(manager_id)) {
+                remember(manager_id);
+                return manager_id;
+            }
+            forget();
+        }
+
+        String found = findManager();
+        if (found != null) {
+            remember(found);
+        }
+        return found;
+    }
+
+    /**
+     * Remember a manager, e.g. right after it was created, as alive now.
+     */
+    synchronized void remember(String instance_id) throws IOException {
+        manager_id = instance_id;
+        checked_at = System.currentTimeMillis();
+        if (cache_path == null) {
+            return;
+        }
+        if (cache_path.getParent() != null) {
+            Files.createDirectories(cache_path.getParent());
+        }
+        Files.write(cache_path, Arrays.asList(manager_id, Long.toString(checked_at)), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Forget the manager, e.g. once it was terminated.
+     */
+    synchronized void forget() throws IOException {
+        manager_id = null;
+        checked_at = 0;
+        if (cache_path != null) {
+            Files.deleteIfExists(cache_path);
+        }
+    }
+
+    /**
+     * @return one line of API call counters.
+     */
+    String stats() {
+        return "describe calls: " + describe_calls.get() + ", instances returned: " + instances_returned.get();
+    }
+
+    private void loadCache() throws IOException {
+        if (cache_path == null || !Files.exists(cache_path)) {
+            return;
+        }
+        List<String> lines = Files.readAllLines(cache_path, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || lines.get(0).trim().isEmpty()) {
+            // Broken cache, look the manager up again.
+            forget();
+            return;
+        }
+        manager_id = lines.get(0).trim();
+        try {
+            checked_at = lines.size() > 1 ? Long.parseLong(lines.get(1).trim()) : 0;
+        }
+        catch (NumberFormatException e) {
+            // Checked before it is used.
+            checked_at = 0;
+        }
+    }
+
+    /**
+     * Search for a live instance tagged Name=manager.
+     */
+    private String findManager() {
+        describe_calls.incrementAndGet();
+        List<String> found = compute.find(MANAGER_TAG_VALUE, ALIVE_STATES);
+        instances_returned.addAndGet(found.size());
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    /**
+     * Health check of a single instance.
+     */
+    private boolean isAlive(String instance_id) {
+        describe_calls.incrementAndGet();
+        String state = compute.state(instance_id);
+        if (state != null) {
+            instances_returned.incrementAndGet();
+        }
+        return state != null && Arrays.asList(ALIVE_STATES).contains(state);
+    }
+}
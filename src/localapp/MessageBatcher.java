@@ -0,0 +1,204 @@
+package localapp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the messages of one queue in batches: a message waits up to linger_ms (-Dlocalapp.send_linger_ms) for
+ * others, and the ones pending go out together in SendMessageBatch calls of up to AwsQueues.MAX_BATCH_SIZE
+ * messages and AwsQueues.MAX_BATCH_BYTES. Messages the batch call didn't take are sent again one by one,
+ * so the queue policy retries them without sending the others twice. A message sent as the last one, like a job
+ * carrying the termination, waits until all the ones before it are in the queue and goes alone.
+ */
+class MessageBatcher {
+
+    static final long DEFAULT_LINGER_MS = 10;
+
+    // Batch calls in flight at once, while the next batch fills up.
+    private static final int SEND_THREADS = 4;
+
+    /**
+     * A message to send, and who waits for it.
+     */
+    private static class Pending {
+        final QueueMessage message;
+        final int size;
+        final boolean last;
+        final CompletableFuture<Void> sent = new CompletableFuture<Void>();
+
+        Pending(QueueMessage message, boolean last) {
+            this.message = message;
+            this.size = message.size();
+            this.last = last;
+        }
+    }
+
+    private final Queues queues;
+    private final String queue_url;
+    private final long linger_ms;
+
+    private final BlockingQueue<Pending> pending = new LinkedBlockingQueue<Pending>();
+    private final ExecutorService senders = Executors.newFixedThreadPool(SEND_THREADS, Utils.daemonThreads("send"));
+    private final Thread batcher;
+
+    // Batches handed to the senders and not sent yet.
+    private int in_flight;
+
+    // Statistics.
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong calls = new AtomicLong();
+
+    MessageBatcher(Queues queues, String queue_url, long linger_ms) {
+        this.queues = queues;
+        this.queue_url = queue_url;
+        this.linger_ms = linger_ms;
+        this.batcher = Utils.daemonThreads("batcher").newThread(new Runnable() {
+            @Override
+            public void run() {
+                batch();
+            }
+        });
+        this.batcher.start();
+    }
+
+    /**
+     * Send a message with the next batch.
+     *
+     * @param last send it once the messages before it are in the queue.
+     * @return done when the message is in the queue.
+     */
+    CompletableFuture<Void> send(String body, Map<String, String> attributes, boolean last) {
+        Pending message = new Pending(new QueueMessage(body, attributes), last);
+        pending.add(message);
+        return message.sent;
+    }
+
+    /**
+     * @return one line about how many calls the messages took.
+     */
+    String stats() {
+        return messages.get() + " messages sent in " + calls.get() + " calls";
+    }
+
+    /**
+     * Stop batching. Messages not sent yet fail.
+     */
+    void shutdown() {
+        batcher.interrupt();
+        senders.shutdownNow();
+        Pending message;
+        while ((message = pending.poll()) != null) {
+            message.sent.completeExceptionally(new CancellationException("Shut down before sending"));
+        }
+    }
+
+    /**
+     * Take messages as they come, and hand them to the senders a batch at a time.
+     */
+    private void batch() {
+        Pending carried = null;
+        try {
+            while (true) {
+                Pending first = carried != null ? carried : pending.take();
+                carried = null;
+                if (first.last) {
+                    awaitSent();
+                    sendBatch(Collections.singletonList(first));
+                    continue;
+                }
+
+                final List<Pending> batch = new ArrayList<Pending>();
+                batch.add(first);
+                int bytes = first.size;
+
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(linger_ms);
+                while (batch.size() < AwsQueues.MAX_BATCH_SIZE) {
+                    Pending next = pending.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    if (next.last || bytes + next.size > AwsQueues.MAX_BATCH_BYTES) {
+                        // Starts the next batch.
+                        carried = next;
+                        break;
+                    }
+                    batch.add(next);
+                    bytes += next.size;
+                }
+
+                synchronized (this) {
+                    in_flight++;
+                }
+                senders.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            sendBatch(batch);
+                        }
+                        finally {
+                            synchronized (MessageBatcher.this) {
+                                in_flight--;
+                                MessageBatcher.this.notifyAll();
+                            }
+                        }
+                    }
+                });
+            }
+        }
+        catch (InterruptedException e) {
+            // Shut down.
+        }
+        catch (RejectedExecutionException e) {
+            // Shut down.
+        }
+    }
+
+    private synchronized void awaitSent() throws InterruptedException {
+        while (in_flight > 0) {
+            wait();
+        }
+    }
+
+    private void sendBatch(List<Pending> batch) {
+        List<QueueMessage> failed;
+        try {
+            if (batch.size() == 1) {
+                queues.send(queue_url, batch.get(0).message.body, batch.get(0).message.attributes);
+                failed = new ArrayList<QueueMessage>();
+            }
+            else {
+                List<QueueMessage> messages = new ArrayList<QueueMessage>();
+                for (Pending message : batch) {
+                    messages.add(message.message);
+                }
+                failed = queues.sendBatch(queue_url, messages);
+            }
+            calls.incrementAndGet();
+        }
+        catch (RuntimeException e) {
+            for (Pending message : batch) {
+                message.sent.completeExceptionally(e);
+            }
+            return;
+        }
+
+        for (Pending message : batch) {
+            if (failed.contains(message.message)) {
+                try {
+                    queues.send(queue_url, message.message.body, message.message.attributes);
+                    calls.incrementAndGet();
+                }
+                catch (RuntimeException e) {
+                    message.sent.completeExceptionally(e);
+                    continue;
+                }
+            }
+            messages.incrementAndGet();
+            message.sent.complete(null);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package localapp;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Compute that times every call, see Metrics.
+ */
+class MeteredCompute implements Compute {
+
+    private final Compute compute;
+    private final Metrics metrics;
+
+    MeteredCompute(Compute compute, Metrics metrics) {
+        this.compute = compute;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public List<String> launch(String tag, String user_data, int count, InstanceSpec spec) throws IOException {
+        Metrics.Span span = metrics.start("compute.launch");
+        try {
+            List<String> instance_ids = compute.launch(tag, user_data, count, spec);
+            metrics.count("compute.instances_launched", instance_ids.size());
+            return span.ok(instance_ids);
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    @Override
+    public List<String> find(String tag, String... states) {
+        Metrics.Span span = metrics.start("compute.find");
+        try {
+            return span.ok(compute.find(tag, states));
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    @Override
+    public String state(String instance_id) {
+        Metrics.Span span = metrics.start("compute.state");
+        try {
+            return span.ok(compute.state(instance_id));
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    @Override
+    public void tag(String instance_id, String key, String value) {
+        Metrics.Span span = metrics.start("compute.tag");
+        try {
+            compute.tag(instance_id, key, value);
+            span.ok();
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    @Override
+    public String start(String instance_id) {
+        Metrics.Span span = metrics.start("compute.start");
+        try {
+            return span.ok(compute.start(instance_id));
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    @Override
+    public void terminate(String instance_id) {
+        Metrics.Span span = metrics.start("compute.terminate");
+        try {
+            compute.terminate(instance_id);
+            span.ok();
+        }
+        finally {
+            span.end();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package localapp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Queues that time every call and count the polls and messages, see Metrics.
+ */
+class MeteredQueues implements Queues {
+
+    private final Queues queues;
+    private final Metrics metrics;
+
+    MeteredQueues(Queues queues, Metrics metrics) {
+        this.queues = queues;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public String createQueue(String name, Map<String, String> attributes) {
+        Metrics.Span span = metrics.start("queues.create");
+        try {
+            return span.ok(queues.createQueue(name, attributes));
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    @Override
+    public void deleteQueue(String queue_url) {
+        Metrics.Span span = metrics.start("queues.delete_queue");
+        try {
+            queues.deleteQueue(queue_url);
+            span.ok();
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    @Override
+    public void purge(String queue_url) {
+        Metrics.Span span = metrics.start("queues.purge");
+        try {
+            queues.purge(queue_url);
+            span.ok();
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    @Override
+    public void send(String queue_url, String body, Map<String, String> attributes) {
+        Metrics.Span span = metrics.start("queues.send");
+        try {
+            queues.send(queue_url, body, attributes);
+            span.ok();
+            metrics.count("queues.messages_sent", 1);
+            metrics.count("queues.bytes_out", body.getBytes(StandardCharsets.UTF_8).length);
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    @Override
+    public List<QueueMessage> sendBatch(String queue_url, List<QueueMessage> messages) {
+        Metrics.Span span = metrics.start("queues.send_batch");
+        try {
+            List<QueueMessage> failed = queues.sendBatch(queue_url, messages);
+            span.ok();
+            metrics.count("queues.messages_sent", messages.size() - failed.size());
+            long bytes = 0;
+            for (QueueMessage message : messages) {
+                bytes += message.body.getBytes(StandardCharsets.UTF_8).length;
+            }
+            metrics.count("queues.bytes_out", bytes);
+            return failed;
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    @Override
+    public List<QueueMessage> receive(String queue_url, int max_messages, int wait_seconds, int visibility_seconds) {
+        Metrics.Span span = metrics.start("queues.receive");
+        try {
+            List<QueueMessage> messages = queues.receive(queue_url, max_messages, wait_seconds, visibility_seconds);
+            metrics.count("queues.polls", 1);
+            if (messages.isEmpty()) {
+                metrics.count("queues.empty_polls", 1);
+            }
+            metrics.count("queues.messages_received", messages.size());
+            return span.ok(messages);
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    @Override
+    public void delete(String queue_url, String receipt_handle) {
+        Metrics.Span span = metrics.start("queues.delete");
+        try {
+            queues.delete(queue_url, receipt_handle);
+            span.ok();
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    @Override
+    public void release(String queue_url, List<QueueMessage> messages) {
+        Metrics.Span span = metrics.start("queues.release");
+        try {
+            queues.release(queue_url, messages);
+            span.ok();
+            metrics.count("queues.messages_released", messages.size());
+        }
+        finally {
+            span.end();
+        }
+    }
+}
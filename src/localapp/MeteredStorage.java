@@ -0,0 +1,189 @@
+package localapp;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Storage that times every call and counts the bytes, see Metrics.
+ */
+class MeteredStorage implements Storage {
+
+    private final Storage storage;
+    private final Metrics metrics;
+
+    MeteredStorage(Storage storage, Metrics metrics) {
+        this.storage = storage;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void ensureBucket() throws IOException {
+        Metrics.Span span = metrics.start("storage.ensure_bucket");
+        try {
+            storage.ensureBucket();
+            span.ok();
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    @Override
+    public ObjectInfo head(String key) throws IOException {
+        Metrics.Span span = metrics.start("storage.head");
+        try {
+            return span.ok(storage.head(key));
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    @Override
+    public boolean exists(String key) throws IOException {
+        Metrics.Span span = metrics.start("storage.exists");
+        try {
+            return span.ok(storage.exists(key));
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    @Override
+    public void put(String key, byte[] data, int offset, int length, ObjectInfo info) throws IOException {
+        Metrics.Span span = metrics.start("storage.put");
+        try {
+            storage.put(key, data, offset, length, info);
+            span.ok();
+            metrics.count("storage.bytes_out", length);
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        Metrics.Span span = metrics.start("storage.get");
+        try {
+            return span.ok(counted(storage.get(key)));
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    @Override
+    public InputStream getRange(String key, long start, long end, String etag) throws IOException {
+        Metrics.Span span = metrics.start("storage.get_range");
+        try {
+            return span.ok(counted(storage.getRange(key, start, end, etag)));
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    @Override
+    public void copy(String from_key, String to_key) throws IOException {
+        Metrics.Span span = metrics.start("storage.copy");
+        try {
+            storage.copy(from_key, to_key);
+            span.ok();
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Metrics.Span span = metrics.start("storage.delete");
+        try {
+            storage.delete(key);
+            span.ok();
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    @Override
+    public String startMultipart(String key, ObjectInfo info) throws IOException {
+        Metrics.Span span = metrics.start("storage.start_multipart");
+        try {
+            return span.ok(storage.startMultipart(key, info));
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    @Override
+    public String putPart(String key, String upload_id, int part_number, byte[] data, int length) throws IOException {
+        Metrics.Span span = metrics.start("storage.put_part");
+        try {
+            String etag = storage.putPart(key, upload_id, part_number, data, length);
+            metrics.count("storage.bytes_out", length);
+            return span.ok(etag);
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    @Override
+    public void completeMultipart(String key, String upload_id, List<String> etags) throws IOException {
+        Metrics.Span span = metrics.start("storage.complete_multipart");
+        try {
+            storage.completeMultipart(key, upload_id, etags);
+            span.ok();
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    @Override
+    public void abortMultipart(String key, String upload_id) throws IOException {
+        Metrics.Span span = metrics.start("storage.abort_multipart");
+        try {
+            storage.abortMultipart(key, upload_id);
+            span.ok();
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    /**
+     * The bytes of a download are only known as they are read.
+     */
+    private InputStream counted(InputStream in) {
+        if (in == null) {
+            return null;
+        }
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    metrics.count("storage.bytes_in", 1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                if (read > 0) {
+                    metrics.count("storage.bytes_in", read);
+                }
+                return read;
+            }
+        };
+    }
+}
@@ -0,0 +1,403 @@
+package localapp;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latencies, counters and a trace of one run of the local app.
+ *
+ * Every remote call (storage.*, queues.*, compute.*) and every phase of a job (phase.*) is a Span:
+ *
+ *   Metrics.Span span = metrics.start("phase.upload");
+ *   try { ...; span.ok(); } finally { span.end(); }
+ *
+ * A span adds its latency to a histogram of its name, counts an error if it didn't get to ok(), and is kept
+ * for the trace. Counters hold the rest: bytes, polls, retries.
+ *
+ * Written at the end of a run as JSON and CSV, and as a trace chrome://tracing and Perfetto can open.
+ * Can also be served in the Prometheus text format while the app runs.
+ */
+class Metrics {
+
+    // Upper bounds of the latency buckets in ms, the last bucket is everything over them.
+    static final long[] BUCKETS_MS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000};
+
+    // Most spans kept for the trace, later ones are only counted.
+    static final int MAX_SPANS = 100000;
+
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+
+    private final List<Span> spans = new ArrayList<Span>();
+    private long dropped_spans;
+
+    private final long started_at_nanos = System.nanoTime();
+    private final long started_at = System.currentTimeMillis();
+
+    private HttpServer server;
+
+    /**
+     * Latencies of a span name, in fixed buckets so recording never allocates or locks.
+     */
+    static class Histogram {
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKETS_MS.length + 1);
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong sum_nanos = new AtomicLong();
+        final AtomicLong max_nanos = new AtomicLong();
+
+        void record(long nanos, boolean failed) {
+            double ms = nanos / 1e6;
+            int bucket = 0;
+            while (bucket < BUCKETS_MS.length && ms > BUCKETS_MS[bucket]) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            if (failed) {
+                errors.incrementAndGet();
+            }
+            sum_nanos.addAndGet(nanos);
+            long max = max_nanos.get();
+            while (nanos > max && !max_nanos.compareAndSet(max, nanos)) {
+                max = max_nanos.get();
+            }
+        }
+
+        double meanMs() {
+            long n = count.get();
+            return n == 0 ? 0 : sum_nanos.get() / 1e6 / n;
+        }
+
+        double maxMs() {
+            return max_nanos.get() / 1e6;
+        }
+
+        /**
+         * @param quantile 0..1
+         * @return the quantile in ms, interpolated inside its bucket.
+         */
+        double percentileMs(double quantile) {
+            long n = count.get();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * n);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                long in_bucket = buckets.get(i);
+                if (in_bucket > 0 && seen + in_bucket >= rank) {
+                    double low = i == 0 ? 0 : BUCKETS_MS[i - 1];
+                    double high = i < BUCKETS_MS.length ? Math.min(BUCKETS_MS[i], maxMs()) : maxMs();
+                    return low + (high - low) * (rank - seen) / in_bucket;
+                }
+                seen += in_bucket;
+            }
+            return maxMs();
+        }
+    }
+
+    /**
+     * A timed remote call or phase.
+     */
+    class Span {
+        final String name;
+        final long start_nanos = System.nanoTime();
+        final String thread = Thread.currentThread().getName();
+        final long thread_id = Thread.currentThread().getId();
+        long duration_nanos = -1;
+        boolean ok;
+
+        Span(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Mark the span as succeeded.
+         */
+        void ok() {
+            ok = true;
+        }
+
+        /**
+         * Mark the span as succeeded and pass a result through.
+         */
+        <T> T ok(T result) {
+            ok = true;
+            return result;
+        }
+
+        void end() {
+            if (duration_nanos >= 0) {
+                return;
+            }
+            duration_nanos = System.nanoTime() - start_nanos;
+            histogram(name).record(duration_nanos, !ok);
+            synchronized (spans) {
+                if (spans.size() < MAX_SPANS) {
+                    spans.add(this);
+                }
+                else {
+                    dropped_spans++;
+                }
+            }
+        }
+    }
+
+    Span start(String name) {
+        return new Span(name);
+    }
+
+    /**
+     * Time since the metrics were started, which is when the app started.
+     */
+    long elapsedNanos() {
+        return System.nanoTime() - started_at_nanos;
+    }
+
+    void count(String name, long delta) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.addAndGet(delta);
+    }
+
+    long counter(String name) {
+        AtomicLong counter = counters.get(name);
+        return counter == null ? 0 : counter.get();
+    }
+
+    Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            Histogram created = new Histogram();
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * @return a line per phase with its total time, for stdout.
+     */
+    String phases() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(histograms).entrySet()) {
+            if (entry.getKey().startsWith("phase.")) {
+                Histogram histogram = entry.getValue();
+                builder.append(String.format("  %-16s %6d x %10.1f ms%n", entry.getKey().substring("phase.".length()),
+                        histogram.count.get(), histogram.sum_nanos.get() / 1e6));
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Write the histograms and counters as JSON.
+     */
+    void writeJson(Path path) throws IOException {
+        Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+        try {
+            writer.write("{\n  \"started_at\": " + started_at + ",\n");
+            writer.write("  \"duration_ms\": " + (System.currentTimeMillis() - started_at) + ",\n");
+            writer.write("  \"latencies\": {");
+            String separator = "\n";
+            for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(histograms).entrySet()) {
+                Histogram histogram = entry.getValue();
+                writer.write(separator + "    " + quote(entry.getKey()) + ": {\"count\": " + histogram.count.get() +
+                        ", \"errors\": " + histogram.errors.get() +
+                        String.format(", \"sum_ms\": %.3f, \"mean_ms\": %.3f, \"p50_ms\": %.3f, \"p95_ms\": %.3f" +
+                                        ", \"p99_ms\": %.3f, \"max_ms\": %.3f",
+                                histogram.sum_nanos.get() / 1e6, histogram.meanMs(), histogram.percentileMs(0.5),
+                                histogram.percentileMs(0.95), histogram.percentileMs(0.99), histogram.maxMs()) +
+                        ", \"buckets\": [");
+                for (int i = 0; i < histogram.buckets.length(); i++) {
+                    writer.write((i == 0 ? "" : ", ") + histogram.buckets.get(i));
+                }
+                writer.write("]}");
+                separator = ",\n";
+            }
+            writer.write("\n  },\n  \"bucket_bounds_ms\": [");
+            for (int i = 0; i < BUCKETS_MS.length; i++) {
+                writer.write((i == 0 ? "" : ", ") + BUCKETS_MS[i]);
+            }
+            writer.write("],\n  \"counters\": {");
+            separator = "\n";
+            for (Map.Entry<String, AtomicLong> entry : new TreeMap<String, AtomicLong>(counters).entrySet()) {
+                writer.write(separator + "    " + quote(entry.getKey()) + ": " + entry.getValue().get());
+                separator = ",\n";
+            }
+            writer.write("\n  }\n}\n");
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Write the histograms and counters as CSV, a row each.
+     */
+    void writeCsv(Path path) throws IOException {
+        Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+        try {
+            writer.write("name,type,count,errors,sum_ms,mean_ms,p50_ms,p95_ms,p99_ms,max_ms,value\n");
+            for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(histograms).entrySet()) {
+                Histogram histogram = entry.getValue();
+                writer.write(String.format("%s,latency,%d,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%n", entry.getKey(),
+                        histogram.count.get(), histogram.errors.get(), histogram.sum_nanos.get() / 1e6,
+                        histogram.meanMs(), histogram.percentileMs(0.5), histogram.percentileMs(0.95),
+                        histogram.percentileMs(0.99), histogram.maxMs()));
+            }
+            for (Map.Entry<String, AtomicLong> entry : new TreeMap<String, AtomicLong>(counters).entrySet()) {
+                writer.write(entry.getKey() + ",counter,,,,,,,,," + entry.getValue().get() + "\n");
+            }
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Write the spans in the Trace Event Format, a row per thread.
+     */
+    void writeTrace(Path path) throws IOException {
+        List<Span> kept;
+        long dropped;
+        synchronized (spans) {
+            kept = new ArrayList<Span>(spans);
+            dropped = dropped_spans;
+        }
+        Map<Long, String> threads = new TreeMap<Long, String>();
+
+        Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+        try {
+            writer.write("{\"otherData\": {\"dropped_spans\": " + dropped + "},\n\"traceEvents\": [");
+            String separator = "\n";
+            for (Span span : kept) {
+                threads.put(span.thread_id, span.thread);
+                int dot = span.name.indexOf('.');
+                writer.write(separator + "{\"name\": " + quote(span.name) +
+                        ", \"cat\": " + quote(dot < 0 ? span.name : span.name.substring(0, dot)) +
+                        ", \"ph\": \"X\", \"ts\": " + (span.start_nanos - started_at_nanos) / 1000 +
+                        ", \"dur\": " + span.duration_nanos / 1000 +
+                        ", \"pid\": 1, \"tid\": " + span.thread_id +
+                        (span.ok ? "" : ", \"args\": {\"error\": true}") + "}");
+                separator = ",\n";
+            }
+            for (Map.Entry<Long, String> thread : threads.entrySet()) {
+                writer.write(separator + "{\"name\": \"thread_name\", \"ph\": \"M\", \"pid\": 1, \"tid\": " +
+                        thread.getKey() + ", \"args\": {\"name\": " + quote(thread.getValue()) + "}}");
+                separator = ",\n";
+            }
+            writer.write("\n]}\n");
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * @return the histograms and counters in the Prometheus text format.
+     */
+    String prometheus() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("# TYPE localapp_latency_seconds histogram\n");
+        for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(histograms).entrySet()) {
+            Histogram histogram = entry.getValue();
+            String labels = "name=" + quote(entry.getKey());
+            long cumulative = 0;
+            for (int i = 0; i < histogram.buckets.length(); i++) {
+                cumulative += histogram.buckets.get(i);
+                String bound = i < BUCKETS_MS.length ? Double.toString(BUCKETS_MS[i] / 1000.0) : "+Inf";
+                builder.append("localapp_latency_seconds_bucket{" + labels + ",le=\"" + bound + "\"} " +
+                        cumulative + "\n");
+            }
+            builder.append("localapp_latency_seconds_sum{" + labels + "} " + histogram.sum_nanos.get() / 1e9 + "\n");
+            builder.append("localapp_latency_seconds_count{" + labels + "} " + histogram.count.get() + "\n");
+        }
+        builder.append("# TYPE localapp_errors_total counter\n");
+        for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(histograms).entrySet()) {
+            builder.append("localapp_errors_total{name=" + quote(entry.getKey()) + "} " +
+                    entry.getValue().errors.get() + "\n");
+        }
+        builder.append("# TYPE localapp_count_total counter\n");
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<String, AtomicLong>(counters).entrySet()) {
+            builder.append("localapp_count_total{name=" + quote(entry.getKey()) + "} " + entry.getValue().get() + "\n");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Serve prometheus() on http://localhost:port/metrics until stopServing().
+     */
+    synchronized void serve(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = prometheus().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                try {
+                    out.write(body);
+                }
+                finally {
+                    out.close();
+                }
+            }
+        });
+        server.setExecutor(null);
+        server.start();
+        System.out.println("Serving metrics on http://localhost:" + server.getAddress().getPort() + "/metrics");
+    }
+
+    synchronized void stopServing() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    private static String quote(String value) {
+        StringBuilder builder = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            }
+            else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            }
+            else {
+                builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+}
@@ -0,0 +1,48 @@
+package localapp;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * What we know about a stored object: its size and version, and how it should be stored and served.
+ */
+class ObjectInfo {
+
+    // Size in bytes, -1 if unknown.
+    long length = -1;
+
+    // Changes whenever the content changes.
+    String etag;
+
+    // e.g. "gzip", or null.
+    String content_encoding;
+
+    // e.g. "text/plain", or null.
+    String content_type;
+
+    // Everyone can download the object.
+    boolean public_read;
+
+    // Our own metadata, e.g. content hashes.
+    final Map<String, String> user_metadata = new HashMap<String, String>();
+
+    ObjectInfo withContentEncoding(String content_encoding) {
+        this.content_encoding = content_encoding;
+        return this;
+    }
+
+    ObjectInfo withContentType(String content_type) {
+        this.content_type = content_type;
+        return this;
+    }
+
+    ObjectInfo withPublicRead(boolean public_read) {
+        this.public_read = public_read;
+        return this;
+    }
+
+    ObjectInfo withUserMetadata(String name, String value) {
+        user_metadata.put(name, value);
+        return this;
+    }
+}
@@ -0,0 +1,475 @@
+package localapp;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Writes the results as pages of page_results results ("pages=N") and an index page, instead of one page
+ * a browser can't open. The summary is read once, a page at a time, and each page is rendered on a fork-join pool
+ * as big as the number of cores, written through a FileChannel, while the next ones are read. The same tasks
+ * count the sentiments and the entities of their page; the counts are merged in input order into the index page,
+ * with the sentiment histogram, the top entities and links to the pages.
+ *
+ * Results of "out.html" go in the "out-pages" directory next to it, as 1.html, 2.html and so on.
+ */
+class PagedHtmlExport {
+
+    static final int DEFAULT_PAGE_RESULTS = 10000;
+
+    // Entities on the index page.
+    static final int TOP_ENTITIES = 20;
+
+    private static final String[] SENTIMENT_NAMES = {"Very negative", "Negative", "Neutral", "Positive",
+            "Very positive", "None"};
+
+    private final int page_results;
+    private final ForkJoinPool pool;
+
+    // Pages read ahead of the oldest one not rendered yet, per export.
+    private final int max_pages_in_flight;
+
+    /**
+     * Sentiment histogram and entity counts of some of the results.
+     */
+    static class Aggregate {
+        // Per sentiment level 0-4, and the ones without a level last.
+        final long[] sentiments = new long[SENTIMENT_NAMES.length];
+        final Map<String, Long> entities = new HashMap<String, Long>();
+        long results;
+        long malformed;
+
+        // Entity lists of a page as they are, split into entities once per list by countEntities.
+        private final Map<String, long[]> entity_lists = new HashMap<String, long[]>();
+
+        void add(int sentiment, String entity_list) {
+            sentiments[sentiment >= 0 && sentiment <= 4 ? sentiment : SENTIMENT_NAMES.length - 1]++;
+            long[] count = entity_lists.get(entity_list);
+            if (count == null) {
+                entity_lists.put(entity_list, new long[] {1});
+            }
+            else {
+                count[0]++;
+            }
+        }
+
+        /**
+         * Count the entities of the lists added so far.
+         */
+        void countEntities() {
+            for (Map.Entry<String, long[]> list : entity_lists.entrySet()) {
+                // "[name:TYPE, ...]"
+                String entity_list = list.getKey();
+                int start = entity_list.startsWith("[") ? 1 : 0;
+                int end = entity_list.endsWith("]") ? entity_list.length() - 1 : entity_list.length();
+                while (start < end) {
+                    int comma = entity_list.indexOf(',', start);
+                    int entity_end = comma < 0 || comma > end ? end : comma;
+                    String entity = entity_list.substring(start, entity_end).trim();
+                    if (!entity.isEmpty()) {
+                        Long count = entities.get(entity);
+                        entities.put(entity, count == null ? list.getValue()[0] : count + list.getValue()[0]);
+                    }
+                    start = entity_end + 1;
+                }
+            }
+            entity_lists.clear();
+        }
+
+        void merge(Aggregate other) {
+            for (int i = 0; i < sentiments.length; i++) {
+                sentiments[i] += other.sentiments[i];
+            }
+            for (Map.Entry<String, Long> entity : other.entities.entrySet()) {
+                Long count = entities.get(entity.getKey());
+                entities.put(entity.getKey(), count == null ? entity.getValue() : count + entity.getValue());
+            }
+            results += other.results;
+            malformed += other.malformed;
+        }
+
+        /**
+         * @return the most frequent entities, most frequent first, ties by name.
+         */
+        List<Map.Entry<String, Long>> top(int count) {
+            List<Map.Entry<String, Long>> top = new ArrayList<Map.Entry<String, Long>>(entities.entrySet());
+            Collections.sort(top, new Comparator<Map.Entry<String, Long>>() {
+                @Override
+                public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+                    int by_count = Long.compare(b.getValue(), a.getValue());
+                    return by_count != 0 ? by_count : a.getKey().compareTo(b.getKey());
+                }
+            });
+            return top.subList(0, Math.min(count, top.size()));
+        }
+    }
+
+    /**
+     * Results of one page: lines of a text summary, or the fields of a binary one.
+     */
+    private static class Page {
+        final int number;
+        int size;
+
+        // Text: the lines one after the other, and where each starts and ends.
+        char[] chars;
+        int length;
+        final int[] line_starts;
+        final int[] line_ends;
+
+        // Binary.
+        final int[] sentiments;
+        final String[] entities;
+        final String[] tweets;
+
+        Page(int number, int results, boolean binary) {
+            this.number = number;
+            this.chars = binary ? null : new char[results * 128];
+            this.line_starts = binary ? null : new int[results];
+            this.line_ends = binary ? null : new int[results];
+            this.sentiments = binary ? new int[results] : null;
+            this.entities = binary ? new String[results] : null;
+            this.tweets = binary ? new String[results] : null;
+        }
+
+        void append(char[] text, int start, int end) {
+            int needed = length + end - start;
+            if (chars.length < needed) {
+                chars = Arrays.copyOf(chars, Math.max(needed, chars.length * 2));
+            }
+            System.arraycopy(text, start, chars, length, end - start);
+            length = needed;
+        }
+
+        /**
+         * The line from start to the end of what was appended is over.
+         */
+        void endLine(int start) {
+            int end = length > start && chars[length - 1] == '\r' ? length - 1 : length;
+            if (end == start) {
+                // Blank lines aren't results.
+                length = start;
+                return;
+            }
+            line_starts[size] = start;
+            line_ends[size] = end;
+            size++;
+        }
+    }
+
+    /**
+     * Reads the lines of a text summary into pages, whole lines only.
+     */
+    private static class TextPages {
+        private final Reader reader;
+        private final char[] chunk = new char[64 * 1024];
+        private int position;
+        private int limit;
+
+        TextPages(Reader reader) {
+            this.reader = reader;
+        }
+
+        void fill(Page page, int results) throws IOException {
+            int start = page.length;
+            while (page.size < results) {
+                if (position == limit) {
+                    limit = reader.read(chunk, 0, chunk.length);
+                    position = 0;
+                    if (limit < 0) {
+                        // The last line may have no newline.
+                        limit = 0;
+                        page.endLine(start);
+                        return;
+                    }
+                }
+                int newline = -1;
+                for (int i = position; i < limit; i++) {
+                    if (chunk[i] == '\n') {
+                        newline = i;
+                        break;
+                    }
+                }
+                page.append(chunk, position, newline < 0 ? limit : newline);
+                position = newline < 0 ? limit : newline + 1;
+                if (newline >= 0) {
+                    page.endLine(start);
+                    start = page.length;
+                }
+            }
+        }
+    }
+
+    PagedHtmlExport(int page_results, int threads) {
+        this.page_results = page_results;
+        this.pool = new ForkJoinPool(threads);
+        this.max_pages_in_flight = 2 * threads;
+    }
+
+    /**
+     * @return the directory of the pages of an output file.
+     */
+    static Path pagesDirectory(Path output) {
+        String name = output.getFileName().toString();
+        if (name.endsWith(".html")) {
+            name = name.substring(0, name.length() - ".html".length());
+        }
+        return output.resolveSibling(name + "-pages");
+    }
+
+    /**
+     * Write the pages of a summary, whichever format it is in, and their index page.
+     *
+     * @param output the index page, what the pages link back to.
+     * @param write_to where the index page is written, output or a file next to it that replaces it later.
+     * @return number of results written.
+     */
+    long export(Path summary, Path output, Path write_to) throws IOException {
+        Path pages = pagesDirectory(output);
+        System.out.println("Creating HTML pages: " + pages.toAbsolutePath());
+        Files.createDirectories(pages);
+        deletePages(pages);
+
+        boolean binary = SummaryFormat.isBinary(summary);
+        Reader text = binary ? null : new InputStreamReader(Files.newInputStream(summary), StandardCharsets.UTF_8);
+        TextPages lines = binary ? null : new TextPages(text);
+        BinarySummaryReader records = binary ? new BinarySummaryReader(Files.newInputStream(summary)) : null;
+
+        String index_link = "../" + output.getFileName();
+        List<ForkJoinTask<Aggregate>> rendering = new ArrayList<ForkJoinTask<Aggregate>>();
+        Aggregate total = new Aggregate();
+        int rendered = 0;
+        try {
+            while (true) {
+                Page page = new Page(rendering.size() + 1, page_results, binary);
+                if (binary) {
+                    while (page.size < page_results && records.next()) {
+                        page.sentiments[page.size] = records.sentiment();
+                        page.entities[page.size] = records.entities();
+                        page.tweets[page.size] = records.tweet();
+                        page.size++;
+                    }
+                }
+                else {
+                    lines.fill(page, page_results);
+                }
+                if (page.size == 0) {
+                    break;
+                }
+
+                rendering.add(pool.submit(new RenderPage(page, pages.resolve(page.number + ".html"), index_link)));
+                // Memory stays bounded by the pages read ahead.
+                if (rendering.size() - rendered >= max_pages_in_flight) {
+                    total.merge(join(rendering.get(rendered++)));
+                }
+            }
+            while (rendered < rendering.size()) {
+                total.merge(join(rendering.get(rendered++)));
+            }
+        }
+        finally {
+            if (rendered < rendering.size()) {
+                // Failed, don't leave pages being written behind.
+                for (ForkJoinTask<Aggregate> page : rendering) {
+                    page.cancel(false);
+                }
+            }
+            if (binary) {
+                records.close();
+            }
+            else {
+                text.close();
+            }
+        }
+
+        if (total.malformed > 0) {
+            System.out.println("Malformed results: " + total.malformed);
+        }
+        write(write_to, indexPage(total, pages.getFileName().toString(), rendering.size()));
+        return total.results;
+    }
+
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Render a page into its file, and count its sentiments and entities.
+     */
+    private static class RenderPage extends RecursiveTask<Aggregate> {
+        private static final long serialVersionUID = 1L;
+
+        private final Page page;
+        private final Path file;
+        private final String index_link;
+
+        RenderPage(Page page, Path file, String index_link) {
+            this.page = page;
+            this.file = file;
+            this.index_link = index_link;
+        }
+
+        @Override
+        protected Aggregate compute() {
+            Aggregate aggregate = new Aggregate();
+            HtmlResultWriter html;
+            try {
+                // Encoded as it is written, a buffer at a time.
+                Writer output = Channels.newWriter(FileChannel.open(file, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING),
+                        StandardCharsets.UTF_8.newEncoder(), 64 * 1024);
+                try {
+                    html = new HtmlResultWriter(output);
+                    html.write(Utils.HTML_HEADER);
+                    html.write("<p><a href=\"" + index_link + "\">Index</a> | Page " + page.number + "</p>\n");
+                    for (int i = 0; i < page.size; i++) {
+                        if (page.chars != null) {
+                            html.writeResult(page.chars, page.line_starts[i], page.line_ends[i]);
+                            addLine(aggregate, page.chars, page.line_starts[i], page.line_ends[i]);
+                        }
+                        else {
+                            html.writeResult(page.sentiments[i], page.entities[i], page.tweets[i]);
+                            aggregate.add(page.sentiments[i], page.entities[i]);
+                        }
+                    }
+                    html.write(Utils.HTML_FOOTER);
+                    html.flush();
+                }
+                finally {
+                    output.close();
+                }
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            aggregate.countEntities();
+            aggregate.results = html.results;
+            aggregate.malformed = html.malformed;
+            return aggregate;
+        }
+
+        /**
+         * Count a "key|sentiment|entities|tweet" line in chars[start..end), malformed ones with what they have.
+         */
+        private static void addLine(Aggregate aggregate, char[] chars, int start, int end) {
+            int first = indexOf(chars, start, end);
+            int second = first < 0 ? -1 : indexOf(chars, first + 1, end);
+            int third = second < 0 ? -1 : indexOf(chars, second + 1, end);
+            int sentiment = -1;
+            if (first >= 0 && second == first + 2) {
+                sentiment = chars[first + 1] - '0';
+            }
+            int entities_end = third < 0 ? end : third;
+            aggregate.add(sentiment, second < 0 ? "" : new String(chars, second + 1, entities_end - second - 1));
+        }
+
+        private static int indexOf(char[] chars, int start, int end) {
+            for (int i = start; i < end; i++) {
+                if (chars[i] == '|') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static String indexPage(Aggregate total, String pages, int page_count) {
+        StringBuilder html = new StringBuilder(Utils.HTML_HEADER);
+        html.append("<h1>").append(total.results).append(" results</h1>\n");
+
+        html.append("<h2>Sentiment</h2>\n<table>\n");
+        for (int i = 0; i < SENTIMENT_NAMES.length; i++) {
+            if (i == SENTIMENT_NAMES.length - 1 && total.sentiments[i] == 0) {
+                continue;
+            }
+            html.append("<tr><td><div class=\"sentiment-level-").append(i < 5 ? Integer.toString(i) : "")
+                    .append("\">").append(SENTIMENT_NAMES[i]).append("</div></td><td>")
+                    .append(total.sentiments[i]).append("</td><td>")
+                    .append(String.format("%.1f%%", total.results == 0 ? 0.0 :
+                            100.0 * total.sentiments[i] / total.results))
+                    .append("</td></tr>\n");
+        }
+        html.append("</table>\n");
+
+        html.append("<h2>Top entities</h2>\n<table>\n");
+        for (Map.Entry<String, Long> entity : total.top(TOP_ENTITIES)) {
+            html.append("<tr><td>").append(escape(entity.getKey())).append("</td><td>").append(entity.getValue())
+                    .append("</td></tr>\n");
+        }
+        html.append("</table>\n");
+
+        html.append("<h2>Pages</h2>\n");
+        for (int i = 1; i <= page_count; i++) {
+            html.append("<a href=\"").append(pages).append('/').append(i).append(".html\">").append(i)
+                    .append("</a>\n");
+        }
+        html.append(Utils.HTML_FOOTER);
+        return html.toString();
+    }
+
+    private static String escape(String text) {
+        StringBuilder escaped = new StringBuilder();
+        HtmlResultWriter html = new HtmlResultWriter(escaped);
+        try {
+            html.writeEscaped(text);
+            html.flush();
+        }
+        catch (IOException e) {
+            // StringBuilder doesn't throw.
+            throw new UncheckedIOException(e);
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Write chars as UTF-8 through a FileChannel, replacing the file.
+     */
+    private static void write(Path file, CharSequence data) throws IOException {
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(data));
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Delete the pages of an earlier export, so a shorter one leaves none behind.
+     */
+    private static void deletePages(Path pages) throws IOException {
+        DirectoryStream<Path> files = Files.newDirectoryStream(pages, "*.html");
+        try {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        finally {
+            files.close();
+        }
+    }
+
+    private static Aggregate join(ForkJoinTask<Aggregate> page) throws IOException {
+        try {
+            return page.join();
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package localapp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Results of a job as the manager publishes them, instead of all at once on DONE.
+ *
+ * A job that asks for it (CHUNK_RECORDS_ATTRIBUTE) gets its results in chunks while it runs: the manager stores
+ * every so many results as a summary of their own under chunkKey(key, n), in the job's summary format,
+ * and sends "key|CHUNK|n|done|total" on the reply queue. The full summary and "key|DONE" still come at the end,
+ * so a manager that doesn't know the attribute works as before.
+ *
+ * Each chunk is downloaded as it is announced and appended to the HTML output right away, in arrival order,
+ * with the progress (results done, throughput, ETA) on stdout. Once the job is done the output is written again,
+ * complete and in input order. If every chunk of a key arrived, its summary is put together from them instead of
+ * downloaded a second time.
+ */
+class ProgressiveResults implements CompletionNotifier.ChunkListener {
+
+    // Job message attribute with the results per chunk.
+    static final String CHUNK_RECORDS_ATTRIBUTE = "ProgressChunkRecords";
+
+    static final String CHUNK_MARKER = "|CHUNK|";
+
+    private final Storage storage;
+    private final RangedDownloader downloader;
+    private final ExecutorService executor;
+    private final Path directory;
+    private final String key;
+    private final int chunk_records;
+    private final long started_at;
+
+    // The HTML so far.
+    private final Writer output;
+    private final HtmlResultWriter html;
+
+    // Per key (the job's, or its shards'): chunk number --> downloaded chunk, and the download tasks.
+    private final Map<String, SortedMap<Integer, Path>> chunks = new HashMap<String, SortedMap<Integer, Path>>();
+    private final Map<String, List<Future<?>>> downloads = new HashMap<String, List<Future<?>>>();
+
+    // Per key: results done and results in all, as the manager last told.
+    private final Map<String, long[]> progress = new HashMap<String, long[]>();
+
+    private long results_written;
+    private long first_result_at;
+    private boolean closed;
+
+    /**
+     * Start the HTML output.
+     *
+     * @param key the job's key.
+     * @param chunk_records results per chunk the job asked for.
+     * @param started_at when the job started, for the time to first result.
+     * @param header the HTML page header.
+     */
+    ProgressiveResults(Storage storage, RangedDownloader downloader, ExecutorService executor, Path directory,
+                       String key, int chunk_records, String output_file_name, long started_at, String header)
+            throws IOException {
+        this.storage = storage;
+        this.downloader = downloader;
+        this.executor = executor;
+        this.directory = directory;
+        this.key = key;
+        this.chunk_records = chunk_records;
+        this.started_at = started_at;
+        this.output = Files.newBufferedWriter(Paths.get(output_file_name), StandardCharsets.UTF_8);
+        this.html = new HtmlResultWriter(output);
+        html.write(header);
+        flush();
+    }
+
+    static String chunkKey(String key, int chunk) {
+        return key + CHUNK_MARKER + chunk;
+    }
+
+    /**
+     * Write results known before the job started, "sentiment|entities|tweet" a line each.
+     */
+    synchronized void writeKnown(Path known_results) throws IOException {
+        BufferedReader reader = Files.newBufferedReader(known_results, StandardCharsets.UTF_8);
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                html.writeResult(key + "|" + line);
+            }
+        }
+        finally {
+            reader.close();
+        }
+        flush();
+    }
+
+    /**
+     * Called by the completion notifier's thread, so the download happens elsewhere.
+     */
+    @Override
+    public void chunk(final String chunk_key, final int chunk, final long done, final long total) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            long[] known = progress.get(chunk_key);
+            if (known == null) {
+                progress.put(chunk_key, new long[] {done, total});
+            }
+            else {
+                known[0] = Math.max(known[0], done);
+                known[1] = total;
+            }
+            List<Future<?>> tasks = downloads.get(chunk_key);
+            if (tasks == null) {
+                tasks = new ArrayList<Future<?>>();
+                downloads.put(chunk_key, tasks);
+            }
+            tasks.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    download(chunk_key, chunk);
+                    return null;
+                }
+            }));
+        }
+    }
+
+    /**
+     * Put the summary of a done key together from its chunks, if all of them arrived.
+     *
+     * @return the summary, null if chunks are missing and it has to be downloaded.
+     */
+    Path assemble(String done_key) throws IOException, InterruptedException {
+        List<Future<?>> tasks;
+        synchronized (this) {
+            tasks = downloads.containsKey(done_key) ? new ArrayList<Future<?>>(downloads.get(done_key)) :
+                    Collections.<Future<?>>emptyList();
+        }
+        boolean failed = false;
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            }
+            catch (ExecutionException e) {
+                failed = true;
+            }
+        }
+
+        SortedMap<Integer, Path> received;
+        long[] counts;
+        synchronized (this) {
+            received = chunks.containsKey(done_key) ? new TreeMap<Integer, Path>(chunks.get(done_key)) :
+                    new TreeMap<Integer, Path>();
+            counts = progress.get(done_key);
+        }
+        deleteRemoteChunks(done_key, received, counts);
+        if (failed || counts == null || counts[0] != counts[1] || received.isEmpty() ||
+                received.lastKey() != received.size() - 1) {
+            return null;
+        }
+
+        Path summary = directory.resolve(done_key + ".chunks");
+        BinarySummaryWriter writer = new BinarySummaryWriter(Files.newOutputStream(summary));
+        long count = 0;
+        try {
+            for (Path chunk : received.values()) {
+                count += Shards.append(chunk, writer);
+            }
+        }
+        finally {
+            writer.close();
+        }
+        if (count != counts[1]) {
+            Files.delete(summary);
+            return null;
+        }
+        return summary;
+    }
+
+    /**
+     * Stop taking chunks and finish the HTML. The caller writes the complete output over it.
+     */
+    synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        output.close();
+        for (SortedMap<Integer, Path> received : chunks.values()) {
+            for (Path chunk : received.values()) {
+                Files.deleteIfExists(chunk);
+            }
+        }
+    }
+
+    /**
+     * @return ms from the start of the job to the first result in the HTML, -1 if none was written.
+     */
+    synchronized long timeToFirstResult() {
+        return first_result_at == 0 ? -1 : first_result_at - started_at;
+    }
+
+    private void download(String chunk_key, int chunk) throws IOException, InterruptedException {
+        String object_key = chunkKey(chunk_key, chunk);
+        Path path = downloader.download(object_key, directory.resolve(chunk_key + ".chunk" + chunk));
+        storage.delete(object_key);
+
+        synchronized (this) {
+            if (closed) {
+                Files.deleteIfExists(path);
+                return;
+            }
+            SortedMap<Integer, Path> received = chunks.get(chunk_key);
+            if (received == null) {
+                received = new TreeMap<Integer, Path>();
+                chunks.put(chunk_key, received);
+            }
+            received.put(chunk, path);
+
+            SummaryRecords records = new SummaryRecords(path);
+            try {
+                while (records.next()) {
+                    html.writeResult(records.sentiment(), records.entities(), records.tweet());
+                }
+            }
+            finally {
+                records.close();
+            }
+            flush();
+            printProgress();
+        }
+    }
+
+    /**
+     * Chunks that came after DONE, or were never announced, are left in the bucket otherwise.
+     */
+    private void deleteRemoteChunks(String done_key, SortedMap<Integer, Path> received, long[] counts)
+            throws IOException {
+        long expected = counts == null ? 0 : (counts[1] + chunk_records - 1) / chunk_records;
+        for (int chunk = 0; chunk < expected || storage.exists(chunkKey(done_key, chunk)); chunk++) {
+            if (!received.containsKey(chunk)) {
+                storage.delete(chunkKey(done_key, chunk));
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        html.flush();
+        output.flush();
+        if (first_result_at == 0 && html.results > 0) {
+            first_result_at = System.currentTimeMillis();
+            System.out.println("Time to first result of " + key + ": " + (first_result_at - started_at) + " ms");
+        }
+        results_written = html.results;
+    }
+
+    private void printProgress() {
+        // Shards that didn't report yet aren't in the total.
+        long done = 0;
+        long total = 0;
+        for (long[] counts : progress.values()) {
+            done += counts[0];
+            total += counts[1];
+        }
+        long elapsed_ms = Math.max(1, System.currentTimeMillis() - started_at);
+        double per_second = done * 1000.0 / elapsed_ms;
+        String eta = per_second > 0 && done < total ?
+                String.format("%.1f s", (total - done) / per_second) : "-";
+        System.out.println(String.format("Progress of %s: %d/%d results analyzed (%.0f%%), %d in the HTML, " +
+                        "%.1f results/s, ETA %s", key, done, total, total == 0 ? 0.0 : 100.0 * done / total,
+                results_written, per_second, eta));
+    }
+}
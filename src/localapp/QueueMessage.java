@@ -0,0 +1,41 @@
+package localapp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A message received from a queue, or one to send, without an id and receipt handle.
+ */
+class QueueMessage {
+    final String id;
+
+    // Identifies this receive, needed to delete or release the message.
+    final String receipt_handle;
+
+    final String body;
+    final Map<String, String> attributes;
+
+    QueueMessage(String body, Map<String, String> attributes) {
+        this(null, null, body, attributes);
+    }
+
+    QueueMessage(String id, String receipt_handle, String body, Map<String, String> attributes) {
+        this.id = id;
+        this.receipt_handle = receipt_handle;
+        this.body = body;
+        this.attributes = attributes == null ? new HashMap<String, String>() : attributes;
+    }
+
+    /**
+     * @return bytes the message counts for against the size limits of SQS: its body and its attributes.
+     */
+    int size() {
+        int size = body.getBytes(StandardCharsets.UTF_8).length;
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            size += attribute.getKey().getBytes(StandardCharsets.UTF_8).length + "String".length() +
+                    attribute.getValue().getBytes(StandardCharsets.UTF_8).length;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,49 @@
+package localapp;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Message queues (SQS, or in-process queues).
+ */
+interface Queues {
+
+    /**
+     * Gets a queue by name. Creates one if does not exist.
+     *
+     * @param attributes queue attributes, e.g. ReceiveMessageWaitTimeSeconds, or null.
+     * @return Queue URL.
+     */
+    String createQueue(String name, Map<String, String> attributes);
+
+    void deleteQueue(String queue_url);
+
+    void purge(String queue_url);
+
+    /**
+     * @param attributes string message attributes, or null.
+     */
+    void send(String queue_url, String body, Map<String, String> attributes);
+
+    /**
+     * Send messages in as few calls as the queue allows, up to AwsQueues.MAX_BATCH_SIZE
+     * and AwsQueues.MAX_BATCH_BYTES a call.
+     *
+     * @param messages bodies and attributes to send.
+     * @return the messages that weren't sent, each failed on its own.
+     */
+    List<QueueMessage> sendBatch(String queue_url, List<QueueMessage> messages);
+
+    /**
+     * Receive up to max_messages, waiting up to wait_seconds for the first one.
+     * Received messages are hidden from others for visibility_seconds.
+     */
+    List<QueueMessage> receive(String queue_url, int max_messages, int wait_seconds, int visibility_seconds);
+
+    void delete(String queue_url, String receipt_handle);
+
+    /**
+     * Make received messages visible to everyone again, right away.
+     */
+    void release(String queue_url, List<QueueMessage> messages);
+}
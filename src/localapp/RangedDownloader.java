@@ -0,0 +1,223 @@
+package localapp;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads stored objects as byte ranges fetched in parallel, written into a pre-sized memory-mapped file.
+ * A failed range is retried on its own, up to "attempts" tries. Finished ranges are recorded in a ".ranges" file
+ * next to the download, so a download that failed can be resumed without fetching them again.
+ */
+class RangedDownloader {
+
+    static final long RANGE_SIZE = 8 * 1024 * 1024;
+
+    private static final long RETRY_DELAY_MS = 500;
+
+    private static final String PROGRESS_SUFFIX = ".ranges";
+
+    private final Storage storage;
+    private final ExecutorService executor;
+    private final int attempts;
+
+    // Statistics.
+    final AtomicLong bytes_downloaded = new AtomicLong();
+    final AtomicLong ranges_downloaded = new AtomicLong();
+    final AtomicLong ranges_skipped = new AtomicLong();
+    final AtomicLong range_retries = new AtomicLong();
+
+    /**
+     * @param storage where to download from.
+     * @param threads max ranges fetched at once.
+     * @param attempts tries of a range, 1 if the storage retries its own calls.
+     */
+    RangedDownloader(Storage storage, int threads, int attempts) {
+        this.storage = storage;
+        this.attempts = attempts;
+        this.executor = Executors.newFixedThreadPool(threads, Utils.daemonThreads("download-range"));
+    }
+
+    /**
+     * Download an object into a local file.
+     *
+     * @param key key of the object.
+     * @param destination local file, created or resumed.
+     * @return the destination.
+     */
+    Path download(final String key, Path destination) throws IOException, InterruptedException {
+        ObjectInfo info = storage.head(key);
+        if (info == null) {
+            throw new FileNotFoundException("No such key: " + key);
+        }
+        final long length = info.length;
+        final String etag = info.etag;
+        int ranges = (int) ((length + RANGE_SIZE - 1) / RANGE_SIZE);
+
+        Path progress_path = destination.resolveSibling(destination.getFileName() + PROGRESS_SUFFIX);
+        boolean[] done = loadProgress(progress_path, destination, etag, length, ranges);
+        boolean fresh = !Files.exists(progress_path);
+        if (destination.getParent() != null) {
+            Files.createDirectories(destination.getParent());
+        }
+
+        RandomAccessFile file = new RandomAccessFile(destination.toFile(), "rw");
+        final Writer progress = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(progress_path.toFile(), true), StandardCharsets.UTF_8));
+        try {
+            file.setLength(length);
+            final FileChannel channel = file.getChannel();
+
+            if (fresh) {
+                // New download: the header says which object the ranges belong to.
+                progress.write(etag + "\n" + length + "\n" + RANGE_SIZE + "\n");
+                progress.flush();
+            }
+
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < ranges; i++) {
+                if (done[i]) {
+                    ranges_skipped.incrementAndGet();
+                    continue;
+                }
+                final int range = i;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        fetchRange(key, etag, channel, range, length);
+                        synchronized (progress) {
+                            progress.write(range + "\n");
+                            progress.flush();
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                }
+                catch (ExecutionException e) {
+                    for (Future<?> other : futures) {
+                        other.cancel(true);
+                    }
+                    throw new IOException("Failed downloading " + key + ", run again to resume", e.getCause());
+                }
+            }
+        }
+        finally {
+            progress.close();
+            file.close();
+        }
+
+        Files.delete(progress_path);
+        return destination;
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @param elapsed_ms time the downloads took.
+     * @return one line of download statistics.
+     */
+    String stats(long elapsed_ms) {
+        double mb = bytes_downloaded.get() / (1024.0 * 1024.0);
+        double seconds = Math.max(elapsed_ms, 1) / 1000.0;
+        return String.format("%.1f MB in %.1f s (%.1f MB/s), %d ranges, %d resumed, %d retries",
+                mb, seconds, mb / seconds, ranges_downloaded.get(), ranges_skipped.get(), range_retries.get());
+    }
+
+    private void fetchRange(String key, String etag, FileChannel channel, int range, long length)
+            throws IOException, InterruptedException {
+        long start = range * RANGE_SIZE;
+        long end = Math.min(start + RANGE_SIZE, length) - 1;
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, start, end - start + 1);
+
+                // The ETag makes sure all ranges come from the same version of the object.
+                InputStream input = storage.getRange(key, start, end, etag);
+                try {
+                    byte[] chunk = new byte[64 * 1024];
+                    int read;
+                    while ((read = input.read(chunk)) != -1) {
+                        buffer.put(chunk, 0, read);
+                    }
+                }
+                finally {
+                    input.close();
+                }
+
+                if (buffer.hasRemaining()) {
+                    throw new EOFException("Short range " + start + "-" + end + " of " + key);
+                }
+                buffer.force();
+
+                bytes_downloaded.addAndGet(end - start + 1);
+                ranges_downloaded.incrementAndGet();
+                return;
+            }
+            catch (IOException e) {
+                if (attempt >= attempts) {
+                    throw e;
+                }
+            }
+            catch (RuntimeException e) {
+                if (attempt >= attempts) {
+                    throw e;
+                }
+            }
+            range_retries.incrementAndGet();
+            Utils.metrics.count("storage.range_retries", 1);
+            Thread.sleep(RETRY_DELAY_MS * attempt);
+        }
+    }
+
+    /**
+     * Read which ranges a previous attempt finished.
+     * Anything that doesn't match the object as it is now starts from scratch.
+     */
+    private static boolean[] loadProgress(Path progress_path, Path destination, String etag, long length, int ranges)
+            throws IOException {
+        boolean[] done = new boolean[ranges];
+        if (!Files.exists(progress_path)) {
+            return done;
+        }
+
+        List<String> lines = Files.readAllLines(progress_path, StandardCharsets.UTF_8);
+        boolean matches = lines.size() >= 3 &&
+                lines.get(0).equals(etag) &&
+                lines.get(1).equals(length + "") &&
+                lines.get(2).equals(RANGE_SIZE + "") &&
+                Files.exists(destination) && Files.size(destination) == length;
+
+        if (!matches) {
+            Files.delete(progress_path);
+            return done;
+        }
+
+        for (String line : lines.subList(3, lines.size())) {
+            try {
+                int range = Integer.parseInt(line.trim());
+                if (range >= 0 && range < ranges) {
+                    done[range] = true;
+                }
+            }
+            catch (NumberFormatException e) {
+                // Half written line, fetch that range again.
+            }
+        }
+        return done;
+    }
+}
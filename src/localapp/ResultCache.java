@@ -0,0 +1,170 @@
+package localapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Summaries of inputs that were analyzed before, keyed by the content hash of the input, so the same tweets file
+ * is never analyzed twice. Looks in a local directory first, bounded in size with least recently used eviction,
+ * then in the summaries archived in storage by earlier runs.
+ * The last access time is the file's modified time, so the LRU order survives restarts.
+ */
+class ResultCache {
+
+    // Where downloadSummary archives every summary, by job key.
+    static final String ARCHIVE_PREFIX = "ZZZ_oldSummaries/";
+
+    private static final String PART_SUFFIX = ".part";
+
+    private final Path directory;
+    private final long max_bytes;
+    private final Storage storage;
+    private final RangedDownloader downloader;
+
+    // Hash --> size of the summaries in the directory, least recently used first.
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long total_bytes;
+
+    // Statistics.
+    final AtomicLong hits = new AtomicLong();
+    final AtomicLong archive_hits = new AtomicLong();
+    final AtomicLong misses = new AtomicLong();
+    final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param directory local cache directory, created if missing.
+     * @param max_bytes size the local summaries are kept under.
+     * @param storage where the archived summaries are.
+     */
+    ResultCache(Path directory, long max_bytes, Storage storage, RangedDownloader downloader) throws IOException {
+        this.directory = directory;
+        this.max_bytes = max_bytes;
+        this.storage = storage;
+        this.downloader = downloader;
+        Files.createDirectories(directory);
+        load();
+    }
+
+    /**
+     * @return the job key of an input: the hex SHA-256 of its content.
+     */
+    static String key(File input) throws IOException {
+        return UploadStage.sha256(input);
+    }
+
+    /**
+     * Find the summary of an input, locally or in the archive.
+     *
+     * @return the local summary file, null on a miss.
+     */
+    Path lookup(String key) throws IOException, InterruptedException {
+        Path path = directory.resolve(key);
+        synchronized (this) {
+            if (entries.get(key) != null && Files.exists(path)) {
+                Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+                hits.incrementAndGet();
+                return path;
+            }
+            remove(key);
+        }
+
+        String archived = ARCHIVE_PREFIX + key;
+        if (storage.exists(archived)) {
+            Path part = directory.resolve(key + PART_SUFFIX);
+            downloader.download(archived, part);
+            archive_hits.incrementAndGet();
+            return put(key, part);
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Move a downloaded summary into the cache, evicting the least recently used ones over the size limit.
+     *
+     * @return the summary's path in the cache.
+     */
+    synchronized Path put(String key, Path summary) throws IOException {
+        Path path = directory.resolve(key);
+        remove(key);
+        Files.move(summary, path, StandardCopyOption.REPLACE_EXISTING);
+        Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+
+        long size = Files.size(path);
+        entries.put(key, size);
+        total_bytes += size;
+
+        Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while (total_bytes > max_bytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            if (entry.getKey().equals(key)) {
+                // Never evict what was just added, even if it alone is over the limit.
+                continue;
+            }
+            Files.deleteIfExists(directory.resolve(entry.getKey()));
+            total_bytes -= entry.getValue();
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+        return path;
+    }
+
+    synchronized String stats() {
+        long lookups = hits.get() + archive_hits.get() + misses.get();
+        return hits + " hits, " + archive_hits + " archive hits, " + misses + " misses" +
+                (lookups == 0 ? "" : " (" + (100 * (hits.get() + archive_hits.get()) / lookups) + "% hit rate)") +
+                ", " + evictions + " evicted, " + entries.size() + " summaries / " + total_bytes + " bytes cached";
+    }
+
+    private void remove(String key) throws IOException {
+        Long size = entries.remove(key);
+        if (size != null) {
+            total_bytes -= size;
+            Files.deleteIfExists(directory.resolve(key));
+        }
+    }
+
+    /**
+     * Index the summaries already in the directory, oldest access first.
+     */
+    private void load() throws IOException {
+        List<Path> files = new ArrayList<Path>();
+        DirectoryStream<Path> stream = Files.newDirectoryStream(directory);
+        try {
+            for (Path path : stream) {
+                if (path.getFileName().toString().endsWith(PART_SUFFIX)) {
+                    // Left over by an interrupted download.
+                    Files.deleteIfExists(path);
+                }
+                else if (Files.isRegularFile(path)) {
+                    files.add(path);
+                }
+            }
+        }
+        finally {
+            stream.close();
+        }
+
+        final Map<Path, Long> modified = new HashMap<Path, Long>();
+        for (Path path : files) {
+            modified.put(path, Files.getLastModifiedTime(path).toMillis());
+        }
+        Collections.sort(files, new Comparator<Path>() {
+            @Override
+            public int compare(Path a, Path b) {
+                return Long.compare(modified.get(a), modified.get(b));
+            }
+        });
+
+        for (Path path : files) {
+            long size = Files.size(path);
+            entries.put(path.getFileName().toString(), size);
+            total_bytes += size;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package localapp;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cuts a large input into shards the manager works on as separate jobs, and puts their summaries back together.
+ * Shards are balanced by size and cut at line ends, so each link goes to exactly one of them.
+ */
+class Shards {
+
+    /**
+     * Cut an input into shards of about the same size.
+     *
+     * @param shard_bytes size over which an input is cut, 0 to never cut.
+     * @param max_shards most shards an input is cut into, larger ones get larger shards.
+     * @param prefix path prefix of the shard files, numbered from 0.
+     * @return the shard files in input order, empty if the input fits in one shard.
+     */
+    static List<Path> split(File input, long shard_bytes, int max_shards, String prefix) throws IOException {
+        List<Path> shards = new ArrayList<Path>();
+        long size = input.length();
+        if (shard_bytes <= 0 || size <= shard_bytes) {
+            return shards;
+        }
+        long count = Math.min(max_shards, (size + shard_bytes - 1) / shard_bytes);
+        long target = (size + count - 1) / count;
+
+        InputStream in = new BufferedInputStream(new FileInputStream(input), 64 * 1024);
+        OutputStream out = null;
+        try {
+            long written = 0;
+            int b;
+            while ((b = in.read()) != -1) {
+                if (out == null) {
+                    Path shard = new File(prefix + "-" + shards.size()).toPath();
+                    shards.add(shard);
+                    out = new BufferedOutputStream(Files.newOutputStream(shard), 64 * 1024);
+                    written = 0;
+                }
+                out.write(b);
+                written++;
+                // Only cut at a line end, and leave the rest to the last shard.
+                if (b == '\n' && written >= target && shards.size() < count) {
+                    out.close();
+                    out = null;
+                }
+            }
+        }
+        finally {
+            in.close();
+            if (out != null) {
+                out.close();
+            }
+        }
+        return shards;
+    }
+
+    /**
+     * Append every result of a shard's summary to the summary of the whole input.
+     *
+     * @return number of results appended.
+     */
+    static long append(Path summary, BinarySummaryWriter merged) throws IOException {
+        long count = 0;
+        SummaryRecords records = new SummaryRecords(summary);
+        try {
+            while (records.next()) {
+                merged.write(records.key(), records.sentiment(), records.entities(), records.tweet());
+                count++;
+            }
+        }
+        finally {
+            records.close();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,65 @@
+package localapp;
+
+import java.io.IOException;
+
+/**
+ * Stopped instances that already booted once and cached their artifacts.
+ * Starting one takes seconds, booting a new instance takes minutes.
+ * Standby instances are tagged "Name=<role>-standby" and renamed to "<role>" by the local app that started them.
+ */
+class StandbyPool {
+
+    static final String STANDBY_SUFFIX = "-standby";
+
+    private final Compute compute;
+    private final String role;
+    private final String user_data;
+    private final InstanceSpec spec;
+
+    /**
+     * @param compute where the instances run.
+     * @param role Name tag of a running instance, e.g. "manager".
+     * @param user_data boot script of a standby instance.
+     * @param spec size of the instances, always on-demand since spot instances can't be stopped.
+     */
+    StandbyPool(Compute compute, String role, String user_data, InstanceSpec spec) {
+        this.compute = compute;
+        this.role = role;
+        this.user_data = user_data;
+        this.spec = spec.onDemand();
+    }
+
+    /**
+     * Start a standby instance.
+     *
+     * @return the instance ID, null if none is ready.
+     */
+    String acquire() {
+        for (String instance_id : compute.find(role + STANDBY_SUFFIX, "stopped")) {
+            // Other local apps may have found the same one. Only the start that saw it stopped took it.
+            if (!"stopped".equals(compute.start(instance_id))) {
+                continue;
+            }
+            compute.tag(instance_id, "Name", role);
+            return instance_id;
+        }
+        return null;
+    }
+
+    /**
+     * Launch instances until the pool has the given size.
+     * New ones stop by themselves once their cache is full.
+     *
+     * @param size wanted number of standby instances.
+     * @return number of instances launched.
+     */
+    int fill(int size) throws IOException {
+        // Instances still filling their cache count as well.
+        int missing = size - compute.find(role + STANDBY_SUFFIX, "pending", "running", "stopping", "stopped").size();
+        if (missing <= 0) {
+            return 0;
+        }
+        compute.launch(role + STANDBY_SUFFIX, user_data, missing, spec);
+        return missing;
+    }
+}
@@ -0,0 +1,61 @@
+package localapp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Object storage of a single bucket (S3, or a local directory).
+ */
+interface Storage {
+
+    /**
+     * Create the bucket if it doesn't exist.
+     */
+    void ensureBucket() throws IOException;
+
+    /**
+     * @return the object's info, null if there's no such object.
+     */
+    ObjectInfo head(String key) throws IOException;
+
+    boolean exists(String key) throws IOException;
+
+    void put(String key, byte[] data, int offset, int length, ObjectInfo info) throws IOException;
+
+    /**
+     * @return the whole object, null if there's no such object.
+     */
+    InputStream get(String key) throws IOException;
+
+    /**
+     * Read bytes start..end (inclusive).
+     *
+     * @param etag version the bytes must come from, or null for any.
+     * @throws IOException if the object changed.
+     */
+    InputStream getRange(String key, long start, long end, String etag) throws IOException;
+
+    void copy(String from_key, String to_key) throws IOException;
+
+    void delete(String key) throws IOException;
+
+    // Multipart upload: parts of at least 5MB (except the last one), put in parallel.
+
+    /**
+     * @return ID of the upload.
+     */
+    String startMultipart(String key, ObjectInfo info) throws IOException;
+
+    /**
+     * @return ETag of the part.
+     */
+    String putPart(String key, String upload_id, int part_number, byte[] data, int length) throws IOException;
+
+    /**
+     * @param etags ETags of the parts, in part number order.
+     */
+    void completeMultipart(String key, String upload_id, List<String> etags) throws IOException;
+
+    void abortMultipart(String key, String upload_id) throws IOException;
+}
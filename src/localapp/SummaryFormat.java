@@ -0,0 +1,102 @@
+package localapp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Formats a summary can come in, and what they share.
+ *
+ * Text: a "key|sentiment|entities|tweet" line per result, what the manager always sent.
+ *
+ * Binary, version 1: "LSUM", a version byte, then blocks of up to BLOCK_RECORDS results.
+ * A block is three ints (result count, raw length, deflated length) and the deflated columns:
+ *   dictionary: varint count, then varint-length-prefixed UTF-8 strings (keys and entities).
+ *   sentiments: a byte per result, 0-4, or 255 for none.
+ *   keys: a varint dictionary index per result.
+ *   entities: a varint dictionary index per result.
+ *   tweets: varint-length-prefixed UTF-8 text per result.
+ * A block with 0 results ends the summary, so a cut off summary is an error rather than a short one.
+ *
+ * The local app tells the manager which formats it reads in the SUMMARY_FORMATS_ATTRIBUTE of the job message.
+ * A manager that doesn't know the attribute keeps sending text, and readers tell the formats apart by the magic.
+ */
+class SummaryFormat {
+
+    static final String TEXT = "text";
+    static final String BINARY_V1 = "binary-1";
+
+    // Job message attribute with the formats the local app reads, best first.
+    static final String SUMMARY_FORMATS_ATTRIBUTE = "SummaryFormats";
+    static final String ACCEPTED_FORMATS = BINARY_V1 + "," + TEXT;
+
+    static final String BINARY_CONTENT_TYPE = "application/x-localapp-summary; version=1";
+
+    static final byte[] MAGIC = {'L', 'S', 'U', 'M'};
+    static final int VERSION = 1;
+
+    static final int BLOCK_RECORDS = 4096;
+    static final int NO_SENTIMENT = 255;
+
+    /**
+     * @param accepted value of the SUMMARY_FORMATS_ATTRIBUTE, or null.
+     * @return the best format both sides know.
+     */
+    static String choose(String accepted) {
+        if (accepted != null && Arrays.asList(accepted.split(",")).contains(BINARY_V1)) {
+            return BINARY_V1;
+        }
+        return TEXT;
+    }
+
+    /**
+     * @return true if the file starts with the binary magic.
+     */
+    static boolean isBinary(Path summary) throws IOException {
+        byte[] start = new byte[MAGIC.length];
+        InputStream input = Files.newInputStream(summary);
+        try {
+            int read = 0;
+            while (read < start.length) {
+                int count = input.read(start, read, start.length - read);
+                if (count == -1) {
+                    return false;
+                }
+                read += count;
+            }
+        }
+        finally {
+            input.close();
+        }
+        return Arrays.equals(start, MAGIC);
+    }
+
+    static void writeVarInt(OutputStream output, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            output.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.write(value);
+    }
+
+    /**
+     * Read a varint from data at position[0], and move the position past it.
+     */
+    static int readVarInt(byte[] data, int[] position) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (position[0] >= data.length) {
+                throw new IOException("Corrupt summary block");
+            }
+            byte b = data[position[0]++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt summary block");
+    }
+}
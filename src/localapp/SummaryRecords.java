@@ -0,0 +1,107 @@
+package localapp;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads the results of a summary file one at a time, whichever format it is in:
+ *
+ *   while (records.next()) { records.key(); records.tweet(); ... }
+ *
+ * Blank text lines are skipped, and missing text fields are empty, like HtmlResultWriter does.
+ */
+class SummaryRecords implements Closeable {
+
+    private final BufferedReader text;
+    private final BinarySummaryReader binary;
+
+    // Current result of a text summary.
+    private String key;
+    private int sentiment;
+    private String entities;
+    private String tweet;
+
+    SummaryRecords(Path summary) throws IOException {
+        if (SummaryFormat.isBinary(summary)) {
+            text = null;
+            binary = new BinarySummaryReader(Files.newInputStream(summary));
+        }
+        else {
+            text = Files.newBufferedReader(summary, StandardCharsets.UTF_8);
+            binary = null;
+        }
+    }
+
+    /**
+     * Move to the next result.
+     *
+     * @return false at the end of the summary.
+     */
+    boolean next() throws IOException {
+        if (binary != null) {
+            return binary.next();
+        }
+
+        String line;
+        do {
+            line = text.readLine();
+        } while (line != null && line.isEmpty());
+        if (line == null) {
+            return false;
+        }
+
+        int first = line.indexOf('|');
+        int second = first < 0 ? -1 : line.indexOf('|', first + 1);
+        int third = second < 0 ? -1 : line.indexOf('|', second + 1);
+        key = first < 0 ? line : line.substring(0, first);
+        int sentiment_end = first < 0 ? -1 : (second < 0 ? line.length() : second);
+        sentiment = sentiment_end - first == 2 ? line.charAt(first + 1) - '0' : -1;
+        if (sentiment < 0 || sentiment > 4) {
+            sentiment = -1;
+        }
+        entities = second < 0 ? "" : line.substring(second + 1, third < 0 ? line.length() : third);
+        tweet = third < 0 ? "" : line.substring(third + 1);
+        return true;
+    }
+
+    String key() {
+        return binary != null ? binary.key() : key;
+    }
+
+    /**
+     * @return 0-4, or -1 for none.
+     */
+    int sentiment() {
+        return binary != null ? binary.sentiment() : sentiment;
+    }
+
+    String entities() {
+        return binary != null ? binary.entities() : entities;
+    }
+
+    String tweet() {
+        return binary != null ? binary.tweet() : tweet;
+    }
+
+    /**
+     * @return the result without its key: "sentiment|entities|tweet".
+     */
+    String result() {
+        int level = sentiment();
+        return (level < 0 ? "" : Integer.toString(level)) + "|" + entities() + "|" + tweet();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (binary != null) {
+            binary.close();
+        }
+        else {
+            text.close();
+        }
+    }
+}
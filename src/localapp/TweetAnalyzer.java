@@ -0,0 +1,44 @@
+package localapp;
+
+import java.io.IOException;
+
+/**
+ * What a worker does with a tweet link: find the tweet, its sentiment and its named entities.
+ * An instance is only used by one thread at a time, so it may keep a pipeline that isn't thread safe.
+ */
+interface TweetAnalyzer {
+
+    /**
+     * One "key|sentiment|entities|tweet" result, without the key.
+     */
+    class Analysis {
+        // 0 (very negative) to 4 (very positive), anything else for none.
+        final int sentiment;
+        // "[name:TYPE, ...]"
+        final String entities;
+        final String tweet;
+
+        Analysis(int sentiment, String entities, String tweet) {
+            this.sentiment = sentiment;
+            this.entities = entities;
+            this.tweet = tweet;
+        }
+    }
+
+    Analysis analyze(String link) throws IOException;
+
+    /**
+     * The made up analysis of the local backend: the sentiment comes from the link, so runs are repeatable.
+     */
+    class Simulated implements TweetAnalyzer {
+
+        @Override
+        public Analysis analyze(String link) {
+            return new Analysis(sentiment(link), "[]", link);
+        }
+
+        static int sentiment(String link) {
+            return (link.hashCode() & Integer.MAX_VALUE) % 5;
+        }
+    }
+}
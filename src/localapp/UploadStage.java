@@ -0,0 +1,385 @@
+package localapp;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Uploads files to storage concurrently.
+ * Big files go up as multipart uploads whose parts are sent in parallel on a bounded executor,
+ * optionally gzipped on the fly. Files whose content hash matches the stored object are skipped.
+ */
+class UploadStage {
+
+    // S3 needs at least 5MB per part (except the last one).
+    static final int PART_SIZE = 8 * 1024 * 1024;
+
+    // User metadata holding the SHA-256 of the uncompressed content.
+    static final String CONTENT_HASH_METADATA = "content-sha256";
+
+    private final Storage storage;
+
+    // Whole files are uploaded here, their parts on part_executor so they can't starve each other.
+    private final ExecutorService file_executor;
+    private final ExecutorService part_executor;
+
+    // Every part holds a PART_SIZE buffer until it is sent, this bounds the memory.
+    private final Semaphore part_slots;
+
+    private volatile boolean bucket_checked;
+
+    // Statistics.
+    final AtomicLong bytes_uploaded = new AtomicLong();
+    final AtomicInteger files_uploaded = new AtomicInteger();
+    final AtomicInteger files_skipped = new AtomicInteger();
+    final AtomicInteger parts_in_flight = new AtomicInteger();
+    final AtomicInteger max_parts_in_flight = new AtomicInteger();
+
+    /**
+     * @param storage where to upload.
+     * @param threads max parts sent at once.
+     */
+    UploadStage(Storage storage, int threads) {
+        this.storage = storage;
+        this.file_executor = Executors.newFixedThreadPool(threads, Utils.daemonThreads("upload-file"));
+        this.part_executor = Executors.newFixedThreadPool(threads, Utils.daemonThreads("upload-part"));
+        this.part_slots = new Semaphore(threads * 2);
+    }
+
+    /**
+     * Create the bucket if it doesn't exist. Checked once per stage.
+     */
+    void ensureBucket() throws IOException {
+        if (bucket_checked) {
+            return;
+        }
+        synchronized (this) {
+            if (!bucket_checked) {
+                storage.ensureBucket();
+                bucket_checked = true;
+            }
+        }
+    }
+
+    /**
+     * Upload a file in the background.
+     *
+     * @param file file to upload.
+     * @param key key of the object.
+     * @param public_read everyone can download the object.
+     * @param gzip compress the content, the object gets "Content-Encoding: gzip".
+     * @param skip_unchanged don't upload if the object already holds the same content.
+     * @return future of the key, done when the object is stored.
+     */
+    Future<String> upload(final File file, final String key, final boolean public_read,
+                          final boolean gzip, final boolean skip_unchanged) {
+        return file_executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                uploadFile(file, key, public_read, gzip, skip_unchanged);
+                return key;
+            }
+        });
+    }
+
+    /**
+     * Wait for uploads, and fail if one of them failed.
+     */
+    static void awaitAll(List<Future<String>> uploads) throws IOException, InterruptedException {
+        for (Future<String> upload : uploads) {
+            try {
+                upload.get();
+            }
+            catch (ExecutionException e) {
+                throw new IOException("Upload failed", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * @return part slots no part holds, all of them while nothing is uploading.
+     */
+    int freePartSlots() {
+        return part_slots.availablePermits();
+    }
+
+    void shutdown() {
+        file_executor.shutdownNow();
+        part_executor.shutdownNow();
+    }
+
+    /**
+     * @param elapsed_ms time the uploads took.
+     * @return one line of upload statistics.
+     */
+    String stats(long elapsed_ms) {
+        double mb = bytes_uploaded.get() / (1024.0 * 1024.0);
+        double seconds = Math.max(elapsed_ms, 1) / 1000.0;
+        return String.format("%d files uploaded, %d skipped, %.1f MB in %.1f s (%.1f MB/s), max %d parts in flight",
+                files_uploaded.get(), files_skipped.get(), mb, seconds, mb / seconds, max_parts_in_flight.get());
+    }
+
+    private void uploadFile(File file, String key, boolean public_read, boolean gzip, boolean skip_unchanged)
+            throws IOException, InterruptedException {
+        if (!file.exists()) {
+            throw new FileNotFoundException("Can't find file: " + file.getAbsolutePath());
+        }
+        ensureBucket();
+
+        String hash = null;
+        if (skip_unchanged) {
+            hash = sha256(file);
+            if (hash.equals(remoteHash(key))) {
+                System.out.println("Unchanged, skipping file: " + file.getName());
+                files_skipped.incrementAndGet();
+                return;
+            }
+        }
+
+        ObjectInfo info = new ObjectInfo().withPublicRead(public_read);
+        if (hash != null) {
+            info.withUserMetadata(CONTENT_HASH_METADATA, hash);
+        }
+        if (gzip) {
+            info.withContentEncoding("gzip");
+        }
+
+        PartOutputStream parts = new PartOutputStream(key, info, file.length());
+        InputStream input = new FileInputStream(file);
+        try {
+            OutputStream output = gzip ? new GZIPOutputStream(parts, 64 * 1024) : parts;
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+            output.close();
+        }
+        catch (IOException e) {
+            parts.abort();
+            throw e;
+        }
+        catch (RuntimeException e) {
+            parts.abort();
+            throw e;
+        }
+        finally {
+            input.close();
+        }
+
+        files_uploaded.incrementAndGet();
+        System.out.println("Uploaded file: " + file.getName());
+    }
+
+    /**
+     * @return the content hash stored on the object, null if there's no such object.
+     */
+    private String remoteHash(String key) throws IOException {
+        ObjectInfo info = storage.head(key);
+        return info == null ? null : info.user_metadata.get(CONTENT_HASH_METADATA);
+    }
+
+    static String sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        InputStream input = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        finally {
+            input.close();
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Cuts what is written into PART_SIZE parts and sends them in parallel.
+     * Content that fits in a single part goes up with a plain put on close.
+     */
+    private class PartOutputStream extends OutputStream {
+        private final String key;
+        private final ObjectInfo info;
+        private final long expected_length;
+
+        // Allocated on the first write, so small files don't hold a whole part.
+        private byte[] buffer;
+        private int buffered;
+
+        private String upload_id;
+        private final List<Future<String>> part_futures = new ArrayList<Future<String>>();
+
+        /**
+         * @param expected_length bytes expected to be written, to size the first buffer.
+         */
+        PartOutputStream(String key, ObjectInfo info, long expected_length) {
+            this.key = key;
+            this.info = info;
+            this.expected_length = expected_length;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (buffered == PART_SIZE) {
+                    sendPart();
+                }
+                if (buffer == null || buffered == buffer.length) {
+                    grow();
+                }
+                int count = Math.min(length, buffer.length - buffered);
+                System.arraycopy(data, offset, buffer, buffered, count);
+                buffered += count;
+                offset += count;
+                length -= count;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (upload_id == null) {
+                // Small enough for a single request.
+                storage.put(key, buffer != null ? buffer : new byte[0], 0, buffered, info);
+                bytes_uploaded.addAndGet(buffered);
+                return;
+            }
+
+            if (buffered > 0) {
+                sendPart();
+            }
+
+            // Futures are in part number order.
+            List<String> etags = new ArrayList<String>();
+            for (Future<String> part : part_futures) {
+                try {
+                    etags.add(part.get());
+                }
+                catch (InterruptedException e) {
+                    throw new InterruptedIOException("Interrupted while uploading " + key);
+                }
+                catch (ExecutionException e) {
+                    throw new IOException("Failed uploading part of " + key, e.getCause());
+                }
+            }
+            storage.completeMultipart(key, upload_id, etags);
+        }
+
+        /**
+         * Cancel the multipart upload, so storage doesn't keep the parts.
+         */
+        void abort() {
+            for (Future<String> part : part_futures) {
+                part.cancel(true);
+            }
+            if (upload_id != null) {
+                try {
+                    storage.abortMultipart(key, upload_id);
+                }
+                catch (Exception e) {
+                    System.out.println("Error aborting upload of " + key + " : " + e.toString());
+                }
+            }
+        }
+
+        private void sendPart() throws IOException {
+            if (upload_id == null) {
+                upload_id = storage.startMultipart(key, info);
+            }
+
+            try {
+                part_slots.acquire();
+            }
+            catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while uploading " + key);
+            }
+
+            final byte[] data = buffer;
+            final int length = buffered;
+            final int part_number = part_futures.size() + 1;
+
+            final String id = upload_id;
+            FutureTask<String> part = new FutureTask<String>(new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    int in_flight = parts_in_flight.incrementAndGet();
+                    updateMax(in_flight);
+                    try {
+                        String etag = storage.putPart(key, id, part_number, data, length);
+                        bytes_uploaded.addAndGet(length);
+                        return etag;
+                    }
+                    finally {
+                        parts_in_flight.decrementAndGet();
+                    }
+                }
+            }) {
+                @Override
+                protected void done() {
+                    // Also when cancelled before it ran, so an aborted upload gives back all its slots.
+                    part_slots.release();
+                }
+            };
+            try {
+                part_executor.execute(part);
+            }
+            catch (RejectedExecutionException e) {
+                part_slots.release();
+                throw new IOException("Upload stage is shut down, can't upload " + key, e);
+            }
+            part_futures.add(part);
+
+            // The sent buffer now belongs to the part task.
+            buffer = null;
+            buffered = 0;
+        }
+
+        /**
+         * Make room for more: the first buffer is as big as the expected length, and doubles up to PART_SIZE
+         * if more comes, e.g. from gzip. Parts after the first are PART_SIZE.
+         */
+        private void grow() {
+            if (buffer == null) {
+                long size = upload_id == null ? Math.max(expected_length, 1024) : PART_SIZE;
+                buffer = new byte[(int) Math.min(size, PART_SIZE)];
+            }
+            else {
+                buffer = Arrays.copyOf(buffer, (int) Math.min((long) buffer.length * 2, PART_SIZE));
+            }
+        }
+
+        private void updateMax(int in_flight) {
+            int max;
+            while (in_flight > (max = max_parts_in_flight.get())) {
+                if (max_parts_in_flight.compareAndSet(max, in_flight)) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,746 @@
+package localapp;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.SDKGlobalConfiguration;
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.PropertiesCredentials;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.AmazonEC2Client;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.AmazonSQSClient;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Common Amazon objects for local app, manager and workers for saving code
+ */
+class Utils {
+
+    static AmazonEC2 ec2_client;
+    static String manager_instanceId;
+    static AmazonSQS sqs_client;
+    static AmazonS3 s3_client;
+    static AWSCredentials credentials;
+
+    // Backends everything goes through, AWS or local.
+    static Storage storage;
+    static Queues queues;
+    static Compute compute;
+
+    // Latencies and counters of every call through the backends, and of the phases of a run.
+    static final Metrics metrics = new Metrics();
+
+    // Rate limits, retries, deadlines and circuit breakers of the backends, shared by all jobs.
+    static final CallPolicy storage_policy = CallPolicy.load("storage", 500, 100, 64, 6, 120000, 20, metrics);
+    static final CallPolicy queues_policy = CallPolicy.load("queues", 300, 50, 32, 6, 60000, 20, metrics);
+    static final CallPolicy compute_policy = CallPolicy.load("compute", 20, 10, 8, 6, 60000, 10, metrics);
+
+    // Timeouts of a single request, retries are up to the call policies.
+    private static final int CONNECTION_TIMEOUT_MS = 5000;
+    private static final int STORAGE_SOCKET_TIMEOUT_MS = 30000;
+    private static final int QUEUES_SOCKET_TIMEOUT_MS = 25000;
+    private static final int QUEUES_EXECUTION_TIMEOUT_MS = 40000;
+    private static final int COMPUTE_SOCKET_TIMEOUT_MS = 20000;
+    private static final int COMPUTE_EXECUTION_TIMEOUT_MS = 60000;
+
+    // -Dlocalapp.backend=local runs everything in this JVM, on files under -Dlocalapp.local_root.
+    static final String BACKEND_PROPERTY = "localapp.backend";
+    static final String LOCAL_ROOT_PROPERTY = "localapp.local_root";
+    private static final String DEFAULT_LOCAL_ROOT = "Resources/local";
+
+    // Config constants.
+    private static final String LOCAL_MANAGER_QUEUE_NAME = "local_manager_queue";
+    private static final String MANAGER_LOCAL_QUEUE_NAME = "manager_local_queue";
+    private static final String WORKERS_MANAGER_QUEUE_NAME = "workers_manager_queue";
+    private static final String MANAGER_WORKERS_QUEUE_NAME = "manager_workers_queue";
+    private static final String LOCAL_REPLY_QUEUE_PREFIX = "local_reply_queue_";
+    private static final String[] QUEUE_NAMES = {LOCAL_MANAGER_QUEUE_NAME, MANAGER_LOCAL_QUEUE_NAME,
+            MANAGER_WORKERS_QUEUE_NAME, WORKERS_MANAGER_QUEUE_NAME};
+
+    // Queue URLs of earlier runs, by access key and queue name. Local queues die with the JVM, so they aren't kept.
+    private static final String QUEUES_CACHE_FILE = "Resources/queues.cache";
+
+    private static final String CONFIG_AMAZON_EC2_CLIENT_ENDPOINT = "ec2.us-west-2.amazonaws.com";
+    private static final String CONFIG_CREDENTIALS_FILE_NAME = "Resources/AwsCredentials.properties";
+    private static final String CONFIG_IMAGE_ID = "ami-c229c0a2";
+    private static final String CONFIG_SECURITY_GROUP_IDS = "sg-01a8dd66";
+    private static final String CONFIG_KEY_NAME = "kp";
+
+    // Job message attribute telling the manager where to send this job's answers.
+    static final String REPLY_QUEUE_ATTRIBUTE = "ReplyQueueUrl";
+
+    // Job message attribute telling the manager the input is in the message, after the key and a newline,
+    // instead of in the bucket. Its value is how the input is encoded, only "text" for now.
+    static final String INLINE_INPUT_ATTRIBUTE = "InlineInput";
+    static final String INLINE_TEXT = "text";
+
+    // Bash variables.
+    private static final String BASH_MISSIONS_PER_WORKER = "\\$\\$missionsPerWorker\\$\\$";
+    private static final String BASH_FILE_PASSWORD = "\\$\\$filePassword\\$\\$";
+    private static final String BASH_STANDBY = "\\$\\$standby\\$\\$";
+    private static final String BASH_MANAGER_JAVA_OPTIONS = "\\$\\$managerJavaOptions\\$\\$";
+    private static final String BASH_WORKER_INSTANCE_TYPE = "\\$\\$workerInstanceType\\$\\$";
+    private static final String BASH_WORKER_HEAP = "\\$\\$workerHeap\\$\\$";
+    private static final String BASH_WORKER_SPOT = "\\$\\$workerSpot\\$\\$";
+    private static final String BASH_WORKER_SPOT_PRICE = "\\$\\$workerSpotPrice\\$\\$";
+
+    // Queue URL format: x_y_queue_url means x-->y direction queue.
+    // Volatile since cached URLs may be replaced by the background check.
+    static volatile String local_manager_queue_url;
+    static volatile String manager_local_queue_url;
+    static volatile String workers_manager_queue_url;
+    static volatile String manager_workers_queue_url;
+
+    // Bash files content.
+    public static String manager_user_data;
+
+    // Instance sizes.
+    static InstanceSpec manager_spec;
+    static InstanceSpec worker_spec;
+
+
+    /**
+     * @return true when running on the local backend instead of AWS.
+     */
+    static boolean isLocal() {
+        return "local".equals(System.getProperty(BACKEND_PROPERTY));
+    }
+
+    /**
+     * Get the backends and the queues ready, and load the manager's boot script.
+     * The clients are built at once, and so are the queues once there's an SQS client.
+     */
+    static void init(final String missions_per_worker, final String file_password) throws IOException {
+        ExecutorService startup = Executors.newCachedThreadPool(daemonThreads("startup"));
+        try {
+            List<Future<?>> steps = new ArrayList<Future<?>>();
+            steps.add(startup.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    loadManagerUserData(missions_per_worker, file_password);
+                    return null;
+                }
+            }));
+
+            if (isLocal()) {
+                System.out.println("Init local backend");
+                initLocal(Paths.get(System.getProperty(LOCAL_ROOT_PROPERTY, DEFAULT_LOCAL_ROOT)));
+                initQueues(startup);
+            }
+            else {
+                System.out.println("Init Credentials");
+                initCredentials();
+                initAws(startup, steps);
+            }
+            awaitStartup(steps);
+        }
+        finally {
+            // Lets a background refresh of the queue URLs finish.
+            startup.shutdown();
+        }
+    }
+
+    /**
+     * Build the S3 and EC2 clients in the background, and the SQS client and queues right here.
+     */
+    private static void initAws(final ExecutorService startup, List<Future<?>> steps) throws IOException {
+        steps.add(startup.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                System.out.println("Init S3");
+                initS3();
+                return null;
+            }
+        }));
+        steps.add(startup.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                System.out.println("Init EC2 Client");
+                initEC2Client();
+                return null;
+            }
+        }));
+        System.out.println("Init SQS");
+        initSqs();
+        initQueues(startup);
+    }
+
+    /**
+     * Load the instance sizes and fill in the manager's boot script.
+     */
+    private static void loadManagerUserData(String missions_per_worker, String file_password) throws IOException {
+        // Load instance sizes, defaults are what we always used.
+        manager_spec = InstanceSpec.load("manager", new InstanceSpec(InstanceSpec.DEFAULT_INSTANCE_TYPE, null, false, null));
+        worker_spec = InstanceSpec.load("worker", new InstanceSpec(InstanceSpec.DEFAULT_INSTANCE_TYPE, "768M", false, null));
+        System.out.println("Manager instances: " + manager_spec + ". Worker instances: " + worker_spec + ".");
+
+        // Load manager data from file.
+        String user_data = loadFromFile("Resources/manager.sh");
+        user_data = user_data.replaceAll(BASH_MISSIONS_PER_WORKER, missions_per_worker + "");
+        user_data = user_data.replaceAll(BASH_FILE_PASSWORD, file_password + "");
+        user_data = user_data.replaceAll(BASH_MANAGER_JAVA_OPTIONS, manager_spec.javaHeapOption());
+        user_data = user_data.replaceAll(BASH_WORKER_INSTANCE_TYPE, worker_spec.instance_type);
+        user_data = user_data.replaceAll(BASH_WORKER_HEAP, worker_spec.heap == null ? "" : worker_spec.heap);
+        user_data = user_data.replaceAll(BASH_WORKER_SPOT, worker_spec.spot + "");
+        user_data = user_data.replaceAll(BASH_WORKER_SPOT_PRICE,
+                worker_spec.spot_price == null ? "" : worker_spec.spot_price);
+        manager_user_data = user_data;
+    }
+
+    private static void awaitStartup(List<Future<?>> steps) throws IOException {
+        try {
+            for (Future<?> step : steps) {
+                step.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while starting");
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Startup failed", e.getCause());
+        }
+    }
+
+    // Only our own calls go through these: the local backend's simulated manager keeps the raw backends.
+    // Metered outside the policies, so a call's latency includes its waits and retries.
+
+    private static Storage guarded(Storage backend) {
+        return new MeteredStorage(storage_policy.guard(Storage.class, backend), metrics);
+    }
+
+    private static Queues guarded(Queues backend) {
+        return new MeteredQueues(queues_policy.guard(Queues.class, backend), metrics);
+    }
+
+    private static Compute guarded(Compute backend) {
+        return new MeteredCompute(compute_policy.guard(Compute.class, backend, "launch", "start"), metrics);
+    }
+
+    /**
+     * Load file data into a string.
+     *
+     * @param filePath
+     * @return file's data.
+     * @throws IOException
+     */
+    static String loadFromFile(String filePath)  throws IOException {
+        String data = "";
+        BufferedReader reader = null;
+        String currentLine;
+
+        reader = new BufferedReader(new FileReader(filePath));
+        while ((currentLine = reader.readLine()) != null) {
+            data += currentLine + "\n";
+        }
+        if (reader != null) {
+            reader.close();
+        }
+
+        return data;
+    }
+
+    /**
+     * Initiate credentials from file.
+     */
+    private static void initCredentials() throws IOException {
+        File credentials_file = new File(CONFIG_CREDENTIALS_FILE_NAME);
+
+        if (!credentials_file.exists()) {
+            throw new IOException("No credential file found.");
+        }
+
+        credentials = new PropertiesCredentials(credentials_file);
+    }
+
+    private static void initS3() {
+        // No limit on whole requests, large parts and downloads take long; a stalled one hits the socket timeout.
+        s3_client = new AmazonS3Client(credentials, clientConfiguration(STORAGE_SOCKET_TIMEOUT_MS, 0));
+        System.setProperty(SDKGlobalConfiguration.ENABLE_S3_SIGV4_SYSTEM_PROPERTY, "true");
+        storage = guarded(new AwsStorage(s3_client, LocalApp.BUCKET_NAME));
+    }
+
+    private static void initSqs() throws IOException {
+        // Long polls take up to 20 seconds.
+        sqs_client = new AmazonSQSClient(credentials,
+                clientConfiguration(QUEUES_SOCKET_TIMEOUT_MS, QUEUES_EXECUTION_TIMEOUT_MS));
+        queues = guarded(new AwsQueues(sqs_client));
+    }
+
+    /**
+     * Storage in a directory, in-process queues, and a simulated manager instead of EC2.
+     */
+    private static void initLocal(Path root) throws IOException {
+        Storage local_storage = new LocalStorage(root);
+        local_storage.ensureBucket();
+        Queues local_queues = new LocalQueues();
+        Compute local_compute = new LocalCompute(local_storage, local_queues);
+
+        if (LocalFaults.enabled()) {
+            System.out.println("Injecting latency, throttling and errors into the local backend.");
+            local_storage = LocalFaults.wrap(Storage.class, local_storage, "Amazon S3", "SlowDown", 503);
+            local_queues = LocalFaults.wrap(Queues.class, local_queues, "AmazonSQS", "RequestThrottled", 403);
+            local_compute = LocalFaults.wrap(Compute.class, local_compute, "AmazonEC2", "RequestLimitExceeded", 503);
+        }
+        storage = guarded(local_storage);
+        queues = guarded(local_queues);
+        compute = guarded(local_compute);
+    }
+
+    /**
+     * SDK client settings: no retries of its own, and timeouts so a call can't hang.
+     *
+     * @param execution_timeout_ms longest a whole request may take, 0 for no limit.
+     */
+    private static ClientConfiguration clientConfiguration(int socket_timeout_ms, int execution_timeout_ms) {
+        return new ClientConfiguration()
+                .withRetryPolicy(PredefinedRetryPolicies.NO_RETRY_POLICY)
+                .withConnectionTimeout(CONNECTION_TIMEOUT_MS)
+                .withSocketTimeout(socket_timeout_ms)
+                .withClientExecutionTimeout(execution_timeout_ms);
+    }
+
+    /**
+     * Get the URLs of the queues, creating the ones that don't exist, all at once.
+     * URLs of earlier runs are used right away: an SQS queue URL only depends on the account, region and name,
+     * so it stays the same even if the queue is deleted and created again. They are checked in the background,
+     * which also creates queues deleted since; until then, calls to such a queue are retried by the policy.
+     */
+    private static void initQueues(ExecutorService startup) throws IOException {
+        final Path cache = isLocal() ? null : Paths.get(QUEUES_CACHE_FILE);
+        String[] cached = loadQueueUrls(cache);
+        if (cached != null) {
+            setQueueUrls(cached);
+            System.out.println("Queue URLs from " + QUEUES_CACHE_FILE + ", checking them in the background.");
+            startup.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        String[] urls = createQueues(Executors.newCachedThreadPool(daemonThreads("queues")));
+                        setQueueUrls(urls);
+                        saveQueueUrls(cache, urls);
+                    }
+                    catch (Exception e) {
+                        // The cached URLs are all there is until the next run.
+                        System.out.println("Error checking queue URLs : " + e.toString());
+                    }
+                }
+            });
+            return;
+        }
+
+        ExecutorService executor = Executors.newCachedThreadPool(daemonThreads("queues"));
+        String[] urls = createQueues(executor);
+        setQueueUrls(urls);
+        if (cache != null) {
+            saveQueueUrls(cache, urls);
+        }
+    }
+
+    /**
+     * Create the queues at once, with the executor shut down after.
+     *
+     * @return URLs, in QUEUE_NAMES order.
+     */
+    private static String[] createQueues(ExecutorService executor) throws IOException {
+        try {
+            List<Future<String>> futures = new ArrayList<Future<String>>();
+            for (final String name : QUEUE_NAMES) {
+                futures.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return getQueue(name);
+                    }
+                }));
+            }
+            String[] urls = new String[QUEUE_NAMES.length];
+            for (int i = 0; i < urls.length; i++) {
+                urls[i] = futures.get(i).get();
+            }
+            return urls;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while creating queues");
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Creating queues failed", e.getCause());
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void setQueueUrls(String[] urls) {
+        local_manager_queue_url = urls[0];
+        manager_local_queue_url = urls[1];
+        manager_workers_queue_url = urls[2];
+        workers_manager_queue_url = urls[3];
+    }
+
+    /**
+     * @return URLs of the queues for these credentials in QUEUE_NAMES order, null unless all of them are known.
+     */
+    private static String[] loadQueueUrls(Path cache) {
+        if (cache == null || !Files.exists(cache)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try {
+            Reader reader = Files.newBufferedReader(cache, StandardCharsets.UTF_8);
+            try {
+                properties.load(reader);
+            }
+            finally {
+                reader.close();
+            }
+        }
+        catch (IOException e) {
+            // Broken cache, create the queues again.
+            return null;
+        }
+        String[] urls = new String[QUEUE_NAMES.length];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = properties.getProperty(queueCacheKey(QUEUE_NAMES[i]));
+            if (urls[i] == null) {
+                return null;
+            }
+        }
+        return urls;
+    }
+
+    private static synchronized void saveQueueUrls(Path cache, String[] urls) throws IOException {
+        Properties properties = new Properties();
+        if (Files.exists(cache)) {
+            Reader reader = Files.newBufferedReader(cache, StandardCharsets.UTF_8);
+            try {
+                properties.load(reader);
+            }
+            finally {
+                reader.close();
+            }
+        }
+        for (int i = 0; i < urls.length; i++) {
+            properties.setProperty(queueCacheKey(QUEUE_NAMES[i]), urls[i]);
+        }
+        Path temp = cache.resolveSibling(cache.getFileName() + ".tmp");
+        Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8);
+        try {
+            properties.store(writer, "Queue URLs by access key and queue name");
+        }
+        finally {
+            writer.close();
+        }
+        Files.move(temp, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Queues of another account have other URLs.
+     */
+    private static String queueCacheKey(String name) {
+        return (credentials == null ? "" : credentials.getAWSAccessKeyId() + ".") + name;
+    }
+
+
+    private static void initEC2Client() throws IOException {
+        // Set client connection
+        ec2_client = new AmazonEC2Client(credentials,
+                clientConfiguration(COMPUTE_SOCKET_TIMEOUT_MS, COMPUTE_EXECUTION_TIMEOUT_MS));
+        ec2_client.setEndpoint(CONFIG_AMAZON_EC2_CLIENT_ENDPOINT);
+        compute = guarded(new AwsCompute(ec2_client, CONFIG_IMAGE_ID, CONFIG_KEY_NAME, CONFIG_SECURITY_GROUP_IDS));
+    }
+
+    /**
+     * Gets a queue by name. Creates one if does not exist.
+     *
+     * @param name Name of the queue.
+     * @return Queue URL.
+     */
+    private static String getQueue(String name) {
+        return queues.createQueue(name, null);
+    }
+
+    /**
+     * Create a queue only this local app reads from, for the manager's answers.
+     *
+     * @return Queue URL.
+     */
+    static String createReplyQueue() {
+        return queues.createQueue(LOCAL_REPLY_QUEUE_PREFIX + UUID.randomUUID(),
+                Collections.singletonMap("ReceiveMessageWaitTimeSeconds", CompletionNotifier.LONG_POLL_SECONDS + ""));
+    }
+
+    /**
+     * Delete a reply queue once its job is done.
+     *
+     * @param queueUrl URL of the queue.
+     */
+    static void deleteReplyQueue(String queueUrl) {
+        try {
+            queues.deleteQueue(queueUrl);
+        }
+        catch (Exception e) {
+            System.out.println("Error deleting reply queue : " + e.toString());
+        }
+    }
+
+    /**
+     *
+     * @param tag : tag of machine
+     * @param userData : user data for machine
+     * @return String instance ID of created machine
+     */
+    static String createEC2Instance(String tag, String userData, InstanceSpec spec) throws IOException {
+        return createEC2Instances(tag, userData, 1, spec).get(0);
+    }
+
+    /**
+     * Launch instances in a single request, tagged at launch.
+     *
+     * @param tag : tag of machines
+     * @param userData : user data for machines
+     * @param count : number of machines
+     * @param spec : type and pricing of the machines
+     * @return String instance IDs of created machines
+     */
+    static List<String> createEC2Instances(String tag, String userData, int count, InstanceSpec spec)
+            throws IOException {
+        return compute.launch(tag, userData, count, spec);
+    }
+
+
+    /**
+     * Tag a remote instance.
+     *
+     * @param instanceId the instance to tag
+     * @param tag        the tag to give to the instance ( example: "Name" )
+     * @param value      the value of the tag ( example: "worker" )
+     */
+    public static void tagInstance(String instanceId, String tag, String value) {
+        compute.tag(instanceId, tag, value);
+    }
+
+
+    /**
+     * Thread factory for background pools, so they don't keep the JVM alive.
+     *
+     * @param name prefix of the thread names.
+     */
+    static ThreadFactory daemonThreads(final String name) {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Clear queue for debugging.
+     */
+    public static void clearSQS(String queueUrl){
+        queues.purge(queueUrl);
+    }
+
+    /**
+     * Debug only; Clear all queues.
+     */
+    public static void clearAllSQS() {
+        Utils.clearSQS(Utils.manager_local_queue_url);
+        Utils.clearSQS(Utils.local_manager_queue_url);
+        Utils.clearSQS(Utils.manager_workers_queue_url);
+        Utils.clearSQS(Utils.workers_manager_queue_url);
+        System.out.println("ALL SQS CLEARED");
+    }
+
+    /**
+     * Create a new manager instance.
+     * @return manager instance.
+     */
+    public static String createManager() throws IOException {
+        return createEC2Instance(ManagerLocator.MANAGER_TAG_VALUE, manager_user_data.replaceAll(BASH_STANDBY, "false"),
+                manager_spec);
+    }
+
+    /**
+     * @return boot script of a standby manager, which stops after caching its files.
+     */
+    static String managerStandbyUserData() {
+        return manager_user_data.replaceAll(BASH_STANDBY, "true");
+    }
+
+    // HTML around the results.
+    static final String HTML_HEADER =
+            "<html><head>\n"                             +
+            "<style type=\"text/css\">"                  +
+            ".sentiment-level-0 { color: darkred; }"     +
+            ".sentiment-level-1 { color: red; }"         +
+            ".sentiment-level-2 { color: black; }"       +
+            ".sentiment-level-3 { color: lightgreen; }"  +
+            ".sentiment-level-4 { color: darkgreen; }"   +
+            "div { float: left; }"                       +
+            "</style>\n</head>\n<body>\n";
+    static final String HTML_FOOTER = "\n</body>\n</html>";
+
+    public static void exportToHTMLFile(ArrayList<String> lines, String output_file_name) throws IOException {
+        BufferedWriter output;
+        File file = new File(output_file_name);
+        System.out.println("Creating HTML file: " + file.getAbsoluteFile());
+
+        if (file.exists()) {
+            // Clean out old file.
+            file.delete();
+        }
+
+        output = new BufferedWriter(new FileWriter(file));
+        output.write(Utils.resultsToHtml(lines));
+        output.close();
+    }
+
+    /**
+     * Write results to an HTML file as they are read, one line at a time.
+     *
+     * @param results
+     *  reader of results from workers, one per line.
+     * @param output_file_name
+     *  HTML file to create, replaced if exists.
+     * @return
+     *  number of results written.
+     */
+    public static long exportToHTMLFile(BufferedReader results, String output_file_name) throws IOException {
+        Path path = Paths.get(output_file_name);
+        System.out.println("Creating HTML file: " + path.toAbsolutePath());
+
+        BufferedWriter output = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+        try {
+            return writeHtml(results, output);
+        }
+        finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Write a downloaded summary to an HTML file, whichever format the manager sent it in.
+     *
+     * @return
+     *  number of results written.
+     */
+    public static long exportToHTMLFile(Path summary, String output_file_name) throws IOException {
+        if (!SummaryFormat.isBinary(summary)) {
+            BufferedReader reader = Files.newBufferedReader(summary, StandardCharsets.UTF_8);
+            try {
+                return exportToHTMLFile(reader, output_file_name);
+            }
+            finally {
+                reader.close();
+            }
+        }
+
+        Path path = Paths.get(output_file_name);
+        System.out.println("Creating HTML file: " + path.toAbsolutePath());
+
+        BinarySummaryReader reader = new BinarySummaryReader(Files.newInputStream(summary));
+        try {
+            BufferedWriter output = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+            try {
+                return writeHtml(reader, output);
+            }
+            finally {
+                output.close();
+            }
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Write the HTML page of the results of a binary summary.
+     *
+     * @return number of results written.
+     */
+    static long writeHtml(BinarySummaryReader results, Writer output) throws IOException {
+        HtmlResultWriter html = new HtmlResultWriter(output);
+        html.write(HTML_HEADER);
+        while (results.next()) {
+            html.writeResult(results.sentiment(), results.entities(), results.tweet());
+        }
+        html.write(HTML_FOOTER);
+        html.flush();
+        return html.results;
+    }
+
+    /**
+     * Write the HTML page of the results, one line at a time.
+     *
+     * @return number of results written.
+     */
+    static long writeHtml(Reader results, Writer output) throws IOException {
+        HtmlResultWriter html = new HtmlResultWriter(output);
+        html.write(HTML_HEADER);
+        long count = html.writeAll(results);
+        html.write(HTML_FOOTER);
+        html.flush();
+
+        if (html.malformed > 0) {
+            System.out.println("Malformed results: " + html.malformed);
+        }
+        return count;
+    }
+
+    /**
+     * Turns the results to an HTML string.
+     *
+     * @param results
+     *  ArrayList<String> of results from workers.
+     * @return
+     *  HTML-encoded string.
+     */
+    public static String resultsToHtml(ArrayList<String> results) {
+        StringBuilder data = new StringBuilder();
+        HtmlResultWriter html = new HtmlResultWriter(data);
+
+        try {
+            html.write(HTML_HEADER);
+            for (String result : results) {
+                html.writeResult(result);
+            }
+            html.write(HTML_FOOTER);
+            html.flush();
+        }
+        catch (IOException e) {
+            // StringBuilder doesn't throw.
+            throw new UncheckedIOException(e);
+        }
+
+        return data.toString();
+    }
+}
@@ -0,0 +1,335 @@
+package localapp;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Picks how many tweets each worker gets, so a job is done within a target time (-Dlocalapp.target_s).
+ *
+ * Workers boot, then each goes through its share of the tweets, all at once. So a job takes about
+ * boot_ms + tasks_per_worker * tweet_ms, with workers = links / tasks_per_worker. Both are learned from earlier jobs,
+ * kept in a history file: a least squares fit of how long they waited against their tasks per worker, or with a
+ * single ratio so far, the worker boot time the manager reported in its Stats (or DEFAULT_WORKER_BOOT_MS).
+ * Until there is any history, the tasks per worker given on the command line are used.
+ *
+ * The hint goes with each job as the TasksPerWorker and Workers attributes. Managers that don't know them
+ * use the number they were started with. A job cut into shards is sized as a whole, and the workers it may
+ * have are divided among its shards by their links, so the shards together ask for no more than max_workers
+ * (but one each).
+ */
+class WorkerSizing {
+
+    static final String TASKS_PER_WORKER_ATTRIBUTE = "TasksPerWorker";
+    static final String WORKERS_ATTRIBUTE = "Workers";
+
+    static final long DEFAULT_TARGET_S = 300;
+
+    // Instances the account may run besides the manager (-Dlocalapp.max_workers).
+    static final int DEFAULT_MAX_WORKERS = 19;
+
+    // Until the manager reports it.
+    static final long DEFAULT_WORKER_BOOT_MS = 60000;
+
+    // Only the latest jobs count, the fleet and the manager change.
+    static final int HISTORY_JOBS = 100;
+
+    // Stats file fields this reads, "name: value" a line. Other fields are kept in the history as they are.
+    static final String STATS_WORKER_BOOT_MS = "worker_boot_ms";
+
+    /**
+     * Tasks per worker and workers of a job or a shard, and how long it should take, -1 if unknown.
+     */
+    static class Hint {
+        final long links;
+        final int tasks_per_worker;
+        final int workers;
+        final long expected_ms;
+
+        Hint(long links, int tasks_per_worker, int workers, long expected_ms) {
+            this.links = links;
+            this.tasks_per_worker = tasks_per_worker;
+            this.workers = workers;
+            this.expected_ms = expected_ms;
+        }
+
+        @Override
+        public String toString() {
+            return tasks_per_worker + " tasks per worker, " + workers + " workers" +
+                    (expected_ms >= 0 ? ", about " + expected_ms / 1000 + " s" : "");
+        }
+    }
+
+    /**
+     * A job that went to the manager.
+     */
+    private static class Job {
+        final int tasks_per_worker;
+        final long wait_ms;
+
+        Job(int tasks_per_worker, long wait_ms) {
+            this.tasks_per_worker = tasks_per_worker;
+            this.wait_ms = wait_ms;
+        }
+    }
+
+    private final Path history;
+    private final int default_tasks_per_worker;
+    private final long target_ms;
+    private final int max_workers;
+
+    private final List<Job> jobs = new ArrayList<Job>();
+    private long worker_boot_ms = -1;
+
+    // Fitted from jobs, -1 until there are any.
+    private long boot_ms = -1;
+    private double tweet_ms = -1;
+
+    /**
+     * @param history file of earlier jobs and Stats, appended to as jobs finish.
+     * @param default_tasks_per_worker used until there is a history.
+     */
+    WorkerSizing(Path history, int default_tasks_per_worker, long target_ms, int max_workers) throws IOException {
+        this.history = history;
+        this.default_tasks_per_worker = default_tasks_per_worker;
+        this.target_ms = target_ms;
+        this.max_workers = max_workers;
+        load();
+        fit();
+    }
+
+    /**
+     * @param links links the manager gets.
+     */
+    synchronized Hint size(long links) {
+        if (tweet_ms < 0) {
+            return new Hint(links, default_tasks_per_worker, workers(links, default_tasks_per_worker), -1);
+        }
+
+        long budget_ms = target_ms - boot_ms;
+        long tasks_per_worker;
+        if (tweet_ms == 0) {
+            tasks_per_worker = links;
+        }
+        else {
+            // Too tight a target gets as many workers as allowed, a loose one no more tasks than there are.
+            tasks_per_worker = Math.min((long) (budget_ms / tweet_ms), links);
+        }
+        return hint(links, tasks_per_worker, max_workers);
+    }
+
+    /**
+     * @param job hint of the whole job.
+     * @param links links of each of its shards.
+     * @return the hints that go with the shards: the job's tasks per worker, for the shard's links, with the
+     * workers of the job divided among them by their links.
+     */
+    synchronized List<Hint> shard(Hint job, List<Long> links) {
+        long total = 0;
+        for (long shard : links) {
+            total += shard;
+        }
+        List<Hint> hints = new ArrayList<Hint>();
+        for (long shard : links) {
+            // Rounded down, so the shares add up to no more than the job's.
+            long share = total > 0 ? job.workers * shard / total : 0;
+            hints.add(hint(shard, job.tasks_per_worker, (int) Math.max(1, share)));
+        }
+        return hints;
+    }
+
+    /**
+     * Learn from a job that is done.
+     *
+     * @param shards hints of its shards, the hint of the job if it wasn't cut.
+     * @param wait_ms time from sending the job to the manager until it was done with its last shard.
+     */
+    synchronized void record(List<Hint> shards, long wait_ms) throws IOException {
+        // The tasks per worker the workers really got. The job waits for the shard with the most.
+        long links = 0;
+        int workers = 0;
+        int tasks_per_worker = 0;
+        StringBuilder shard_tasks = new StringBuilder();
+        for (Hint shard : shards) {
+            int effective = effectiveTasksPerWorker(shard);
+            links += shard.links;
+            workers += shard.workers;
+            tasks_per_worker = Math.max(tasks_per_worker, effective);
+            shard_tasks.append(shard_tasks.length() == 0 ? "" : ",").append(effective);
+        }
+        append("job " + System.currentTimeMillis() + " links=" + links + " shards=" + shards.size() +
+                " tasks_per_worker=" + tasks_per_worker + " workers=" + workers + " wait_ms=" + wait_ms +
+                " shard_tasks_per_worker=" + shard_tasks);
+        add(new Job(tasks_per_worker, wait_ms));
+        fit();
+    }
+
+    /**
+     * Keep the numbers of a Stats file the manager wrote on termination.
+     */
+    synchronized void recordStats(Path stats) throws IOException {
+        StringBuilder line = new StringBuilder("stats " + System.currentTimeMillis());
+        for (String stat : Files.readAllLines(stats, StandardCharsets.UTF_8)) {
+            int colon = stat.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String name = stat.substring(0, colon).trim().replace(' ', '_');
+            String value = stat.substring(colon + 1).trim();
+            if (!name.isEmpty() && value.matches("-?[0-9.]+")) {
+                line.append(' ').append(name).append('=').append(value);
+                if (name.equals(STATS_WORKER_BOOT_MS)) {
+                    worker_boot_ms = (long) Double.parseDouble(value);
+                }
+            }
+        }
+        append(line.toString());
+        fit();
+    }
+
+    /**
+     * @return one line about what was learned.
+     */
+    synchronized String stats() {
+        if (tweet_ms < 0) {
+            return "no history, " + default_tasks_per_worker + " tasks per worker";
+        }
+        return jobs.size() + " jobs: workers boot in " + boot_ms + " ms, " + String.format("%.2f", tweet_ms) +
+                " ms a tweet, target " + target_ms / 1000 + " s";
+    }
+
+    /**
+     * Non-blank lines, what the manager counts as tweets.
+     */
+    static long countLinks(File input) throws IOException {
+        long links = 0;
+        boolean blank = true;
+        InputStream stream = new BufferedInputStream(new FileInputStream(input), 64 * 1024);
+        try {
+            int b;
+            while ((b = stream.read()) >= 0) {
+                if (b == '\n') {
+                    if (!blank) {
+                        links++;
+                    }
+                    blank = true;
+                }
+                else if (b != ' ' && b != '\t' && b != '\r') {
+                    blank = false;
+                }
+            }
+        }
+        finally {
+            stream.close();
+        }
+        return blank ? links : links + 1;
+    }
+
+    /**
+     * @param tasks_per_worker wanted, raised to fit the links in max_workers.
+     */
+    private Hint hint(long links, long tasks_per_worker, int max_workers) {
+        tasks_per_worker = Math.max(1, Math.min(tasks_per_worker, Integer.MAX_VALUE));
+        int workers = workers(links, (int) tasks_per_worker);
+        if (workers > max_workers) {
+            workers = max_workers;
+            tasks_per_worker = Math.max(1, Math.min((links + max_workers - 1) / max_workers, Integer.MAX_VALUE));
+        }
+        return new Hint(links, (int) tasks_per_worker, workers,
+                tweet_ms < 0 ? -1 : boot_ms + Math.round(tasks_per_worker * tweet_ms));
+    }
+
+    /**
+     * Tasks of the busiest worker: the links spread over the workers, at most the tasks per worker asked for.
+     */
+    private static int effectiveTasksPerWorker(Hint hint) {
+        return (int) Math.max(1, Math.min((hint.links + hint.workers - 1) / hint.workers, Integer.MAX_VALUE));
+    }
+
+    private int workers(long links, int tasks_per_worker) {
+        return (int) Math.max(1, Math.min((links + tasks_per_worker - 1) / tasks_per_worker, Integer.MAX_VALUE));
+    }
+
+    private void add(Job job) {
+        jobs.add(job);
+        if (jobs.size() > HISTORY_JOBS) {
+            jobs.remove(0);
+        }
+    }
+
+    /**
+     * Fit wait_ms = boot_ms + tasks_per_worker * tweet_ms to the jobs.
+     */
+    private void fit() {
+        if (jobs.isEmpty()) {
+            return;
+        }
+        double n = jobs.size();
+        double sum_x = 0;
+        double sum_y = 0;
+        for (Job job : jobs) {
+            sum_x += job.tasks_per_worker;
+            sum_y += job.wait_ms;
+        }
+        double mean_x = sum_x / n;
+        double mean_y = sum_y / n;
+        double covariance = 0;
+        double variance = 0;
+        for (Job job : jobs) {
+            covariance += (job.tasks_per_worker - mean_x) * (job.wait_ms - mean_y);
+            variance += (job.tasks_per_worker - mean_x) * (job.tasks_per_worker - mean_x);
+        }
+
+        if (variance > 0 && covariance > 0 && mean_y - covariance / variance * mean_x >= 0) {
+            tweet_ms = covariance / variance;
+            boot_ms = Math.round(mean_y - tweet_ms * mean_x);
+            return;
+        }
+
+        // A single ratio so far, or noise: take the boot time as known and put the rest on the tweets.
+        boot_ms = worker_boot_ms >= 0 ? worker_boot_ms : Math.min(DEFAULT_WORKER_BOOT_MS, Math.round(mean_y / 2));
+        tweet_ms = Math.max(0, (mean_y - boot_ms) / mean_x);
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(history)) {
+            return;
+        }
+        for (String line : Files.readAllLines(history, StandardCharsets.UTF_8)) {
+            String[] fields = line.trim().split(" ");
+            Map<String, String> values = new HashMap<String, String>();
+            for (String field : fields) {
+                int equals = field.indexOf('=');
+                if (equals > 0) {
+                    values.put(field.substring(0, equals), field.substring(equals + 1));
+                }
+            }
+            try {
+                if (fields[0].equals("job")) {
+                    add(new Job(Integer.parseInt(values.get("tasks_per_worker")), Long.parseLong(values.get("wait_ms"))));
+                }
+                else if (fields[0].equals("stats") && values.containsKey(STATS_WORKER_BOOT_MS)) {
+                    worker_boot_ms = (long) Double.parseDouble(values.get(STATS_WORKER_BOOT_MS));
+                }
+            }
+            catch (RuntimeException e) {
+                System.out.println("Skipping a bad line of " + history + ": " + line);
+            }
+        }
+    }
+
+    private void append(String line) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(history.toFile(), true), StandardCharsets.UTF_8);
+        try {
+            writer.write(line + "\n");
+        }
+        finally {
+            writer.close();
+        }
+    }
+}
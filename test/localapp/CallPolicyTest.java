@@ -0,0 +1,128 @@
+package localapp;
+
+import com.amazonaws.AmazonServiceException;
+import org.junit.Test;
+
+import java.io.UncheckedIOException;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.*;
+
+/**
+ * CallPolicy against the local queues, made to throttle and fail by LocalFaults.
+ */
+public class CallPolicyTest {
+
+    private final Metrics metrics = new Metrics();
+
+    @Test
+    public void retriesThrottledCallsAndSlowsDown() throws Exception {
+        CallPolicy policy = new CallPolicy("queues", 100, 100, 8, 10, 60000, 20, 10000, metrics);
+        LocalQueues local = new LocalQueues();
+        String queue_url = local.createQueue("q", null);
+        Queues queues = policy.guard(Queues.class, faulty(local, LocalFaults.THROTTLE_RPS_PROPERTY, "2"));
+
+        for (int i = 0; i < 4; i++) {
+            queues.send(queue_url, "m" + i, null);
+        }
+
+        // All of them made it, some only on a later attempt.
+        assertEquals(4, local.size(queue_url));
+        assertTrue(metrics.counter("queues.throttled") > 0);
+        assertEquals(metrics.counter("queues.throttled"), metrics.counter("queues.retries"));
+        assertTrue("Rate " + policy.rate(), policy.rate() < 100);
+
+        // Raised back once the backend stops throttling.
+        Queues healthy = policy.guard(Queues.class, local);
+        for (int i = 0; i < 100; i++) {
+            healthy.send(queue_url, "n" + i, null);
+        }
+        assertEquals(100, policy.rate(), 0);
+    }
+
+    @Test
+    public void opensTheCircuitAndClosesItAgain() throws Exception {
+        CallPolicy policy = new CallPolicy("queues", 1000, 100, 8, 3, 60000, 3, 200, metrics);
+        LocalQueues local = new LocalQueues();
+        String queue_url = local.createQueue("q", null);
+        Queues failing = policy.guard(Queues.class, faulty(local, LocalFaults.ERROR_RATE_PROPERTY, "1"));
+
+        try {
+            failing.send(queue_url, "m", null);
+            fail("Sent to a failing backend");
+        }
+        catch (AmazonServiceException e) {
+            assertEquals(500, e.getStatusCode());
+        }
+        assertEquals(2, metrics.counter("queues.retries"));
+        assertEquals(1, metrics.counter("queues.gave_up"));
+        assertEquals(1, metrics.counter("queues.circuit_opened"));
+
+        // Not even tried while open.
+        try {
+            failing.send(queue_url, "m", null);
+            fail("Called through an open circuit");
+        }
+        catch (UncheckedIOException e) {
+            assertTrue(e.getCause() instanceof CallPolicy.CircuitOpenException);
+        }
+        assertEquals(1, metrics.counter("queues.rejected"));
+        assertEquals(3, metrics.counter("queues.transient_errors"));
+
+        // The probe works, and the calls after it go through.
+        Thread.sleep(300);
+        Queues healthy = policy.guard(Queues.class, local);
+        healthy.send(queue_url, "m", null);
+        healthy.send(queue_url, "m", null);
+        assertEquals(2, local.size(queue_url));
+        assertEquals(1, metrics.counter("queues.rejected"));
+    }
+
+    @Test
+    public void anErrorInTheProbeLetsTheNextCallProbe() throws Exception {
+        CallPolicy policy = new CallPolicy("queues", 1000, 100, 8, 1, 60000, 1, 100, metrics);
+        LocalQueues local = new LocalQueues();
+        String queue_url = local.createQueue("q", null);
+        Queues failing = policy.guard(Queues.class, faulty(local, LocalFaults.ERROR_RATE_PROPERTY, "1"));
+
+        try {
+            failing.send(queue_url, "m", null);
+            fail("Sent to a failing backend");
+        }
+        catch (AmazonServiceException e) {
+            assertEquals(1, metrics.counter("queues.circuit_opened"));
+        }
+
+        Thread.sleep(150);
+        boolean thrown = false;
+        try {
+            policy.call("probe", true, new Callable<Void>() {
+                @Override
+                public Void call() {
+                    throw new StackOverflowError();
+                }
+            });
+        }
+        catch (StackOverflowError e) {
+            thrown = true;
+        }
+        assertTrue(thrown);
+
+        policy.guard(Queues.class, local).send(queue_url, "m", null);
+        assertEquals(1, local.size(queue_url));
+        assertEquals(0, metrics.counter("queues.rejected"));
+    }
+
+    /**
+     * The local queues with a fault turned on, only for them.
+     */
+    private static Queues faulty(LocalQueues queues, String property, String value) {
+        System.setProperty(property, value);
+        try {
+            return LocalFaults.wrap(Queues.class, queues, "AmazonSQS", "RequestThrottled", 403);
+        }
+        finally {
+            System.clearProperty(property);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package localapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * CompletionNotifier against the in-process queues: how fast a waiter wakes, and how many calls it takes.
+ */
+public class CompletionNotifierTest {
+
+    private LocalQueues queues;
+    private String queue_url;
+    private CompletionNotifier notifier;
+
+    @Before
+    public void setUp() {
+        queues = new LocalQueues();
+        queue_url = queues.createQueue("manager_local_queue", null);
+        notifier = new CompletionNotifier(queues, queue_url);
+    }
+
+    @After
+    public void tearDown() {
+        notifier.shutdown();
+    }
+
+    @Test
+    public void wakesOnItsDoneWithOneReceive() throws Exception {
+        CompletableFuture<Void> done = notifier.completion("a");
+        // The poller is in its long poll by now.
+        Thread.sleep(200);
+
+        long sent = System.nanoTime();
+        queues.send(queue_url, "a" + CompletionNotifier.DONE_SUFFIX, null);
+        done.get(5, TimeUnit.SECONDS);
+        long latency_ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sent);
+
+        // Woken by the message, not by the end of the long poll.
+        assertTrue("Woke after " + latency_ms + " ms", latency_ms < 1000);
+        assertEquals(1, notifier.receive_calls.get());
+        assertEquals(1, notifier.messages_received.get());
+        assertEquals(1, notifier.delete_calls.get());
+        assertEquals(0, notifier.release_calls.get());
+        assertEquals(0, queues.size(queue_url));
+    }
+
+    @Test
+    public void handsBackOtherClientsMessages() throws Exception {
+        queues.send(queue_url, "other" + CompletionNotifier.DONE_SUFFIX, null);
+        CompletableFuture<Void> done = notifier.completion("a");
+        queues.send(queue_url, "a" + CompletionNotifier.DONE_SUFFIX, null);
+        done.get(5, TimeUnit.SECONDS);
+
+        // Handed back after the waiters are woken.
+        long deadline = System.currentTimeMillis() + 5000;
+        while (notifier.release_calls.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, notifier.delete_calls.get());
+        assertTrue(notifier.release_calls.get() >= 1);
+        // Still there for its owner.
+        assertEquals(1, queues.size(queue_url));
+    }
+
+    @Test
+    public void deletesDuplicateDones() throws Exception {
+        notifier.completion("a");
+        queues.send(queue_url, "a" + CompletionNotifier.DONE_SUFFIX, null);
+        CompletableFuture<Void> done = notifier.completion("b");
+        queues.send(queue_url, "a" + CompletionNotifier.DONE_SUFFIX, null);
+        queues.send(queue_url, "b" + CompletionNotifier.DONE_SUFFIX, null);
+        done.get(5, TimeUnit.SECONDS);
+
+        assertEquals(3, notifier.delete_calls.get());
+        assertEquals(0, queues.size(queue_url));
+    }
+
+    @Test
+    public void theSameInputSentAgainWaitsForItsOwnDone() throws Exception {
+        String first = LocalApp.submissionKey("hash");
+        CompletableFuture<Void> done = notifier.completion(first);
+        queues.send(queue_url, first + CompletionNotifier.DONE_SUFFIX, null);
+        done.get(5, TimeUnit.SECONDS);
+
+        String second = LocalApp.submissionKey("hash");
+        assertNotEquals(first, second);
+        CompletableFuture<Void> again = notifier.completion(second);
+        assertFalse(again.isDone());
+        queues.send(queue_url, second + CompletionNotifier.DONE_SUFFIX, null);
+        again.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void forgetsTheOldestCompletedKeys() throws Exception {
+        for (int i = 0; i <= CompletionNotifier.COMPLETED_CAPACITY; i++) {
+            CompletableFuture<Void> done = notifier.completion("key-" + i);
+            queues.send(queue_url, "key-" + i + CompletionNotifier.DONE_SUFFIX, null);
+            done.get(5, TimeUnit.SECONDS);
+        }
+
+        assertTrue(notifier.completion("key-" + CompletionNotifier.COMPLETED_CAPACITY).isDone());
+        assertFalse(notifier.completion("key-0").isDone());
+    }
+}
@@ -0,0 +1,134 @@
+package localapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * UploadStage against local storage whose parts can be held up.
+ */
+public class UploadStageTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalStorage local;
+    private UploadStage stage;
+
+    // Parts wait for this while held.
+    private volatile CountDownLatch held_parts = new CountDownLatch(0);
+    private final AtomicInteger aborts = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        local = new LocalStorage(folder.newFolder("storage").toPath());
+        // One part sent at a time, and one more waiting for the thread.
+        stage = new UploadStage(holdingParts(local), 1);
+    }
+
+    @After
+    public void tearDown() {
+        held_parts.countDown();
+        stage.shutdown();
+    }
+
+    @Test
+    public void abortedUploadsGiveBackTheirPartSlots() throws Exception {
+        // Three parts and some: the third waits for a slot.
+        File input = folder.newFile("input");
+        RandomAccessFile file = new RandomAccessFile(input, "rw");
+        try {
+            file.setLength(3L * UploadStage.PART_SIZE + 1);
+        }
+        finally {
+            file.close();
+        }
+
+        // Each abort leaves a part that never ran in the queue.
+        for (int i = 1; i <= 2; i++) {
+            held_parts = new CountDownLatch(1);
+            Future<String> upload = stage.upload(input, "aborted-" + i, false, false, false);
+            awaitTrue(new Condition() {
+                @Override
+                public boolean holds() {
+                    return stage.parts_in_flight.get() == 1;
+                }
+            });
+            // Long enough for the second part to be queued and the third to wait for a slot.
+            Thread.sleep(200);
+            upload.cancel(true);
+            final int aborted = i;
+            awaitTrue(new Condition() {
+                @Override
+                public boolean holds() {
+                    return aborts.get() == aborted && stage.parts_in_flight.get() == 0;
+                }
+            });
+            held_parts.countDown();
+        }
+
+        assertEquals(2, stage.freePartSlots());
+
+        stage.upload(input, "complete", false, false, false).get(30, TimeUnit.SECONDS);
+        assertEquals(input.length(), local.head("complete").length);
+        assertEquals(2, stage.freePartSlots());
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+
+    private static void awaitTrue(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.holds()) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * The storage, with putPart waiting for held_parts and abortMultipart counted.
+     */
+    private Storage holdingParts(final Storage storage) {
+        return (Storage) Proxy.newProxyInstance(Storage.class.getClassLoader(), new Class<?>[] {Storage.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("putPart")) {
+                            try {
+                                held_parts.await();
+                            }
+                            catch (InterruptedException e) {
+                                throw new InterruptedIOException("Part cancelled");
+                            }
+                        }
+                        if (method.getName().equals("abortMultipart")) {
+                            aborts.incrementAndGet();
+                        }
+                        try {
+                            return method.invoke(storage, args);
+                        }
+                        catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+}
@@ -0,0 +1,74 @@
+package localapp;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * WorkerSizing with a history of one job: workers boot in 1 s, and take 100 ms a tweet.
+ */
+public class WorkerSizingTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path history;
+    private WorkerSizing sizing;
+
+    @Before
+    public void setUp() throws Exception {
+        history = folder.newFile("sizing.history").toPath();
+        Files.write(history, Arrays.asList(
+                "stats 0 " + WorkerSizing.STATS_WORKER_BOOT_MS + "=1000",
+                "job 0 links=10 shards=1 tasks_per_worker=10 workers=1 wait_ms=2000"), StandardCharsets.UTF_8);
+        // 100 tweets a worker fit in the 10 s left after the boot.
+        sizing = new WorkerSizing(history, 5, 11000, 4);
+    }
+
+    @Test
+    public void asksForNoMoreTasksThanThereAreLinks() {
+        WorkerSizing.Hint hint = sizing.size(50);
+
+        assertEquals(50, hint.tasks_per_worker);
+        assertEquals(1, hint.workers);
+        assertEquals(6000, hint.expected_ms);
+    }
+
+    @Test
+    public void dividesTheWorkersOfAJobAmongItsShards() {
+        WorkerSizing.Hint job = sizing.size(1000);
+        assertEquals(4, job.workers);
+        assertEquals(250, job.tasks_per_worker);
+
+        List<WorkerSizing.Hint> shards = sizing.shard(job, Arrays.asList(500L, 300L, 200L));
+
+        int workers = 0;
+        for (WorkerSizing.Hint shard : shards) {
+            workers += shard.workers;
+        }
+        assertEquals(4, workers);
+        assertEquals(2, shards.get(0).workers);
+        assertEquals(1, shards.get(1).workers);
+        assertEquals(300, shards.get(1).tasks_per_worker);
+    }
+
+    @Test
+    public void recordsTheTasksPerWorkerTheWorkersGot() throws Exception {
+        WorkerSizing.Hint job = sizing.size(1000);
+        sizing.record(sizing.shard(job, Arrays.asList(500L, 300L, 200L)), 40000);
+
+        List<String> lines = Files.readAllLines(history, StandardCharsets.UTF_8);
+        String line = lines.get(lines.size() - 1);
+        assertTrue(line, line.contains(" links=1000 shards=3 tasks_per_worker=300 workers=4 "));
+        assertTrue(line, line.endsWith(" shard_tasks_per_worker=250,300,200"));
+    }
+}